@@ -0,0 +1,29 @@
+package org.ewn.grind;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmark runner, that takes the JMH command line and always adds the GC profiler, so that allocation is reported along with time
+ * (gc.alloc.rate.norm is bytes per operation, that is per synset or per item for the per-item benchmarks).
+ * <p>
+ * java -jar target/benchmarks.jar -p corpus=merged.xml [jmh options] [benchmark regexp]
+ *
+ * @author Bernard Bou
+ */
+public class BenchmarkMain
+{
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException
+	{
+		Options options = new OptionsBuilder() //
+				.parent(new CommandLineOptions(args)) //
+				.addProfiler(GCProfiler.class) //
+				.build();
+		new Runner(options).run();
+	}
+}
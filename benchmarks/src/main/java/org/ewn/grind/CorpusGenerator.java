@@ -0,0 +1,637 @@
+package org.ewn.grind;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Generator of synthetic merged LMF files, shaped the way the grinder expects them, at a given scale of the merged English WordNet (scale 1 is about
+ * 120,000 synsets, 150,000 lexical entries and 210,000 senses). It also writes the tag.cnt and sentidx.vrb files next to the XML file.
+ * <p>
+ * Ids are 'oewn-' ids that decode to sensekeys, synsets have 'members' attributes in shuffled order, verb senses have 'subcat' frames, adjective senses
+ * may have positions, relations are legal for their part of speech with a realistic fan-out (a few synsets being hubs) and lexfiles are known to the
+ * coder, a share of them being 'contrib.*' lexfiles as merged lexicons have. Lemmas carry the characters that ids escape, non-ASCII letters, and
+ * upper-case variants of other lemmas. The same seed and scale yield the same files.
+ *
+ * @author Bernard Bou
+ */
+public class CorpusGenerator
+{
+	// S H A P E
+
+	/**
+	 * Synsets per part of speech at scale 1
+	 */
+	private static final String POSES = "nvasr";
+
+	private static final int[] SYNSETS = {84_000, 13_800, 7_500, 10_700, 3_600};
+
+	/**
+	 * Lexical entries per synset
+	 */
+	private static final double ENTRIES_PER_SYNSET = 1.23;
+
+	/**
+	 * Sense counts of lexical entries, drawn uniformly (about 1.4 senses per entry)
+	 */
+	private static final int[] SENSE_COUNTS = {1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 2, 2, 2, 2, 3, 5};
+
+	/**
+	 * Synset relation counts, drawn uniformly, hubs aside
+	 */
+	private static final int[] SYNSET_FANOUTS = {0, 1, 1, 1, 2, 2, 3, 4, 6};
+
+	/**
+	 * Share of synsets that are hubs, with hundreds of relations
+	 */
+	private static final double HUB_RATE = 0.002;
+
+	/**
+	 * Sense relation counts, drawn uniformly
+	 */
+	private static final int[] SENSE_FANOUTS = {0, 0, 0, 0, 0, 0, 1, 1, 2, 3};
+
+	private static final String[][] LEXFILES = { //
+			{"noun.Tops", "noun.act", "noun.animal", "noun.artifact", "noun.attribute", "noun.body", "noun.cognition", "noun.communication", "noun.event", "noun.feeling", "noun.food", "noun.group", "noun.location", "noun.motive", "noun.object", "noun.person", "noun.phenomenon", "noun.plant", "noun.possession", "noun.process", "noun.quantity", "noun.relation", "noun.shape", "noun.state", "noun.substance", "noun.time"}, //
+			{"verb.body", "verb.change", "verb.cognition", "verb.communication", "verb.competition", "verb.consumption", "verb.contact", "verb.creation", "verb.emotion", "verb.motion", "verb.perception", "verb.possession", "verb.social", "verb.stative", "verb.weather"}, //
+			{"adj.all", "adj.pert", "adj.ppl"}, //
+			{"adj.all"}, //
+			{"adv.all"}, //
+	};
+
+	/**
+	 * Lexfiles of merged lexicons, and the share of noun and verb synsets that go in them
+	 */
+	private static final String[] CONTRIB_LEXFILES = {"contrib.colloq", "contrib.plwn"};
+
+	private static final double CONTRIB_RATE = 0.05;
+
+	private static final String[][] SYNSET_RELATIONS = { //
+			{"hypernym", "hyponym", "hypernym", "hyponym", "instance_hypernym", "instance_hyponym", "mero_part", "holo_part", "mero_member", "holo_member", "mero_substance", "holo_substance", "domain_topic", "has_domain_topic", "domain_region", "has_domain_region", "exemplifies", "is_exemplified_by", "attribute"}, //
+			{"hypernym", "hyponym", "hypernym", "hyponym", "entails", "is_entailed_by", "causes", "is_caused_by", "similar", "also", "domain_topic", "domain_region", "exemplifies"}, //
+			{"similar", "also", "attribute", "domain_topic", "has_domain_topic", "domain_region", "exemplifies", "is_exemplified_by"}, //
+			{"similar", "similar", "also", "domain_topic", "has_domain_topic"}, //
+			{"domain_topic", "domain_region", "exemplifies", "has_domain_topic", "also"}, //
+	};
+
+	private static final String[][] SENSE_RELATIONS = { //
+			{"antonym", "derivation", "derivation", "pertainym", "also", "domain_topic", "exemplifies"}, //
+			{"antonym", "derivation", "derivation", "also", "domain_region"}, //
+			{"antonym", "pertainym", "participle", "derivation", "also"}, //
+			{"antonym", "pertainym", "similar", "derivation"}, //
+			{"antonym", "pertainym", "derivation", "also"}, //
+	};
+
+	private static final String[] FRAMES = {"vii", "via", "nonreferential", "vii-pp", "vtii-adj", "vii-adj", "via-adj", "vtai", "vtaa", "vtia", "vtii", "vii-to", "via-on-inanim", "ditransitive", "vtai-to", "via-pp", "vibody", "via-that", "via-to-inf", "via-inf", "via-ger", "nonreferential-sent", "vii-inf", "via-at", "via-for", "via-on-anim", "via-out-of"};
+
+	private static final String[] ADJ_POSITIONS = {"a", "p", "ip"};
+
+	/**
+	 * Fixed-width syllables, so that lemma roots spell their entry number and are unique
+	 */
+	private static final String[] SYLLABLES = {"ka", "lo", "mi", "ne", "ru", "ta", "ve", "zo", "ba", "pe", "di", "fo", "gu", "ha", "ji", "su"};
+
+	private static final String[] ESCAPES = {"'", "-ap-", "(", "-lb-", ")", "-rb-", "/", "-sl-", ",", "-cm-", "!", "-ex-", ":", "-cl-", "+", "-pl-", " ", "-sp-"};
+
+	// S T A T E
+
+	private final Random random;
+
+	private final long seed;
+
+	private final int[] synsetPos;
+
+	private final String[] synsetLexfile;
+
+	/**
+	 * Synset ordinal ranges per part of speech (synsets of POSES[p] are [synsetStart[p], synsetStart[p + 1]))
+	 */
+	private final int[] synsetStart;
+
+	private final int[] entryPos;
+
+	/**
+	 * Entry whose lemma this entry's lemma is an upper-case variant of, -1 if none
+	 */
+	private final int[] entryTwin;
+
+	/**
+	 * Senses of entry e are [entryFirstSense[e], entryFirstSense[e + 1])
+	 */
+	private final int[] entryFirstSense;
+
+	private final int[] senseEntry;
+
+	private final int[] senseSynset;
+
+	/**
+	 * Lemma of head of satellite senses, null otherwise
+	 */
+	private final String[] senseHead;
+
+	/**
+	 * Members of synset s are synsetMembers[synsetFirstMember[s] ... synsetFirstMember[s + 1]), as entry ordinals
+	 */
+	private final int[] synsetFirstMember;
+
+	private final int[] synsetMembers;
+
+	/**
+	 * Constructor, that lays out synsets, entries and senses
+	 *
+	 * @param scale scale (1 is the size of the merged English WordNet)
+	 * @param seed  random seed
+	 */
+	public CorpusGenerator(double scale, long seed)
+	{
+		this.seed = seed;
+		this.random = new Random(seed);
+
+		// synsets
+		synsetStart = new int[POSES.length() + 1];
+		for (int p = 0; p < POSES.length(); p++)
+		{
+			synsetStart[p + 1] = synsetStart[p] + Math.max(1, (int) (SYNSETS[p] * scale));
+		}
+		int synsetCount = synsetStart[POSES.length()];
+		synsetPos = new int[synsetCount];
+		synsetLexfile = new String[synsetCount];
+		for (int p = 0; p < POSES.length(); p++)
+		{
+			for (int s = synsetStart[p]; s < synsetStart[p + 1]; s++)
+			{
+				synsetPos[s] = p;
+				synsetLexfile[s] = p <= 1 && random.nextDouble() < CONTRIB_RATE ? pick(CONTRIB_LEXFILES) : pick(LEXFILES[p]);
+			}
+		}
+
+		// entries and their senses, then one entry for each synset left without members
+		IntList entryPos = new IntList();
+		IntList entryTwin = new IntList();
+		IntList entryFirstSense = new IntList();
+		IntList senseSynset = new IntList();
+		int[] memberCounts = new int[synsetCount];
+		for (int p = 0; p < POSES.length(); p++)
+		{
+			int n = (int) ((synsetStart[p + 1] - synsetStart[p]) * ENTRIES_PER_SYNSET);
+			for (int i = 0; i < n; i++)
+			{
+				int e = entryPos.size();
+				entryPos.add(p);
+				entryTwin.add(p <= 1 && i > 0 && random.nextInt(40) == 0 && entryTwin.get(e - 1) == -1 ? e - 1 : -1);
+				entryFirstSense.add(senseSynset.size());
+				int senseCount = Math.min(SENSE_COUNTS[random.nextInt(SENSE_COUNTS.length)], synsetStart[p + 1] - synsetStart[p]);
+				int first = senseSynset.size();
+				while (senseSynset.size() - first < senseCount)
+				{
+					int s = synsetStart[p] + random.nextInt(synsetStart[p + 1] - synsetStart[p]);
+					if (!senseSynset.contains(s, first))
+					{
+						senseSynset.add(s);
+						memberCounts[s]++;
+					}
+				}
+			}
+		}
+		for (int s = 0; s < synsetCount; s++)
+		{
+			if (memberCounts[s] == 0)
+			{
+				entryPos.add(synsetPos[s]);
+				entryTwin.add(-1);
+				entryFirstSense.add(senseSynset.size());
+				senseSynset.add(s);
+				memberCounts[s]++;
+			}
+		}
+		entryFirstSense.add(senseSynset.size());
+		this.entryPos = entryPos.toArray();
+		this.entryTwin = entryTwin.toArray();
+		this.entryFirstSense = entryFirstSense.toArray();
+		this.senseSynset = senseSynset.toArray();
+		this.senseEntry = new int[this.senseSynset.length];
+		for (int e = 0; e < this.entryPos.length; e++)
+		{
+			for (int j = this.entryFirstSense[e]; j < this.entryFirstSense[e + 1]; j++)
+			{
+				senseEntry[j] = e;
+			}
+		}
+
+		// satellite heads, the lemma of an adjective head
+		int firstAdjEntry = 0;
+		while (firstAdjEntry < this.entryPos.length && this.entryPos[firstAdjEntry] != POSES.indexOf('a'))
+		{
+			firstAdjEntry++;
+		}
+		senseHead = new String[this.senseSynset.length];
+		for (int j = 0; j < this.senseSynset.length; j++)
+		{
+			if (POSES.charAt(synsetPos[this.senseSynset[j]]) == 's')
+			{
+				senseHead[j] = root(firstAdjEntry + random.nextInt(synsetStart[POSES.indexOf('a') + 1] - synsetStart[POSES.indexOf('a')]));
+			}
+		}
+
+		// members, in shuffled order
+		synsetFirstMember = new int[synsetCount + 1];
+		for (int s = 0; s < synsetCount; s++)
+		{
+			synsetFirstMember[s + 1] = synsetFirstMember[s] + memberCounts[s];
+		}
+		synsetMembers = new int[synsetFirstMember[synsetCount]];
+		int[] fill = Arrays.copyOf(synsetFirstMember, synsetCount);
+		for (int j = 0; j < this.senseSynset.length; j++)
+		{
+			synsetMembers[fill[this.senseSynset[j]]++] = senseEntry[j];
+		}
+		for (int s = 0; s < synsetCount; s++)
+		{
+			for (int i = synsetFirstMember[s + 1] - 1; i > synsetFirstMember[s]; i--)
+			{
+				int k = synsetFirstMember[s] + random.nextInt(i - synsetFirstMember[s] + 1);
+				int t = synsetMembers[i];
+				synsetMembers[i] = synsetMembers[k];
+				synsetMembers[k] = t;
+			}
+		}
+	}
+
+	// L E M M A S   A N D   I D S
+
+	/**
+	 * Root of lemma: entry number spelled in syllables
+	 */
+	private static String root(int entry)
+	{
+		StringBuilder sb = new StringBuilder();
+		int n = entry;
+		do
+		{
+			sb.append(SYLLABLES[n & 0xF]);
+			n >>>= 4;
+		}
+		while (n != 0 || sb.length() < 4);
+		return sb.toString();
+	}
+
+	/**
+	 * Lemma of entry: root, capitalized for twins, with decorations that ids have to escape and some non-ASCII letters
+	 */
+	private String lemma(int entry)
+	{
+		int twin = entryTwin[entry];
+		if (twin != -1)
+		{
+			String lemma = lemma(twin);
+			return Character.toUpperCase(lemma.charAt(0)) + lemma.substring(1);
+		}
+		long h = mix(seed * 0x9E3779B97F4A7C15L + entry);
+		String root = root(entry);
+		int r = (int) ((h >>> 32) % 1000);
+		String decorated;
+		if (r < 80)
+			decorated = root + ' ' + SYLLABLES[(int) (h & 0xF)] + SYLLABLES[(int) (h >>> 4 & 0xF)];
+		else if (r < 100)
+			decorated = root + "'s";
+		else if (r < 110)
+			decorated = root + "(a)";
+		else if (r < 120)
+			decorated = root + '-' + SYLLABLES[(int) (h & 0xF)];
+		else if (r < 125)
+			decorated = root + ", " + SYLLABLES[(int) (h & 0xF)];
+		else if (r < 130)
+			decorated = root + '!';
+		else if (r < 135)
+			decorated = root + '+' + SYLLABLES[(int) (h & 0xF)];
+		else if (r < 140)
+			decorated = root + '/' + SYLLABLES[(int) (h & 0xF)];
+		else if (r < 170)
+			decorated = root + (h % 2 == 0 ? "é" : "ñu");
+		else
+			decorated = root;
+		return (h >>> 16 & 0xFF) < 18 ? Character.toUpperCase(decorated.charAt(0)) + decorated.substring(1) : decorated;
+	}
+
+	private static String escape(String lemma)
+	{
+		String id = lemma;
+		for (int i = 0; i < ESCAPES.length; i += 2)
+		{
+			id = id.replace(ESCAPES[i], ESCAPES[i + 1]);
+		}
+		return id;
+	}
+
+	private String entryId(int entry)
+	{
+		return "oewn-" + escape(lemma(entry)) + '-' + POSES.charAt(entryPos[entry]);
+	}
+
+	private String synsetId(int synset)
+	{
+		return String.format("oewn-%08d-%c", 1000 + 7 * synset, POSES.charAt(synsetPos[synset]));
+	}
+
+	private String senseId(int sense)
+	{
+		int entry = senseEntry[sense];
+		int synset = senseSynset[sense];
+		int senseCount = entryFirstSense[entry + 1] - entryFirstSense[entry];
+		int lexid = senseCount == 1 ? 0 : sense - entryFirstSense[entry] + 1;
+		int ssType = synsetPos[synset] + 1;
+		String head = senseHead[sense] == null ? "." : '.' + escape(senseHead[sense]) + ".01";
+		return String.format("oewn-%s__%d.%02d.%02d.%s", escape(lemma(entry)), ssType, Coder.codeLexFile(synsetLexfile[synset]), lexid, head);
+	}
+
+	// W R I T E
+
+	/**
+	 * Write merged XML file, then tag.cnt and sentidx.vrb in the same directory
+	 *
+	 * @param file XML file
+	 * @throws IOException        io
+	 * @throws XMLStreamException xml stream
+	 */
+	public void write(File file) throws IOException, XMLStreamException
+	{
+		try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file), 1 << 16))
+		{
+			XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(os, "UTF-8");
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeCharacters("\n");
+			writer.writeStartElement(XmlNames.LEXICALRESOURCE_TAG);
+			writer.writeNamespace("dc", XmlNames.NS_DC);
+			writer.writeCharacters("\n");
+			writer.writeStartElement(XmlNames.LEXICON_TAG);
+			writer.writeAttribute(XmlNames.ID_ATTR, "oewn");
+			writer.writeAttribute("label", "Synthetic English Wordnet");
+			writer.writeAttribute("language", "en");
+			writer.writeAttribute("version", "2021");
+			writer.writeCharacters("\n");
+			for (int e = 0; e < entryPos.length; e++)
+			{
+				writeEntry(writer, e);
+			}
+			for (int s = 0; s < synsetPos.length; s++)
+			{
+				writeSynset(writer, s);
+			}
+			writer.writeEndElement();
+			writer.writeCharacters("\n");
+			writer.writeEndElement();
+			writer.writeCharacters("\n");
+			writer.writeEndDocument();
+			writer.close();
+		}
+		writeSidecars(file.getAbsoluteFile().getParentFile());
+	}
+
+	private void writeEntry(XMLStreamWriter writer, int entry) throws XMLStreamException
+	{
+		char pos = POSES.charAt(entryPos[entry]);
+		String lemma = lemma(entry);
+		writer.writeStartElement(XmlNames.LEXICALENTRY_TAG);
+		writer.writeAttribute(XmlNames.ID_ATTR, entryId(entry));
+		writer.writeEmptyElement(XmlNames.LEMMA_TAG);
+		writer.writeAttribute(XmlNames.WRITTENFORM_ATTR, lemma);
+		writer.writeAttribute(XmlNames.POS_ATTR, String.valueOf(pos));
+		if (random.nextInt(100) < 15)
+		{
+			for (int i = random.nextInt(2); i >= 0; i--)
+			{
+				writer.writeEmptyElement(XmlNames.FORM_TAG);
+				writer.writeAttribute(XmlNames.WRITTENFORM_ATTR, lemma + (i == 0 ? "s" : "en"));
+			}
+		}
+		for (int j = entryFirstSense[entry]; j < entryFirstSense[entry + 1]; j++)
+		{
+			int synset = senseSynset[j];
+			int p = synsetPos[synset];
+			int relationCount = SENSE_FANOUTS[random.nextInt(SENSE_FANOUTS.length)];
+			if (relationCount == 0)
+			{
+				writer.writeEmptyElement(XmlNames.SENSE_TAG);
+			}
+			else
+			{
+				writer.writeStartElement(XmlNames.SENSE_TAG);
+			}
+			writer.writeAttribute(XmlNames.ID_ATTR, senseId(j));
+			writer.writeAttribute(XmlNames.N_ATTR, Integer.toString(j - entryFirstSense[entry]));
+			writer.writeAttribute(XmlNames.SYNSET_ATTR, synsetId(synset));
+			if ((pos == 'a' || pos == 's') && random.nextInt(5) == 0)
+			{
+				writer.writeAttribute(XmlNames.ADJPOSITION_ATTR, pick(ADJ_POSITIONS));
+			}
+			if (pos == 'v')
+			{
+				StringBuilder frames = new StringBuilder();
+				for (int i = random.nextInt(4); i > 0; i--)
+				{
+					String frame = pick(FRAMES);
+					if (frames.indexOf(frame + ' ') == -1 && !frames.toString().endsWith(frame))
+					{
+						frames.append(frames.length() == 0 ? "" : " ").append(frame);
+					}
+				}
+				if (frames.length() > 0)
+				{
+					writer.writeAttribute(XmlNames.VERBFRAMES_ATTR, frames.toString());
+				}
+			}
+			if (relationCount > 0)
+			{
+				for (int i = 0; i < relationCount; i++)
+				{
+					String type = pick(SENSE_RELATIONS[p]);
+					int target = random.nextInt(senseSynset.length);
+					writer.writeEmptyElement(XmlNames.SENSERELATION_TAG);
+					writer.writeAttribute(XmlNames.RELTYPE_ATTR, type);
+					writer.writeAttribute(XmlNames.TARGET_ATTR, senseId(target));
+				}
+				writer.writeEndElement();
+			}
+		}
+		writer.writeEndElement();
+		writer.writeCharacters("\n");
+	}
+
+	private void writeSynset(XMLStreamWriter writer, int synset) throws XMLStreamException
+	{
+		int p = synsetPos[synset];
+		StringBuilder members = new StringBuilder();
+		for (int i = synsetFirstMember[synset]; i < synsetFirstMember[synset + 1]; i++)
+		{
+			members.append(members.length() == 0 ? "" : " ").append(entryId(synsetMembers[i]));
+		}
+		writer.writeStartElement(XmlNames.SYNSET_TAG);
+		writer.writeAttribute(XmlNames.ID_ATTR, synsetId(synset));
+		writer.writeAttribute("ili", "i" + (synset + 1));
+		writer.writeAttribute(XmlNames.MEMBERS_ATTR, members.toString());
+		writer.writeAttribute(XmlNames.POS_ATTR, String.valueOf(POSES.charAt(p)));
+		writer.writeAttribute("dc", XmlNames.NS_DC, XmlNames.LEXFILE_ATTR, synsetLexfile[synset]);
+
+		// definitions and examples
+		for (int d = random.nextInt(10) == 0 ? 2 : 1; d > 0; d--)
+		{
+			writer.writeStartElement(XmlNames.DEFINITION_TAG);
+			writer.writeCharacters((random.nextBoolean() ? "a " : "the ") + text(2 + random.nextInt(11)) + (random.nextInt(20) == 0 ? " & “more”" : ""));
+			writer.writeEndElement();
+		}
+		for (int x = random.nextInt(6) / 2; x > 0; x--)
+		{
+			String example = text(1 + random.nextInt(8));
+			writer.writeStartElement(XmlNames.EXAMPLE_TAG);
+			writer.writeCharacters(random.nextBoolean() ? '"' + example + '"' : example);
+			writer.writeEndElement();
+		}
+
+		// relations, mostly to synsets of the same part of speech, domains to any
+		int relationCount = random.nextDouble() < HUB_RATE ? 100 + random.nextInt(200) : SYNSET_FANOUTS[random.nextInt(SYNSET_FANOUTS.length)];
+		for (int i = 0; i < relationCount; i++)
+		{
+			String type = pick(SYNSET_RELATIONS[p]);
+			int target = type.contains("domain") || type.contains("exemplifie") ? random.nextInt(synsetPos.length) : synsetStart[p] + random.nextInt(synsetStart[p + 1] - synsetStart[p]);
+			writer.writeEmptyElement(XmlNames.SYNSETRELATION_TAG);
+			writer.writeAttribute(XmlNames.RELTYPE_ATTR, type);
+			writer.writeAttribute(XmlNames.TARGET_ATTR, synsetId(target));
+		}
+		writer.writeEndElement();
+		writer.writeCharacters("\n");
+	}
+
+	private String text(int words)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < words; i++)
+		{
+			sb.append(i == 0 ? "" : " ").append(root(random.nextInt(1 << 12)));
+		}
+		return sb.toString();
+	}
+
+	private void writeSidecars(File dir) throws IOException
+	{
+		try (PrintWriter tagCounts = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(dir, "tag.cnt")), Flags.charSet)); //
+		     PrintWriter templates = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(dir, "sentidx.vrb")), Flags.charSet)))
+		{
+			for (int j = 0; j < senseSynset.length; j++)
+			{
+				String sensekey = null;
+				if (random.nextInt(10) < 3)
+				{
+					sensekey = XmlExtractor.toSensekey(senseId(j));
+					tagCounts.printf("%s %d %d%n", sensekey, j - entryFirstSense[senseEntry[j]] + 1, 1 + random.nextInt(50));
+				}
+				if (POSES.charAt(synsetPos[senseSynset[j]]) == 'v' && random.nextInt(10) < 4)
+				{
+					if (sensekey == null)
+					{
+						sensekey = XmlExtractor.toSensekey(senseId(j));
+					}
+					if (sensekey.indexOf(',') != -1)
+					{
+						// the template file is split at commas
+						continue;
+					}
+					StringBuilder ids = new StringBuilder();
+					for (int i = random.nextInt(3); i >= 0; i--)
+					{
+						ids.append(ids.length() == 0 ? "" : ",").append(1 + random.nextInt(170));
+					}
+					templates.printf("%s %s%n", sensekey, ids);
+				}
+			}
+		}
+	}
+
+	// H E L P E R S
+
+	private String pick(String[] values)
+	{
+		return values[random.nextInt(values.length)];
+	}
+
+	/**
+	 * Bit mixer (splitmix64 finalizer)
+	 */
+	private static long mix(long z0)
+	{
+		long z = z0;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Growable int array
+	 */
+	private static class IntList
+	{
+		private int[] values = new int[1024];
+
+		private int size;
+
+		void add(int value)
+		{
+			if (size == values.length)
+			{
+				values = Arrays.copyOf(values, 2 * size);
+			}
+			values[size++] = value;
+		}
+
+		int get(int i)
+		{
+			return values[i];
+		}
+
+		int size()
+		{
+			return size;
+		}
+
+		boolean contains(int value, int from)
+		{
+			for (int i = from; i < size; i++)
+			{
+				if (values[i] == value)
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+
+		int[] toArray()
+		{
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	/**
+	 * Main entry point
+	 *
+	 * @param args command-line arguments: scale [seed] mergedXml
+	 * @throws IOException        io
+	 * @throws XMLStreamException xml stream
+	 */
+	public static void main(String[] args) throws IOException, XMLStreamException
+	{
+		if (args.length != 2 && args.length != 3)
+		{
+			throw new IllegalArgumentException("[E] Usage: CorpusGenerator scale [seed] mergedXml");
+		}
+		double scale = Double.parseDouble(args[0]);
+		long seed = args.length > 2 ? Long.parseLong(args[1]) : 1L;
+		File file = new File(args[args.length - 1]);
+		CorpusGenerator generator = new CorpusGenerator(scale, seed);
+		generator.write(file);
+		System.err.println("Generated " + file + " at scale " + scale + ": " + generator.entryPos.length + " lexentries " + generator.senseSynset.length + " senses " + generator.synsetPos.length + " synsets");
+	}
+}
@@ -0,0 +1,155 @@
+package org.ewn.grind;
+
+import org.ewn.grind.Model.Sense;
+import org.ewn.grind.Model.SenseRelation;
+import org.ewn.grind.Model.Synset;
+import org.ewn.grind.Model.SynsetRelation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-item benchmarks of attribute extraction and coding: one operation handles one sense or one relation, taken in turn.
+ *
+ * @author Bernard Bou
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ExtractorBenchmark
+{
+	private Sense[] senses;
+
+	/**
+	 * Relation types, with the part of speech of their source in posOfTypes
+	 */
+	private RelationType[] types;
+
+	private char[] posOfTypes;
+
+	private int nextSense;
+
+	private int nextType;
+
+	@Setup(Level.Trial)
+	public void setup(ModelState state)
+	{
+		Model model = state.model;
+		senses = model.senses;
+		List<RelationType> types = new ArrayList<>();
+		StringBuilder poses = new StringBuilder();
+		for (Synset synset : model.synsets)
+		{
+			for (SynsetRelation relation : synset.relations)
+			{
+				addType(relation.relType, synset.pos, types, poses);
+			}
+			for (int sense : synset.senses)
+			{
+				for (SenseRelation relation : model.senses[sense].relations)
+				{
+					addType(relation.relType, synset.pos, types, poses);
+				}
+			}
+		}
+		this.types = types.toArray(new RelationType[0]);
+		this.posOfTypes = poses.toString().toCharArray();
+	}
+
+	/**
+	 * Add relation type, unless it is illegal for part of speech (the grinders skip these)
+	 */
+	private static void addType(RelationType type, char pos, List<RelationType> types, StringBuilder poses)
+	{
+		try
+		{
+			Coder.codeRelation(type, pos);
+		}
+		catch (CompatException e)
+		{
+			// coded but not output in compat mode: keep
+		}
+		catch (IllegalArgumentException e)
+		{
+			return;
+		}
+		types.add(type);
+		poses.append(pos);
+	}
+
+	private Sense nextSense()
+	{
+		Sense sense = senses[nextSense];
+		nextSense = nextSense + 1 == senses.length ? 0 : nextSense + 1;
+		return sense;
+	}
+
+	/**
+	 * Sensekey decoded from sense id, uncached
+	 */
+	@Benchmark
+	public String toSensekey()
+	{
+		return XmlExtractor.toSensekey(nextSense().id);
+	}
+
+	/**
+	 * Sensekey of sense, cached once decoded
+	 */
+	@Benchmark
+	public String getSensekey()
+	{
+		return XmlExtractor.getSensekey(nextSense());
+	}
+
+	/**
+	 * Lexid of sense
+	 */
+	@Benchmark
+	public int getLexid()
+	{
+		return XmlExtractor.getLexid(nextSense());
+	}
+
+	/**
+	 * Member order of sense
+	 */
+	@Benchmark
+	public int getOrder()
+	{
+		return XmlExtractor.getOrder(nextSense());
+	}
+
+	/**
+	 * Pointer symbol of relation
+	 */
+	@Benchmark
+	public String codeRelation()
+	{
+		int i = nextType;
+		nextType = nextType + 1 == types.length ? 0 : nextType + 1;
+		try
+		{
+			return Coder.codeRelation(types[i], posOfTypes[i]);
+		}
+		catch (CompatException e)
+		{
+			return null;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package org.ewn.grind;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Model the benchmarks run on, loaded once per trial from the merged XML file given as the 'corpus' parameter, along with synset offsets and the
+ * tag counts and verb templates found next to it.
+ *
+ * @author Bernard Bou
+ */
+@State(Scope.Benchmark)
+public class ModelState
+{
+	/**
+	 * Merged XML file
+	 */
+	@Param("merged.xml")
+	public String corpus;
+
+	/**
+	 * Whether to grind in compat mode (pointer, lexid and verb frame)
+	 */
+	@Param("false")
+	public boolean compat;
+
+	Model model;
+
+	long[] offsets;
+
+	SenseTable tagCounts;
+
+	SenseTable verbTemplates;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, XMLStreamException
+	{
+		File file = new File(corpus);
+		if (!file.exists())
+		{
+			throw new IllegalArgumentException("No corpus " + file.getAbsolutePath() + " (-p corpus=<merged xml file>)");
+		}
+		Flags.POINTER_COMPAT = compat;
+		Flags.LEXID_COMPAT = compat;
+		Flags.VERBFRAME_COMPAT = compat;
+
+		model = ModelFactory.makeModel(file.getPath());
+		offsets = new OffsetFactory(model).compute();
+		String dir = file.getAbsoluteFile().getParent();
+		tagCounts = TagCountsFactory.makeTagCounts(dir, model);
+		verbTemplates = VerbTemplatesFactory.makeVerbTemplates(dir, model);
+	}
+}
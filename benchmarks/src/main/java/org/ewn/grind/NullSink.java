@@ -0,0 +1,59 @@
+package org.ewn.grind;
+
+import java.io.IOException;
+
+/**
+ * Output sink that discards what it is given, only counting bytes and lines, so that benchmarks measure grinding and not I/O
+ *
+ * @author Bernard Bou
+ */
+class NullSink implements OutputSink
+{
+	private long byteCount;
+
+	private long lineCount;
+
+	@Override
+	public void print(CharSequence text)
+	{
+		byte[] bytes = text.toString().getBytes(Flags.charSet);
+		write(bytes, 0, bytes.length);
+	}
+
+	@Override
+	public void println(CharSequence text)
+	{
+		print(text);
+		print(System.lineSeparator());
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length)
+	{
+		for (int i = offset; i < offset + length; i++)
+		{
+			if (bytes[i] == '\n')
+			{
+				lineCount++;
+			}
+		}
+		byteCount += length;
+	}
+
+	@Override
+	public long getByteCount()
+	{
+		return byteCount;
+	}
+
+	@Override
+	public long getLineCount()
+	{
+		return lineCount;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+	}
+}
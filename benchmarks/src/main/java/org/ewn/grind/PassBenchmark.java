@@ -0,0 +1,91 @@
+package org.ewn.grind;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-pass benchmarks: one operation is a full pass over the model, output going to a sink that discards it.
+ *
+ * @author Bernard Bou
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PassBenchmark
+{
+	/**
+	 * Part of speech of per-pos passes
+	 */
+	@State(Scope.Benchmark)
+	public static class PosState
+	{
+		@Param({"n", "v", "a", "r"})
+		public char pos;
+	}
+
+	/**
+	 * Offsets of all synsets, line lengths being computed without rendering
+	 */
+	@Benchmark
+	public long[] offsets(ModelState state)
+	{
+		return new OffsetFactory(state.model).compute();
+	}
+
+	/**
+	 * Data lines of part of speech, rendered once with offsets patched in
+	 */
+	@Benchmark
+	public int renderData(ModelState state, PosState pos)
+	{
+		DataGrinder grinder = new DataGrinder(state.model);
+		grinder.renderData(pos.pos);
+		return state.model.getSynsets(pos.pos).size();
+	}
+
+	/**
+	 * index.{noun|verb|adj|adv}
+	 */
+	@Benchmark
+	public long makeIndex(ModelState state, PosState pos) throws IOException
+	{
+		NullSink sink = new NullSink();
+		new WordIndexer(state.model, state.offsets).makeIndex(sink, pos.pos);
+		return sink.getByteCount();
+	}
+
+	/**
+	 * {noun|verb|adj|adv}.exc
+	 */
+	@Benchmark
+	public long makeMorph(ModelState state, PosState pos) throws IOException
+	{
+		NullSink sink = new NullSink();
+		new MorphGrinder(state.model).makeMorph(sink, pos.pos);
+		return sink.getByteCount();
+	}
+
+	/**
+	 * index.sense (does not depend on part of speech)
+	 */
+	@Benchmark
+	public long makeIndexLowerMultiValue(ModelState state) throws IOException
+	{
+		NullSink sink = new NullSink();
+		new SenseIndexer(state.model, state.offsets, state.tagCounts).makeIndexLowerMultiValue(sink);
+		return sink.getByteCount();
+	}
+}
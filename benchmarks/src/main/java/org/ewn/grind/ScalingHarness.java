@@ -0,0 +1,154 @@
+package org.ewn.grind;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * End-to-end scaling harness. For each scale, a synthetic merged XML file is generated by CorpusGenerator, then ground by the phase sequence Grinder
+ * runs, and wall time, peak heap and output bytes are recorded per phase. Results are printed as a table and written to 'scaling.csv' in the work
+ * directory, the full performance report of each scale being written along with its database.
+ * <p>
+ * Peak heap is the sum of the peak usages of the heap memory pools, peaks being reset at the start of each phase. It is best read with a fixed -Xmx and
+ * one scale per JVM when scales are large.
+ *
+ * @author Bernard Bou
+ */
+public class ScalingHarness
+{
+	/**
+	 * Recorded phase
+	 */
+	private static class Phase
+	{
+		final double scale;
+
+		final String name;
+
+		final long millis;
+
+		final long peakHeap;
+
+		final long bytes;
+
+		Phase(double scale, PerfReport.Phase phase)
+		{
+			this.scale = scale;
+			this.name = phase.name;
+			this.millis = phase.getWallMillis();
+			this.peakHeap = phase.getPeakHeap();
+			this.bytes = phase.getBytes();
+		}
+	}
+
+	private final List<Phase> phases = new ArrayList<>();
+
+	/**
+	 * Generate and grind at scale, the way Grinder does, phases being recorded in a performance report that is written along with the database
+	 *
+	 * @param workDir work directory
+	 * @param scale   scale
+	 * @param seed    random seed
+	 * @throws IOException        io
+	 * @throws XMLStreamException xml stream
+	 */
+	private void run(File workDir, double scale, long seed) throws IOException, XMLStreamException
+	{
+		File dir = new File(workDir, "scale-" + scale);
+		File out = new File(dir, "wndb");
+		// noinspection ResultOfMethodCallIgnored
+		out.mkdirs();
+		File xml = new File(dir, "merged.xml");
+		PerfReport report = new PerfReport().property("input", xml.getPath()).property("mode", "render-once").property("scale", Double.toString(scale));
+
+		try (PerfReport.Phase phase = report.phase("generate"))
+		{
+			new CorpusGenerator(scale, seed).write(xml);
+			phase.bytes(xml.length() + new File(dir, "tag.cnt").length() + new File(dir, "sentidx.vrb").length());
+		}
+		System.gc();
+
+		Grinder.Sidecars sidecars = new Grinder.Sidecars(dir.getPath());
+		Model model;
+		try (PerfReport.Phase phase = report.phase("parse"))
+		{
+			model = ModelFactory.makeModel(xml.getPath());
+			phase.items(model.synsets.length + model.senses.length + model.lexicalEntries.length);
+		}
+		sidecars.bind(model, report);
+
+		long[] offsets = Grinder.grindData(out, model, null, false, report);
+		Grinder.grindIndexes(out, model, offsets, sidecars, false, false, report);
+
+		report.write(out);
+		for (PerfReport.Phase phase : report.getPhases())
+		{
+			phases.add(new Phase(scale, phase));
+		}
+	}
+
+	// R E P O R T
+
+	private void report(File workDir) throws IOException
+	{
+		String format = "%-8s %-12s %10s %10s %14s%n";
+		System.out.printf(format, "scale", "phase", "ms", "peak MB", "bytes");
+		for (Phase phase : phases)
+		{
+			System.out.printf(format, phase.scale, phase.name, phase.millis, phase.peakHeap / Memory.Unit.M.div, phase.bytes);
+		}
+		try (PrintWriter pw = new PrintWriter(new File(workDir, "scaling.csv"), "UTF-8"))
+		{
+			pw.println("scale,phase,ms,peak_heap_bytes,output_bytes");
+			for (Phase phase : phases)
+			{
+				pw.printf("%s,%s,%d,%d,%d%n", phase.scale, phase.name, phase.millis, phase.peakHeap, phase.bytes);
+			}
+		}
+	}
+
+	/**
+	 * Main entry point
+	 *
+	 * @param args command-line arguments [-scales 1,2,5,20] [-seed N] workDir
+	 * @throws IOException        io
+	 * @throws XMLStreamException xml stream
+	 */
+	public static void main(String[] args) throws IOException, XMLStreamException
+	{
+		String scales = "1,2,5,20";
+		long seed = 1L;
+		int iArg = 0;
+		while (iArg < args.length - 1 && args[iArg].startsWith("-"))
+		{
+			if ("-scales".equals(args[iArg]))
+			{
+				scales = args[++iArg];
+			}
+			else if ("-seed".equals(args[iArg]))
+			{
+				seed = Long.parseLong(args[++iArg]);
+			}
+			else
+			{
+				throw new IllegalArgumentException(args[iArg]);
+			}
+			iArg++;
+		}
+		File workDir = new File(args[iArg]);
+		// noinspection ResultOfMethodCallIgnored
+		workDir.mkdirs();
+
+		ScalingHarness harness = new ScalingHarness();
+		for (String scale : scales.split(","))
+		{
+			harness.run(workDir, Double.parseDouble(scale), seed);
+			System.gc();
+		}
+		harness.report(workDir);
+	}
+}
@@ -0,0 +1,106 @@
+package org.ewn.grind;
+
+import org.ewn.grind.Data.Members;
+import org.ewn.grind.Model.Synset;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-synset benchmarks: one operation grinds one synset, synsets being taken in turn, so that the GC profiler's gc.alloc.rate.norm is the allocation
+ * per synset.
+ *
+ * @author Bernard Bou
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SynsetBenchmark
+{
+	private Model model;
+
+	private long[] offsets;
+
+	private DataGrinder grinder;
+
+	private LineSizer lineSizer;
+
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setup(ModelState state)
+	{
+		model = state.model;
+		offsets = state.offsets;
+		grinder = new DataGrinder(model, offsets);
+		lineSizer = new LineSizer(model);
+	}
+
+	private Synset nextSynset()
+	{
+		Synset synset = model.synsets[next];
+		next = next + 1 == model.synsets.length ? 0 : next + 1;
+		return synset;
+	}
+
+	/**
+	 * Data line, as Grinder1 renders it
+	 */
+	@Benchmark
+	public String getData()
+	{
+		Synset synset = nextSynset();
+		return grinder.getData(synset, offsets[synset.ordinal]);
+	}
+
+	/**
+	 * Data line, encoded into a reused encoder as the data files are
+	 */
+	@Benchmark
+	public int encodeData(EncoderState encoder)
+	{
+		Synset synset = nextSynset();
+		encoder.out.reset();
+		grinder.encodeData(synset, offsets[synset.ordinal], encoder.out, null);
+		return encoder.out.size();
+	}
+
+	/**
+	 * Data line length, as the two-pass offset computation sizes it
+	 */
+	@Benchmark
+	public long getDataLength()
+	{
+		return lineSizer.getDataLength(nextSynset());
+	}
+
+	/**
+	 * Members, with the member number of each sense
+	 */
+	@Benchmark
+	public int buildMembers()
+	{
+		Synset synset = nextSynset();
+		Members members = SynsetProcessor.buildMembers(synset, model);
+		return members.memberNum(synset.senses.length - 1);
+	}
+
+	@State(Scope.Thread)
+	public static class EncoderState
+	{
+		final FieldEncoder out = new FieldEncoder();
+	}
+}
@@ -9,6 +9,14 @@
 # parse1.sh [XML] -offset [POS] [OFS]
 # ex: ./grind1.sh /opt/data/nlp/wordnet/WordNet-XX/BUILD/merged/xewn.xml -offset a 1740
 
+# parse1.sh [XML] -daemon [PORT]
+# loads once, then answers queries (SYNSETID | -sense SENSEID | -offset POS OFS), one per line, from stdin or from clients of localhost:PORT
+# ex: echo ewn-02336471-n | ./grind1.sh /opt/data/nlp/wordnet/WordNet-XX/BUILD/merged/xewn.xml -daemon
+
+# parse1.sh [XML] -batch [QUERYFILE]
+# answers the queries in QUERYFILE (one per line, also SENSEID or POS OFS), in parallel, in query order
+# ex: ./grind1.sh /opt/data/nlp/wordnet/WordNet-XX/BUILD/merged/xewn.xml -batch checks.txt
+
 # 1=input XML file
 IN=$1
 
@@ -16,5 +24,7 @@ IN=$1
 # SYNSETID
 # -sense		SENSEID
 # -offset		(n|v|a|r|s)		OFFSET
+# -daemon		[PORT]
+# -batch		QUERYFILE
 
 java -ea -cp ewn-grind.jar org.ewn.grind.Grinder1 "${IN}" $2 $3 $4
@@ -0,0 +1,188 @@
+package org.ewn.grind;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Output sink that accumulates encoded text in a large direct buffer which is written to a channel when full, or when the sink is closed. Buffers are
+ * reused from one sink to the next. A sink is not thread-safe.
+ *
+ * @author Bernard Bou
+ */
+public class ChannelSink implements OutputSink
+{
+	/**
+	 * Buffer capacity
+	 */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Line separator, as PrintStream.println() would write it
+	 */
+	private static final String LINE_SEPARATOR = System.lineSeparator();
+
+	/**
+	 * Buffers released by closed sinks
+	 */
+	private static final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Channel
+	 */
+	private final WritableByteChannel channel;
+
+	/**
+	 * Whether to close channel when sink is closed
+	 */
+	private final boolean closeChannel;
+
+	/**
+	 * Buffer
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * Byte count of flushed buffers
+	 */
+	private long flushedByteCount;
+
+	/**
+	 * Line count
+	 */
+	private long lineCount;
+
+	/**
+	 * Constructor
+	 *
+	 * @param channel      channel
+	 * @param closeChannel whether to close channel when sink is closed
+	 */
+	public ChannelSink(WritableByteChannel channel, boolean closeChannel)
+	{
+		this.channel = channel;
+		this.closeChannel = closeChannel;
+		ByteBuffer buffer = buffers.poll();
+		this.buffer = buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+	}
+
+	/**
+	 * Open sink to file, truncating it
+	 *
+	 * @param file file
+	 * @return sink
+	 * @throws IOException io
+	 */
+	public static ChannelSink open(File file) throws IOException
+	{
+		return new ChannelSink(FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), true);
+	}
+
+	/**
+	 * Open sink to stream, which is not closed with the sink
+	 *
+	 * @param os output stream
+	 * @return sink
+	 */
+	public static ChannelSink open(OutputStream os)
+	{
+		return new ChannelSink(Channels.newChannel(os), false);
+	}
+
+	@Override
+	public void print(CharSequence text) throws IOException
+	{
+		byte[] bytes = text.toString().getBytes(Flags.charSet);
+		write(bytes, 0, bytes.length);
+	}
+
+	@Override
+	public void println(CharSequence text) throws IOException
+	{
+		print(text);
+		print(LINE_SEPARATOR);
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException
+	{
+		for (int i = offset; i < offset + length; i++)
+		{
+			if (bytes[i] == '\n')
+			{
+				lineCount++;
+			}
+		}
+		int off = offset;
+		int len = length;
+		while (len > 0)
+		{
+			if (!buffer.hasRemaining())
+			{
+				flush();
+			}
+			int n = Math.min(len, buffer.remaining());
+			buffer.put(bytes, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public long getByteCount()
+	{
+		return buffer == null ? flushedByteCount : flushedByteCount + buffer.position();
+	}
+
+	@Override
+	public long getLineCount()
+	{
+		return lineCount;
+	}
+
+	/**
+	 * Write buffer to channel
+	 *
+	 * @throws IOException io
+	 */
+	private void flush() throws IOException
+	{
+		buffer.flip();
+		while (buffer.hasRemaining())
+		{
+			flushedByteCount += channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if (buffer == null)
+		{
+			return;
+		}
+		try
+		{
+			flush();
+		}
+		finally
+		{
+			// the pooled buffer may hold unwritten bytes if flushing failed
+			buffer.clear();
+			buffers.offer(buffer);
+			buffer = null;
+			if (closeChannel)
+			{
+				channel.close();
+			}
+		}
+	}
+}
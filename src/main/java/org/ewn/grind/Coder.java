@@ -2,6 +2,8 @@ package org.ewn.grind;
 
 import java.util.*;
 
+import static org.ewn.grind.RelationType.*;
+
 /**
  * This class maps information into a documented numerical code
  *
@@ -20,70 +22,17 @@ public class Coder
 
 	// R E L A T I O N
 
-	private static final String ANTONYM = "antonym";
-
-	private static final String HYPERNYM = "hypernym";
-
-	private static final String INSTANCE_HYPERNYM = "instance_hypernym";
-
-	private static final String HYPONYM = "hyponym";
-
-	private static final String INSTANCE_HYPONYM = "instance_hyponym";
-
-	private static final String HOLO_MEMBER = "holo_member";
-
-	private static final String HOLO_SUBSTANCE = "holo_substance";
-
-	private static final String HOLO_PART = "holo_part";
-
-	private static final String MERO_MEMBER = "mero_member";
-
-	private static final String MERO_SUBSTANCE = "mero_substance";
-
-	private static final String MERO_PART = "mero_part";
-
-	private static final String ATTRIBUTE = "attribute";
-
-	private static final String PERTAINYM = "pertainym";
-
-	private static final String DERIVATION = "derivation";
-
-	private static final String DOMAIN_TOPIC = "domain_topic";
-
-	private static final String HAS_DOMAIN_TOPIC = "has_domain_topic";
-
-	private static final String DOMAIN_REGION = "domain_region";
-
-	private static final String HAS_DOMAIN_REGION = "has_domain_region";
-
-	private static final String DOMAIN_USAGE = "exemplifies";
-
-	private static final String HAS_DOMAIN_USAGE = "is_exemplified_by";
-
-	private static final String ALSO = "also";
-
-	private static final String ENTAILS = "entails";
-
-	private static final String IS_ENTAILED = "is_entailed_by";
-
-	private static final String SIMILAR = "similar";
-
-	private static final String VERB_GROUP = "similar";
-
-	private static final String PARTICIPLE = "participle";
-
-	private static final String CAUSES = "causes";
-
-	private static final String IS_CAUSED = "is_caused_by";
-
 	/**
-	 * Code relation
+	 * Code relation, as documented per part of speech. This is evaluated once per part of speech and relation type to build the coding tables.
 	 *
-	 * @param type relation type
-	 * @param pos part-of-speech
+	 * @param type   relation type
+	 * @param pos    part-of-speech
+	 * @param compat whether pointers beyond those used in PWN are not allowed
 	 * @return code
+	 * @throws CompatException          if the pointer is not allowed in compat mode
+	 * @throws IllegalArgumentException if the relation type is not legal for the part of speech
 	 */
-	static String codeRelation(String type, char pos) throws CompatException
+	private static String codeRelation(RelationType type, char pos, boolean compat) throws CompatException
 	{
 		switch (pos)
 		{
@@ -197,7 +146,7 @@ public class Coder
                         return ">";
                     case ALSO:
                         return "^";
-                    case VERB_GROUP:
+                    case SIMILAR:
                         return "$"; // verb group
                     case DERIVATION:
                         return "+";
@@ -208,12 +157,12 @@ public class Coder
                     case DOMAIN_USAGE:
                         return ";u";
                     case IS_ENTAILED:
-                        if (Flags.POINTER_COMPAT)
-                            throw new CompatException(new IllegalArgumentException(type)); // NOT DEFINED IN PWN
+                        if (compat)
+                            throw new CompatException(new IllegalArgumentException(type.toString())); // NOT DEFINED IN PWN
                         return IS_ENTAILED_PTR;
                     case IS_CAUSED:
-                        if (Flags.POINTER_COMPAT)
-                            throw new CompatException(new IllegalArgumentException(type)); // NOT DEFINED IN PWN
+                        if (compat)
+                            throw new CompatException(new IllegalArgumentException(type.toString())); // NOT DEFINED IN PWN
                         return IS_CAUSED_PTR;
                     default:
                         break;
@@ -319,6 +268,114 @@ public class Coder
 		throw new IllegalArgumentException("pos=" + pos + " relType=" + type);
 	}
 
+	/**
+	 * Pointer symbols, in canonical (string) order, a pointer being coded as a bit of a mask by its index here
+	 */
+	static final String[] POINTERS = {"!", "@", "@i", "~", "~i", "#m", "#s", "#p", "%m", "%s", "%p", "=", "\\", "^", "+", ";c", "-c", ";r", "-r", ";u", "-u", "*", ">", "$", IS_ENTAILED_PTR, IS_CAUSED_PTR, "&", "<"};
+
+	/**
+	 * Coding table entry of a relation type that is not legal for a part of speech
+	 */
+	private static final byte ILLEGAL = -1;
+
+	/**
+	 * Coding table entry of a relation type that is not allowed in compat mode
+	 */
+	private static final byte INCOMPATIBLE = -2;
+
+	/**
+	 * Pointer indexes in POINTERS (or ILLEGAL, INCOMPATIBLE), indexed by part of speech (as in Parallel.POSES) and relation type ordinal
+	 */
+	private static final byte[][] POINTER_TABLE = new byte[Parallel.POSES.length()][RelationType.VALUES.length];
+
+	/**
+	 * Same as POINTER_TABLE, in compat mode
+	 */
+	private static final byte[][] COMPAT_POINTER_TABLE = new byte[Parallel.POSES.length()][RelationType.VALUES.length];
+
+	static
+	{
+		Arrays.sort(POINTERS);
+		List<String> pointers = Arrays.asList(POINTERS);
+		for (int p = 0; p < Parallel.POSES.length(); p++)
+		{
+			char pos = Parallel.POSES.charAt(p);
+			for (RelationType type : RelationType.VALUES)
+			{
+				POINTER_TABLE[p][type.ordinal()] = pointerEntry(pointers, type, pos, false);
+				COMPAT_POINTER_TABLE[p][type.ordinal()] = pointerEntry(pointers, type, pos, true);
+			}
+		}
+	}
+
+	private static byte pointerEntry(List<String> pointers, RelationType type, char pos, boolean compat)
+	{
+		try
+		{
+			return (byte) pointers.indexOf(codeRelation(type, pos, compat));
+		}
+		catch (CompatException e)
+		{
+			return INCOMPATIBLE;
+		}
+		catch (IllegalArgumentException e)
+		{
+			return ILLEGAL;
+		}
+	}
+
+	/**
+	 * Code relation as an index in POINTERS
+	 *
+	 * @param type relation type
+	 * @param pos part-of-speech
+	 * @return pointer index
+	 * @throws CompatException if the pointer is not allowed in compat mode
+	 * @throws IllegalArgumentException if the relation type is not legal for the part of speech
+	 */
+	private static int codeRelationIndex(RelationType type, char pos) throws CompatException
+	{
+		int p = Model.posIndex(pos);
+		int index = p == -1 ? ILLEGAL : (Flags.POINTER_COMPAT ? COMPAT_POINTER_TABLE : POINTER_TABLE)[p][type.ordinal()];
+		switch (index)
+		{
+		case ILLEGAL:
+			throw new IllegalArgumentException("pos=" + pos + " relType=" + type);
+		case INCOMPATIBLE:
+			throw new CompatException(new IllegalArgumentException(type.toString())); // NOT DEFINED IN PWN
+		default:
+			return index;
+		}
+	}
+
+	/**
+	 * Code relation
+	 *
+	 * @param type relation type
+	 * @param pos part-of-speech
+	 * @return code
+	 * @throws CompatException if the pointer is not allowed in compat mode
+	 * @throws IllegalArgumentException if the relation type is not legal for the part of speech
+	 */
+	static String codeRelation(RelationType type, char pos) throws CompatException
+	{
+		return POINTERS[codeRelationIndex(type, pos)];
+	}
+
+	/**
+	 * Code relation as a bit of a pointer mask
+	 *
+	 * @param type relation type
+	 * @param pos part-of-speech
+	 * @return pointer bit, index of the pointer symbol in POINTERS
+	 * @throws CompatException if the pointer is not allowed in compat mode
+	 * @throws IllegalArgumentException if the relation type is not legal for the part of speech
+	 */
+	static int codeRelationBit(RelationType type, char pos) throws CompatException
+	{
+		return 1 << codeRelationIndex(type, pos);
+	}
+
 	// V E R B F R A M E
 
 	private static final int LAST_COMPAT_VERBFRAME = 35;
@@ -519,22 +576,22 @@ public class Coder
 	{
 		Flags.POINTER_COMPAT = args.length > 0 && "-compat,pointer".equals(args[0]);
 
-		final Map<Character, Set<String>> allRelations = new HashMap<>();
-		final Set<String> nSet = allRelations.computeIfAbsent('n', (k) -> new HashSet<>());
+		final Map<Character, Set<RelationType>> allRelations = new HashMap<>();
+		final Set<RelationType> nSet = allRelations.computeIfAbsent('n', (k) -> new HashSet<>());
 		nSet.addAll(Arrays.asList(ANTONYM, HYPERNYM, INSTANCE_HYPERNYM, HYPONYM, INSTANCE_HYPONYM, HOLO_MEMBER, HOLO_SUBSTANCE, HOLO_PART, MERO_MEMBER, MERO_SUBSTANCE, MERO_PART, ATTRIBUTE, PERTAINYM, DERIVATION, DOMAIN_TOPIC, HAS_DOMAIN_TOPIC,
 				DOMAIN_REGION, HAS_DOMAIN_REGION, DOMAIN_USAGE, HAS_DOMAIN_USAGE));
-		final Set<String> vSet = allRelations.computeIfAbsent('v', (k) -> new HashSet<>());
-		vSet.addAll(Arrays.asList(ANTONYM, HYPERNYM, HYPONYM, ENTAILS, IS_ENTAILED, CAUSES, IS_CAUSED, ALSO, VERB_GROUP, DERIVATION, DOMAIN_TOPIC, DOMAIN_REGION, DOMAIN_USAGE));
-		final Set<String> aSet = allRelations.computeIfAbsent('a', (k) -> new HashSet<>());
+		final Set<RelationType> vSet = allRelations.computeIfAbsent('v', (k) -> new HashSet<>());
+		vSet.addAll(Arrays.asList(ANTONYM, HYPERNYM, HYPONYM, ENTAILS, IS_ENTAILED, CAUSES, IS_CAUSED, ALSO, SIMILAR, DERIVATION, DOMAIN_TOPIC, DOMAIN_REGION, DOMAIN_USAGE));
+		final Set<RelationType> aSet = allRelations.computeIfAbsent('a', (k) -> new HashSet<>());
 		aSet.addAll(Arrays.asList(ANTONYM, SIMILAR, PARTICIPLE, PERTAINYM, ATTRIBUTE, ALSO, DERIVATION, DOMAIN_TOPIC, DOMAIN_REGION, DOMAIN_USAGE, HAS_DOMAIN_TOPIC, HAS_DOMAIN_REGION, HAS_DOMAIN_USAGE));
-		final Set<String> rSet = allRelations.computeIfAbsent('r', (k) -> new HashSet<>());
+		final Set<RelationType> rSet = allRelations.computeIfAbsent('r', (k) -> new HashSet<>());
 		rSet.addAll(Arrays.asList(ANTONYM, PERTAINYM, DERIVATION, DOMAIN_TOPIC, DOMAIN_REGION, DOMAIN_USAGE, HAS_DOMAIN_TOPIC, HAS_DOMAIN_REGION, HAS_DOMAIN_USAGE));
 
 		final Set<String> allPointers = new TreeSet<>();
-		final Map<Character, Map<String, String>> toRelations = new HashMap<>();
+		final Map<Character, Map<String, RelationType>> toRelations = new HashMap<>();
 		for (Character pos : Arrays.asList('n', 'v', 'a', 'r'))
 		{
-			for (String relation : allRelations.get(pos))
+			for (RelationType relation : allRelations.get(pos))
 			{
 				String pointer;
 				try
@@ -552,7 +609,7 @@ public class Coder
 					continue;
 				}
 				allPointers.add(pointer);
-				Map<String, String> pointerToRelation = toRelations.computeIfAbsent(pos, (p) -> new HashMap<>());
+				Map<String, RelationType> pointerToRelation = toRelations.computeIfAbsent(pos, (p) -> new HashMap<>());
 				pointerToRelation.put(pointer, relation);
 			}
 		}
@@ -561,7 +618,7 @@ public class Coder
 			System.out.printf("%-2s\t", pointer);
 			for (Character pos : Arrays.asList('n', 'v', 'a', 'r'))
 			{
-				String relation = toRelations.get(pos).get(pointer);
+				RelationType relation = toRelations.get(pos).get(pointer);
 				if (relation != null)
 					System.out.printf("%s:%s  ", pos, relation);
 			}
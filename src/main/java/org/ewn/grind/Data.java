@@ -40,9 +40,9 @@ public class Data
 			this.order = order;
 		}
 
-		public String toWndbString()
+		public void encode(FieldEncoder out)
 		{
-			return String.format(Flags.LEXID_COMPAT ? "%s %1X" : "%s %X", lemma, lexid);
+			out.text(lemma).chr(' ').hexUpper(lexid);
 		}
 
 		@Override
@@ -66,9 +66,9 @@ public class Data
 		}
 
 		@Override
-		public String toWndbString()
+		public void encode(FieldEncoder out)
 		{
-			return String.format(Flags.LEXID_COMPAT ? "%s(%s) %1X" : "%s(%s) %X", lemma, position, lexid);
+			out.text(lemma).chr('(').text(position).chr(')').chr(' ').hexUpper(lexid);
 		}
 
 		@Override
@@ -79,32 +79,86 @@ public class Data
 	}
 
 	/**
-	 * Members, a sorted list
+	 * Members, a sorted array of distinct members, along with the member number of each of the synset's senses. Immutable once built.
 	 */
-	static class Members extends TreeSet<Member>
+	static class Members
 	{
-		private static final long serialVersionUID = 4565855492410766062L;
+		/**
+		 * Member order, members with the same order and lemma being the same member
+		 */
+		private static final Comparator<Member> COMPARATOR = Comparator.comparingInt((Member m) -> m.order).thenComparing(m -> m.lemma);
+		// the thenComparing should not be called !
+
+		/**
+		 * Distinct members, sorted
+		 */
+		private final Member[] members;
+
+		/**
+		 * 1-based member numbers, indexed by position of sense in synset
+		 */
+		private final int[] memberNums;
 
-		public Members()
+		/**
+		 * Constructor
+		 *
+		 * @param senseMembers members of the synset's senses, in the order of the synset's senses (the first of equal members is kept)
+		 */
+		public Members(Member[] senseMembers)
 		{
-			super(Comparator.comparingInt((Member m) -> m.order).thenComparing(m -> m.lemma));
-			// the thenComparing should not be called !
+			Member[] sorted = senseMembers.clone();
+			Arrays.sort(sorted, COMPARATOR); // stable
+			int count = 0;
+			for (Member member : sorted)
+			{
+				if (count == 0 || COMPARATOR.compare(sorted[count - 1], member) != 0)
+				{
+					sorted[count++] = member;
+				}
+			}
+			this.members = count == sorted.length ? sorted : Arrays.copyOf(sorted, count);
+			this.memberNums = new int[senseMembers.length];
+			for (int i = 0; i < senseMembers.length; i++)
+			{
+				this.memberNums[i] = Arrays.binarySearch(this.members, senseMembers[i], COMPARATOR) + 1;
+			}
+		}
+
+		public int size()
+		{
+			return members.length;
+		}
+
+		/**
+		 * Member number
+		 *
+		 * @param senseIndex position of sense in synset
+		 * @return 1-based number of the sense's member
+		 */
+		public int memberNum(int senseIndex)
+		{
+			return memberNums[senseIndex];
 		}
 
-		public int indexOf(final Member member)
+		/**
+		 * Encode count (%02x) followed by members
+		 *
+		 * @param out encoder
+		 */
+		public void encode(FieldEncoder out)
 		{
-			// if the element exists in the TreeSet
-			if (contains(member))
+			out.hex(members.length, 2);
+			for (Member member : members)
 			{
-				// the element index will be equal to the size of the headSet for the element
-				return headSet(member).size();
+				out.chr(' ');
+				member.encode(out);
 			}
-			throw new IllegalStateException("Member index of " + member.toString() + " not contained in " + Arrays.toString(this.toArray()));
 		}
 
-		public String toWndbString()
+		@Override
+		public String toString()
 		{
-			return Formatter.joinNum(this, "%02x", Member::toWndbString);
+			return Arrays.toString(members);
 		}
 	}
 
@@ -135,7 +189,7 @@ public class Data
 		 * @param sourceWordNum word number in source synset
 		 * @param targetWordNum word number in target synset
 		 */
-		public Relation(String type, char pos, char targetPos, long targetOffset, int sourceWordNum, int targetWordNum) throws CompatException
+		public Relation(RelationType type, char pos, char targetPos, long targetOffset, int sourceWordNum, int targetWordNum) throws CompatException
 		{
 			super();
 			this.ptrSymbol = Coder.codeRelation(type, pos);
@@ -146,9 +200,9 @@ public class Data
 			this.targetWordNum = targetWordNum;
 		}
 
-		public String toWndbString()
+		public void encode(FieldEncoder out)
 		{
-			return String.format("%s %08d %c %02x%02x", ptrSymbol, targetOffset, targetPos, sourceWordNum, targetWordNum);
+			out.ascii(ptrSymbol).chr(' ').decimal(targetOffset, 8).chr(' ').chr(targetPos).chr(' ').hex(sourceWordNum, 2).hex(targetWordNum, 2);
 		}
 
 		@Override
@@ -158,6 +212,51 @@ public class Data
 		}
 	}
 
+	/**
+	 * Offset fields in rendered data: where they are and the synset whose offset goes there
+	 */
+	static class Patches
+	{
+		private int[] positions = new int[1024];
+
+		private int[] targets = new int[1024];
+
+		private int size;
+
+		/**
+		 * Add offset field
+		 *
+		 * @param position position of field in rendered data
+		 * @param target ordinal of synset whose offset goes there
+		 */
+		public void add(int position, int target)
+		{
+			if (size == positions.length)
+			{
+				positions = Arrays.copyOf(positions, 2 * size);
+				targets = Arrays.copyOf(targets, 2 * size);
+			}
+			positions[size] = position;
+			targets[size] = target;
+			size++;
+		}
+
+		public int size()
+		{
+			return size;
+		}
+
+		public int position(int i)
+		{
+			return positions[i];
+		}
+
+		public int target(int i)
+		{
+			return targets[i];
+		}
+	}
+
 	/**
 	 * Verb (syntactic) frames
 	 */
@@ -180,9 +279,9 @@ public class Data
 			this.memberNum = memberNum;
 		}
 
-		public String toWndbString()
+		public void encode(FieldEncoder out)
 		{
-			return String.format("+ %02d %02x", frameNum, memberNum);
+			out.chr('+').chr(' ').decimal(frameNum, 2).chr(' ').hex(memberNum, 2);
 		}
 
 		@Override
@@ -211,19 +310,23 @@ public class Data
 		}
 
 		/**
-		 * Join frames. If a frame applies to all words, then frame num is zeroed
+		 * Encode frames, preceded by a space, for verbs only. If a frame applies to all words, then frame num is zeroed
 		 *
+		 * @param out encoder
 		 * @param pos part of speech
 		 * @param membersCount synset member count
-		 * @return formatted verb frames
 		 */
-		public String toWndbString(char pos, int membersCount)
+		public void encode(FieldEncoder out, char pos, int membersCount)
 		{
 			if (pos != 'v')
-				return "";
+				return;
+			out.chr(' ');
 			// compulsory for verbs even if empty
 			if (size() < 1)
-				return "00";
+			{
+				out.ascii("00");
+				return;
+			}
 			List<Frame> resultFrames = new ArrayList<>();
 			for (Entry<Integer, List<Frame>> entry : entrySet())
 			{
@@ -234,7 +337,12 @@ public class Data
 				else
 					resultFrames.addAll(framesWithFrameNum);
 			}
-			return Formatter.joinNum(resultFrames, "%02d", Frame::toWndbString);
+			out.decimal(resultFrames.size(), 2);
+			for (Frame frame : resultFrames)
+			{
+				out.chr(' ');
+				frame.encode(out);
+			}
 		}
 	}
 }
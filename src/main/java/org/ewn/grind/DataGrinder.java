@@ -1,34 +1,70 @@
 package org.ewn.grind;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import org.ewn.grind.Data.Patches;
+import org.ewn.grind.Model.Synset;
 
-import javax.xml.xpath.XPathExpressionException;
-import java.io.PrintStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.stream.IntStream;
 
 /**
- * This class produces the data.{noun|verb|adj|adv} files
+ * This class produces the data.{noun|verb|adj|adv} files.
+ * <p>
+ * It either renders lines with offsets computed beforehand (makeData), or renders each line once with placeholder offsets (renderData), computes offsets
+ * from the rendered lines' lengths and then patches the offset fields in place (patchOffsets), which is possible because they are fixed-width. Parts of
+ * speech may be made or rendered concurrently, as they touch disjoint synsets and incompatibility counters are thread-safe. Within a part of speech,
+ * rendering is split into chunks of synsets, and chunks are written in parallel into pre-sized files with positional writes.
  *
  * @author Bernard Bou
  */
 public class DataGrinder extends SynsetProcessor
 {
+	/**
+	 * Number of synsets rendered by a task
+	 */
+	private static final int CHUNK_SIZE = 1024;
+
+	/**
+	 * Largest offset that fits in a %08d offset field
+	 */
+	private static final long MAX_OFFSET = 99_999_999L;
+
+	/**
+	 * Offsets indexed by synset ordinal
+	 */
+	private final long[] offsets;
+
+	/**
+	 * Rendered data chunks, indexed by part of speech
+	 */
+	private final RenderedChunk[][] renderedData = new RenderedChunk[Parallel.POSES.length()][];
+
 	/**
 	 * Constructor
 	 *
-	 * @param doc document
-	 * @param sensesBySynsetId map of senses with key=synsetId
-	 * @param synsetsById synset elements mapped by id
-	 * @param sensesById sense elements mapped by id
-	 * @param offsetMap offsets by synset id
+	 * @param model model
+	 * @param offsets offsets indexed by synset ordinal
+	 */
+	public DataGrinder(Model model, long[] offsets)
+	{
+		super(model, s -> offsets[s]);
+		this.offsets = offsets;
+	}
+
+	/**
+	 * Constructor for render-once mode, offsets being computed from the rendered lines
+	 *
+	 * @param model model
 	 */
-	public DataGrinder(Document doc, Map<String, List<Element>> sensesBySynsetId, Map<String, Element> synsetsById, Map<String, Element> sensesById, Map<String, Long> offsetMap)
+	public DataGrinder(Model model)
 	{
-		super(doc, sensesBySynsetId, synsetsById, sensesById, offsetMap::get);
+		super(model, s -> 0L /* placeholder, patched */);
+		this.offsets = new long[model.synsets.length];
 	}
 
 	/**
@@ -41,43 +77,215 @@ public class DataGrinder extends SynsetProcessor
 	}
 
 	/**
-	 * Make data
+	 * Make data into a file pre-sized to its final length, workers rendering disjoint chunks of synsets in parallel and writing each at the position
+	 * its first synset was allocated. The offsets are checked against the lengths of the rendered lines.
 	 *
-	 * @param ps print stream
-	 * @param xpath xpath of selected sense elements
+	 * @param file data file
+	 * @param pos selection of synsets (n|v|a|r)
+	 * @throws IOException io
+	 */
+	public void makeData(File file, char pos) throws IOException
+	{
+		List<Synset> synsets = model.getSynsets(pos);
+		int n = synsets.size();
+		assert n >= 1;
+		Synset last = synsets.get(n - 1);
+		long size = offsets[last.ordinal] + new LineSizer(model).getDataLength(last);
+		int chunkCount = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+		{
+			raf.setLength(size);
+			FileChannel channel = raf.getChannel();
+			Parallel.forEachIndex(chunkCount, c -> {
+				int from = c * CHUNK_SIZE;
+				int to = Math.min(n, from + CHUNK_SIZE);
+				RenderedChunk chunk = new RenderedChunk();
+				long start = c == 0 ? 0 : offsets[synsets.get(from).ordinal];
+				if (c == 0)
+				{
+					chunk.text(Formatter.OEWN_HEADER);
+				}
+				for (int i = from; i < to; i++)
+				{
+					Synset synset = synsets.get(i);
+					int position = chunk.size();
+					encodeData(synset, start + position, chunk, null);
+
+					// next line is where it was allocated
+					long next = i + 1 < n ? offsets[synsets.get(i + 1).ordinal] : size;
+					if (start + chunk.size() != next)
+					{
+						long length0 = new LineSizer(model).getDataLength(synset);
+						throw new RuntimeException("miscomputed offset for " + (i + 1 < n ? synsets.get(i + 1).id : "end") + ": line for " + synset.id + " [then]=" + length0 + " bytes [now ]=" + (chunk.size() - position) + " bytes");
+					}
+				}
+				chunk.writeTo(channel, start);
+			});
+		}
+		System.err.println("Synsets: " + n + " for " + pos);
+	}
+
+	// R E N D E R   O N C E
+
+	/**
+	 * Rendered data of a chunk of synsets, with offset fields to patch
 	 */
-	public void makeData(PrintStream ps, String xpath) throws XPathExpressionException
+	private static class RenderedChunk extends FieldEncoder
 	{
-		ps.print(Formatter.OEWN_HEADER);
-		long offset = Formatter.OEWN_HEADER.getBytes(Flags.charSet).length;
-		Element previous = null;
+		final Patches patches = new Patches();
+
+		/**
+		 * Position of chunk in data file
+		 */
+		long base;
+
+		RenderedChunk()
+		{
+			super(1 << 18);
+		}
+
+		/**
+		 * Write offset as %08d at position
+		 *
+		 * @param position position of offset field in chunk
+		 * @param offset offset
+		 */
+		void patch(int position, long offset)
+		{
+			long value = offset;
+			for (int i = position + 7; i >= position; i--)
+			{
+				buf[i] = (byte) ('0' + value % 10);
+				value /= 10;
+			}
+		}
 
-		// iterate synset elements
-		NodeList synsetNodes = XmlUtils.getXPathNodeList(xpath, doc);
-		int n = synsetNodes.getLength();
+		/**
+		 * Write chunk at position in channel
+		 *
+		 * @param channel file channel
+		 * @param position position in file
+		 * @throws IOException io
+		 */
+		void writeTo(FileChannel channel, long position) throws IOException
+		{
+			ByteBuffer buffer = ByteBuffer.wrap(buf, 0, count);
+			long p = position;
+			while (buffer.hasRemaining())
+			{
+				p += channel.write(buffer, p);
+			}
+		}
+	}
+
+	/**
+	 * Render data once, offsets fields being left as placeholders. Chunks of synsets are rendered in parallel on the fork-join pool, the first one starting
+	 * with the header. Chunk positions are then the parallel prefix sum of chunk sizes, and offsets of the rendered synsets are the positions of their
+	 * lines.
+	 *
+	 * @param pos selection of synsets (n|v|a|r)
+	 */
+	public void renderData(char pos)
+	{
+		// iterate synsets
+		List<Synset> synsets = model.getSynsets(pos);
+		int n = synsets.size();
 		assert n >= 1;
-		for (int i = 0; i < n; i++)
+		int chunkCount = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		RenderedChunk[] chunks = new RenderedChunk[chunkCount];
+		IntStream.range(0, chunkCount).parallel().forEach(c -> chunks[c] = renderChunk(synsets, c * CHUNK_SIZE, Math.min(n, (c + 1) * CHUNK_SIZE), c == 0));
+
+		// chunk positions
+		long[] ends = new long[chunkCount];
+		for (int c = 0; c < chunkCount; c++)
 		{
-			Node synsetNode = synsetNodes.item(i);
-			assert synsetNode.getNodeType() == Node.ELEMENT_NODE;
-			Element synsetElement = (Element) synsetNode;
-			String id = synsetElement.getAttribute(XmlNames.ID_ATTR);
-			long offset0 = this.offsetFunction.applyAsLong(id);
-			if (offset0 != offset)
+			ends[c] = chunks[c].size();
+		}
+		Arrays.parallelPrefix(ends, Long::sum);
+
+		// offsets, from position in chunk to position in file
+		IntStream.range(0, chunkCount).parallel().forEach(c -> {
+			long base = c == 0 ? 0 : ends[c - 1];
+			chunks[c].base = base;
+			for (int i = c * CHUNK_SIZE; i < Math.min(n, (c + 1) * CHUNK_SIZE); i++)
 			{
-				assert previous != null;
-				String line = getData(previous, 0);
-				String line0 = new OffsetFactory(doc, sensesBySynsetId, synsetsById, sensesById).getData(previous, 0);
-				throw new RuntimeException("miscomputed offset for " + id + "\n[then]=" + line0 + "[now ]=" + line);
+				offsets[synsets.get(i).ordinal] += base;
 			}
+		});
+		if (offsets[synsets.get(n - 1).ordinal] > MAX_OFFSET)
+		{
+			throw new IllegalStateException("Data for " + pos + " exceeds offset field width");
+		}
+		renderedData[Parallel.POSES.indexOf(pos)] = chunks;
 
-			String line = getData(synsetElement, offset);
-			ps.print(line);
+		System.err.println("Synsets: " + n + " for " + pos);
+	}
 
-			offset += line.getBytes(Flags.charSet).length;
-			previous = synsetElement;
+	/**
+	 * Render chunk of synsets
+	 *
+	 * @param synsets synsets
+	 * @param from    index of first synset in chunk
+	 * @param to      index of last synset in chunk, exclusive
+	 * @param header  whether chunk starts with header
+	 * @return rendered chunk, offsets of its synsets being set to their position in chunk
+	 */
+	private RenderedChunk renderChunk(List<Synset> synsets, int from, int to, boolean header)
+	{
+		RenderedChunk chunk = new RenderedChunk();
+		if (header)
+		{
+			chunk.text(Formatter.OEWN_HEADER);
+		}
+		for (int i = from; i < to; i++)
+		{
+			Synset synset = synsets.get(i);
+			offsets[synset.ordinal] = chunk.size();
+			encodeData(synset, 0, chunk, chunk.patches);
 		}
+		return chunk;
+	}
 
-		System.err.println("Synsets: " + n + " for " + xpath);
+	/**
+	 * Patch offsets fields in rendered data, once all parts of speech have been rendered (relations cross data files)
+	 *
+	 * @return offsets indexed by synset ordinal
+	 */
+	public long[] patchOffsets()
+	{
+		for (int p = 0; p < renderedData.length; p++)
+		{
+			if (renderedData[p] == null)
+			{
+				throw new IllegalStateException("Data for " + Parallel.POSES.charAt(p) + " not rendered");
+			}
+		}
+		Arrays.stream(renderedData).flatMap(Arrays::stream).parallel().forEach(chunk -> {
+			Patches patches = chunk.patches;
+			for (int i = 0; i < patches.size(); i++)
+			{
+				chunk.patch(patches.position(i), offsets[patches.target(i)]);
+			}
+		});
+		return offsets;
+	}
+
+	/**
+	 * Write patched data into a file pre-sized to its final length, chunks being written in parallel at their position
+	 *
+	 * @param file data file
+	 * @param pos selection of synsets (n|v|a|r)
+	 * @throws IOException io
+	 */
+	public void writeData(File file, char pos) throws IOException
+	{
+		RenderedChunk[] chunks = renderedData[Parallel.POSES.indexOf(pos)];
+		RenderedChunk last = chunks[chunks.length - 1];
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+		{
+			raf.setLength(last.base + last.size());
+			FileChannel channel = raf.getChannel();
+			Parallel.forEachIndex(chunks.length, c -> chunks[c].writeTo(channel, chunks[c].base));
+		}
 	}
 }
@@ -0,0 +1,291 @@
+package org.ewn.grind;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer that WNDB fields are encoded into: zero-padded decimal, fixed-width hexadecimal, pointer symbols, escaped lemmas and text. Fields
+ * go straight to UTF-8 bytes, with no intermediate string and no format string to parse. An encoder is meant to be reset and reused from line to line.
+ *
+ * @author Bernard Bou
+ */
+class FieldEncoder
+{
+	private static final byte[] HEX_LOWER = "0123456789abcdef".getBytes();
+
+	private static final byte[] HEX_UPPER = "0123456789ABCDEF".getBytes();
+
+	private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes();
+
+	/**
+	 * Buffer
+	 */
+	protected byte[] buf;
+
+	/**
+	 * Number of valid bytes in buffer
+	 */
+	protected int count;
+
+	/**
+	 * Constructor
+	 */
+	FieldEncoder()
+	{
+		this(256);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity initial capacity
+	 */
+	FieldEncoder(int capacity)
+	{
+		this.buf = new byte[capacity];
+	}
+
+	private void ensure(int extra)
+	{
+		if (count + extra > buf.length)
+		{
+			buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + extra));
+		}
+	}
+
+	/**
+	 * Character in ASCII range
+	 *
+	 * @param c character
+	 * @return this encoder
+	 */
+	FieldEncoder chr(char c)
+	{
+		ensure(1);
+		buf[count++] = (byte) c;
+		return this;
+	}
+
+	/**
+	 * String in ASCII range, such as pointer symbols and separators
+	 *
+	 * @param s string
+	 * @return this encoder
+	 */
+	FieldEncoder ascii(String s)
+	{
+		int n = s.length();
+		ensure(n);
+		for (int i = 0; i < n; i++)
+		{
+			buf[count++] = (byte) s.charAt(i);
+		}
+		return this;
+	}
+
+	/**
+	 * Text, encoded in UTF-8 (unpaired surrogates are replaced with '?' as String.getBytes() does)
+	 *
+	 * @param s text
+	 * @return this encoder
+	 */
+	FieldEncoder text(String s)
+	{
+		return text(s, false);
+	}
+
+	/**
+	 * Escaped text, spaces being replaced with underscores as Formatter.escape() does
+	 *
+	 * @param s text
+	 * @return this encoder
+	 */
+	FieldEncoder escaped(String s)
+	{
+		return text(s, true);
+	}
+
+	private FieldEncoder text(String s, boolean escape)
+	{
+		int n = s.length();
+		ensure(3 * n);
+		for (int i = 0; i < n; i++)
+		{
+			char c = s.charAt(i);
+			if (c < 0x80)
+			{
+				buf[count++] = (byte) (escape && c == ' ' ? '_' : c);
+			}
+			else if (c < 0x800)
+			{
+				buf[count++] = (byte) (0xC0 | c >> 6);
+				buf[count++] = (byte) (0x80 | c & 0x3F);
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1)))
+			{
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				buf[count++] = (byte) (0xF0 | cp >> 18);
+				buf[count++] = (byte) (0x80 | cp >> 12 & 0x3F);
+				buf[count++] = (byte) (0x80 | cp >> 6 & 0x3F);
+				buf[count++] = (byte) (0x80 | cp & 0x3F);
+			}
+			else if (Character.isSurrogate(c))
+			{
+				buf[count++] = '?';
+			}
+			else
+			{
+				buf[count++] = (byte) (0xE0 | c >> 12);
+				buf[count++] = (byte) (0x80 | c >> 6 & 0x3F);
+				buf[count++] = (byte) (0x80 | c & 0x3F);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Text, enclosed in double quotes unless it already is, as Formatter.joinAndQuote() does
+	 *
+	 * @param s text
+	 * @return this encoder
+	 */
+	FieldEncoder quoted(String s)
+	{
+		if (Formatter.isQuoted(s))
+		{
+			return text(s);
+		}
+		return chr('"').text(s).chr('"');
+	}
+
+	/**
+	 * Decimal, as %d does
+	 *
+	 * @param value value
+	 * @return this encoder
+	 */
+	FieldEncoder decimal(long value)
+	{
+		return decimal(value, 1);
+	}
+
+	/**
+	 * Zero-padded decimal, as %0<width>d does
+	 *
+	 * @param value value
+	 * @param width minimum width, sign included
+	 * @return this encoder
+	 */
+	FieldEncoder decimal(long value, int width)
+	{
+		if (value < 0)
+		{
+			if (value == Long.MIN_VALUE)
+			{
+				return ascii(String.format("%0" + width + "d", value));
+			}
+			chr('-');
+			return decimal(-value, width - 1);
+		}
+		int digits = Formatter.decimalWidth(value, width);
+		ensure(digits);
+		long v = value;
+		for (int i = count + digits - 1; i >= count; i--)
+		{
+			buf[i] = (byte) ('0' + v % 10);
+			v /= 10;
+		}
+		count += digits;
+		return this;
+	}
+
+	/**
+	 * Zero-padded lower-case hexadecimal, as %0<width>x does
+	 *
+	 * @param value value
+	 * @param width minimum width
+	 * @return this encoder
+	 */
+	FieldEncoder hex(int value, int width)
+	{
+		return hex(value, width, HEX_LOWER);
+	}
+
+	/**
+	 * Upper-case hexadecimal, as %X does
+	 *
+	 * @param value value
+	 * @return this encoder
+	 */
+	FieldEncoder hexUpper(int value)
+	{
+		return hex(value, 1, HEX_UPPER);
+	}
+
+	private FieldEncoder hex(int value, int width, byte[] digitBytes)
+	{
+		int digits = Formatter.hexWidth(value, width);
+		ensure(digits);
+		int v = value;
+		for (int i = count + digits - 1; i >= count; i--)
+		{
+			buf[i] = digitBytes[v & 0xF];
+			v >>>= 4;
+		}
+		count += digits;
+		return this;
+	}
+
+	/**
+	 * Line separator, as println() writes it
+	 *
+	 * @return this encoder
+	 */
+	FieldEncoder lineSeparator()
+	{
+		ensure(LINE_SEPARATOR.length);
+		System.arraycopy(LINE_SEPARATOR, 0, buf, count, LINE_SEPARATOR.length);
+		count += LINE_SEPARATOR.length;
+		return this;
+	}
+
+	/**
+	 * Number of encoded bytes
+	 *
+	 * @return number of encoded bytes
+	 */
+	int size()
+	{
+		return count;
+	}
+
+	/**
+	 * Discard encoded bytes, keeping buffer
+	 */
+	void reset()
+	{
+		count = 0;
+	}
+
+	/**
+	 * Write encoded bytes to sink
+	 *
+	 * @param sink sink
+	 * @throws IOException io
+	 */
+	void writeTo(OutputSink sink) throws IOException
+	{
+		sink.write(buf, 0, count);
+	}
+
+	/**
+	 * Decode encoded bytes
+	 *
+	 * @return string
+	 */
+	@Override
+	public String toString()
+	{
+		return new String(buf, 0, count, Flags.charSet);
+	}
+}
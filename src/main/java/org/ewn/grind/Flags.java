@@ -25,6 +25,11 @@ public class Flags
 	 */
 	public static boolean VERBFRAME_COMPAT = false;
 
+	/**
+	 * Memory budget of each sorted output (index, morph and template files), in bytes, beyond which sorted runs are spilled to temporary files.
+	 */
+	public static long SORT_BUDGET = 64L << 20;
+
 	/**
 	 * Character set for output files.
 	 */
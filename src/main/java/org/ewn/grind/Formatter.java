@@ -54,12 +54,11 @@ class Formatter
 	/**
 	 * Join array of ints
 	 *
-	 * @param items  array of ints
-	 * @param delim  delimiter
-	 * @param format format
-	 * @return joined string representation of items
+	 * @param items array of ints
+	 * @param delim delimiter
+	 * @return joined decimal representation of items
 	 */
-	static String join(int[] items, @SuppressWarnings("SameParameterValue") char delim, String format)
+	static String join(int[] items, @SuppressWarnings("SameParameterValue") char delim)
 	{
 		StringBuilder sb = new StringBuilder();
 		boolean first = true;
@@ -73,7 +72,7 @@ class Formatter
 			{
 				sb.append(delim);
 			}
-			sb.append(String.format(format, item));
+			sb.append(item);
 		}
 		return sb.toString();
 	}
@@ -144,7 +143,7 @@ class Formatter
 				sb.append(delim);
 			}
 			String value = f.apply(item);
-			if (value.matches("\".*\""))
+			if (isQuoted(value))
 			{
 				sb.append(escape ? escape(value) : value);
 			}
@@ -188,24 +187,92 @@ class Formatter
 	}
 
 	/**
-	 * Join items, prefix with count
+	 * Whether value is enclosed in double quotes, as value.matches("\".*\"") would tell (no line terminator in between)
 	 *
-	 * @param items       collection of items of type T
-	 * @param countFormat format of count field
-	 * @param f           string function to represent item
-	 * @return joined string representation of items preceded by count
+	 * @param value value
+	 * @return whether value is quoted
 	 */
-	static <T> String joinNum(Collection<T> items, String countFormat, Function<T, String> f)
+	static boolean isQuoted(String value)
 	{
-		StringBuilder sb = new StringBuilder();
-		sb.append(String.format(countFormat, items.size()));
-		for (T item : items)
+		int n = value.length();
+		if (n < 2 || value.charAt(0) != '"' || value.charAt(n - 1) != '"')
 		{
-			sb.append(' ');
-			String value = f.apply(item);
-			sb.append(value);
+			return false;
 		}
-		return sb.toString();
+		for (int i = 1; i < n - 1; i++)
+		{
+			char c = value.charAt(i);
+			if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029')
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Length of string once encoded in UTF-8, as s.getBytes(StandardCharsets.UTF_8).length would tell, without encoding it
+	 *
+	 * @param s string
+	 * @return UTF-8 byte length (unpaired surrogates count as the one-byte replacement)
+	 */
+	static int utf8Length(String s)
+	{
+		int n = s.length();
+		int length = n;
+		for (int i = 0; i < n; i++)
+		{
+			char c = s.charAt(i);
+			if (c < 0x80)
+			{
+				continue;
+			}
+			if (c < 0x800)
+			{
+				length += 1;
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1)))
+			{
+				// 2 chars, 4 bytes
+				length += 2;
+				i++;
+			}
+			else if (!Character.isSurrogate(c))
+			{
+				length += 2;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Width of decimal representation
+	 *
+	 * @param value    non-negative value
+	 * @param minWidth minimum width (zero padding)
+	 * @return number of decimal digits, at least minWidth
+	 */
+	static int decimalWidth(long value, int minWidth)
+	{
+		int width = 1;
+		for (long v = value; v >= 10; v /= 10)
+		{
+			width++;
+		}
+		return Math.max(width, minWidth);
+	}
+
+	/**
+	 * Width of hexadecimal representation
+	 *
+	 * @param value    value
+	 * @param minWidth minimum width (zero padding)
+	 * @return number of hexadecimal digits, at least minWidth
+	 */
+	static int hexWidth(int value, int minWidth)
+	{
+		int width = Math.max(1, (Integer.SIZE - Integer.numberOfLeadingZeros(value) + 3) / 4);
+		return Math.max(width, minWidth);
 	}
 
 	/**
@@ -1,73 +1,123 @@
 package org.ewn.grind;
 
-import org.ewn.grind.Memory.Unit;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.xml.sax.SAXException;
+import org.ewn.grind.PerfReport.Phase;
+import org.ewn.grind.PerfReport.Phase.Part;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPathExpressionException;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
-import java.util.List;
-import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
 
 /**
- * Main class that generates the WN database in the WNDB format as per wndb(5WN)
+ * Main class that generates the WN database in the WNDB format as per wndb(5WN). A per-phase performance report is written along with the database
+ * (grind-perf.json).
  *
  * @author Bernard Bou
  * @see "https://wordnet.princeton.edu/documentation/wndb5wn"
  */
 public class Grinder
 {
+	/**
+	 * Offset map file name, in the output directory
+	 */
+	static final String OFFSET_MAP = "offsets.map";
+
 	/**
 	 * Main entry point
 	 *
-	 * @param args command-line arguments [-compat:lexid] [-compat:pointer] mergedXml [outputDir]
-	 * @throws SAXException sax
-	 * @throws ParserConfigurationException parser configuration
+	 * @param args command-line arguments [-compat:pointer] [-compat:lexid] [-compat:verbframe] [-twopass] [-snapshot] [-offsetmap:out]
+	 *             [-offsetmap:in offsetMap] [-sidecars sidecarDir] [-senseindex:cased]
+	 *             [-senseindex:both] [-sortbudget megabytes] mergedXml [outputDir], switches in any order
 	 * @throws IOException io
-	 * @throws XPathExpressionException xpath
+	 * @throws XMLStreamException xml stream
 	 */
-	public static void main(String[] args) throws SAXException, ParserConfigurationException, IOException, XPathExpressionException
+	public static void main(String[] args) throws IOException, XMLStreamException
 	{
-		// Timing
-		final long startTime = System.currentTimeMillis();
+		// Performance report
+		PerfReport report = new PerfReport();
 
-		// Heap
-		boolean traceHeap = false;
-		String traceHeapEnv = System.getenv("TRACEHEAP");
-		if (traceHeapEnv != null)
-		{
-			traceHeap = Boolean.parseBoolean(traceHeapEnv);
-		}
-		if (traceHeap)
-			System.err.println(Memory.heapInfo("before maps", Unit.M));
-
-		// Argument switches processing
+		// Argument switches processing, in any order
 		int nArg = args.length; // left
 		int iArg = 0; // current
-
-		if (nArg > 0 && "-compat:pointer".equals(args[iArg])) // if left and is "-compat:pointer"
+		boolean twoPass = false;
+		boolean snapshot = false;
+		boolean offsetMapOut = false;
+		File offsetMapIn = null;
+		String sidecarDir = ".";
+		boolean senseIndexCased = false;
+		boolean senseIndexBoth = false;
+		while (nArg > 0 && args[iArg].startsWith("-")) // while left and is a switch
 		{
+			String option = args[iArg];
+			if ("-compat:pointer".equals(option))
+			{
+				Flags.POINTER_COMPAT = true;
+			}
+			else if ("-compat:lexid".equals(option))
+			{
+				Flags.LEXID_COMPAT = true;
+			}
+			else if ("-compat:verbframe".equals(option))
+			{
+				Flags.VERBFRAME_COMPAT = true;
+			}
+			else if ("-twopass".equals(option))
+			{
+				twoPass = true;
+			}
+			else if ("-snapshot".equals(option))
+			{
+				snapshot = true;
+			}
+			else if ("-offsetmap:out".equals(option))
+			{
+				offsetMapOut = true;
+			}
+			else if ("-senseindex:cased".equals(option))
+			{
+				senseIndexCased = true;
+			}
+			else if ("-senseindex:both".equals(option))
+			{
+				senseIndexBoth = true;
+			}
+			else if ("-offsetmap:in".equals(option) || "-sidecars".equals(option) || "-sortbudget".equals(option))
+			{
+				if (nArg < 2)
+				{
+					throw new IllegalArgumentException("[E] Missing value for " + option);
+				}
+				String value = args[iArg + 1];
+				if ("-offsetmap:in".equals(option))
+				{
+					offsetMapIn = new File(value);
+				}
+				else if ("-sidecars".equals(option))
+				{
+					sidecarDir = value;
+				}
+				else
+				{
+					long megabytes = Long.parseLong(value);
+					if (megabytes <= 0)
+					{
+						throw new IllegalArgumentException("[E] Sort budget must be a positive number of megabytes: " + value);
+					}
+					Flags.SORT_BUDGET = megabytes << 20;
+				}
+				nArg--; // left: decrement for value
+				iArg++; // current: move past value
+			}
+			else
+			{
+				throw new IllegalArgumentException("[E] Unknown option " + option);
+			}
 			nArg--; // left: decrement
 			iArg++; // current: move to next
-			Flags.POINTER_COMPAT = true;
 		}
-
-		if (nArg > 0 && "-compat:lexid".equals(args[iArg])) // if left and is "-compat:lexid"
+		if (nArg == 0)
 		{
-			nArg--; // left: decrement
-			iArg++; // current: move to next
-			Flags.LEXID_COMPAT = true;
-		}
-		if (nArg > 0 && "-compat:verbframe".equals(args[iArg])) // if left and is "-compat:verbframe"
-		{
-			nArg--; // left: decrement
-			iArg++; // current: move to next
-			Flags.VERBFRAME_COMPAT = true;
+			throw new IllegalArgumentException("[E] Missing merged XML file");
 		}
 
 		// Input
@@ -92,143 +142,414 @@ public class Grinder
 		}
 		System.err.println("Output " + dir.getAbsolutePath());
 
-		// XML document
-		Document doc = XmlUtils.getDocument(filename, false);
+		report.property("input", filename).property("mode", twoPass ? "twopass" : "render-once");
 
-		// Maps
-		Map<String, List<Element>> sensesBySynsetId = XmlUtils.makeElementMultiMap(doc, XmlNames.SENSE_TAG, XmlNames.SYNSET_ATTR);
-		Map<String, Element> synsetsById = XmlUtils.makeElementMap(doc, XmlNames.SYNSET_TAG, XmlNames.ID_ATTR);
-		Map<String, Element> sensesById = XmlUtils.makeElementMap(doc, XmlNames.SENSE_TAG, XmlNames.ID_ATTR);
-		Map<String, int[]> verbTemplates = VerbTemplatesFactory.makeVerbTemplatesMap(".");
-		Map<String, Integer> tagCounts = TagCountsFactory.makeTagCountsMap(".");
+		// Sidecars (tag.cnt, sentidx.vrb), loaded while the model is parsed
+		Sidecars sidecars = new Sidecars(sidecarDir);
+
+		// Model, from snapshot if it is up to date, in which case offsets come with it
+		Model model = null;
+		long[] offsets = null;
+		byte[] hash = null;
+		try (Phase phase = report.phase("parse"))
+		{
+			if (snapshot)
+			{
+				hash = ModelSnapshot.hash(new File(filename));
+				ModelSnapshot loaded = ModelSnapshot.load(new File(filename), hash);
+				if (loaded != null)
+				{
+					model = loaded.model;
+					offsets = loaded.offsets;
+					System.err.println("Model " + ModelSnapshot.file(new File(filename)) + " " + model.lexicalEntries.length + " lexentries " + model.senses.length + " senses " + model.synsets.length + " synsets");
+				}
+			}
+			if (model == null)
+			{
+				model = ModelFactory.makeModel(filename);
+			}
+			phase.items(model.synsets.length + model.senses.length + model.lexicalEntries.length);
+		}
+		boolean snapshotLoaded = offsets != null;
+		report.property("snapshot", !snapshot ? "none" : snapshotLoaded ? "loaded" : "written");
+
+		// Offsets from offset map, if it was computed from this input with these flags
+		if (offsets == null && offsetMapIn != null)
+		{
+			try (Phase phase = report.phase("offsets"))
+			{
+				if (hash == null)
+				{
+					hash = ModelSnapshot.hash(new File(filename));
+				}
+				OffsetMap map = OffsetMap.open(offsetMapIn);
+				if (map.matches(hash))
+				{
+					offsets = map.getOffsets(model);
+					phase.items(offsets.length);
+				}
+				else
+				{
+					System.err.println("Offset map " + offsetMapIn + " is stale");
+				}
+			}
+		}
+
+		// Maps, bound to sense ordinals once loaded
+		sidecars.bind(model, report);
 
 		/*
-		 * for (Element senseElement : sensesById.values()) { try { int order = XmlExtractor.getOrder(senseElement, synsetsById); } catch (Exception e) {
+		 * for (Sense sense : model.senses) { try { int order = XmlExtractor.getOrder(sense); } catch (Exception e) {
 		 * e.printStackTrace(); } }
 		 */
 
-		// Compute synset offsets
-		Map<String, Long> offsets = new OffsetFactory(doc, sensesBySynsetId, synsetsById, sensesById).compute();
+		// Process data, computing synset offsets either beforehand or from rendered data, unless they come with the snapshot or the offset map
+		offsets = grindData(dir, model, offsets, twoPass, report);
+		if (snapshot && !snapshotLoaded)
+		{
+			try (Phase phase = report.phase("snapshot"))
+			{
+				new ModelSnapshot(model, offsets).write(new File(filename), hash);
+				phase.bytes(ModelSnapshot.file(new File(filename)).length());
+			}
+		}
+		if (offsetMapOut)
+		{
+			try (Phase phase = report.phase("offsetmap"))
+			{
+				File file = new File(dir, OFFSET_MAP);
+				OffsetMap.write(file, model, offsets, hash != null ? hash : ModelSnapshot.hash(new File(filename)));
+				phase.items(offsets.length).bytes(file.length());
+			}
+		}
 
-		// Heap
-		if (traceHeap)
-			System.err.println(Memory.heapInfo("after maps", Unit.M));
+		// Indexes, morphs and templates
+		grindIndexes(dir, model, offsets, sidecars, senseIndexCased, senseIndexBoth, report);
 
-		// Process
-		data(dir, doc, sensesBySynsetId, synsetsById, sensesById, offsets);
-		indexWords(dir, doc, synsetsById, offsets);
-		indexSenses(dir, doc, offsets, tagCounts);
-		morphs(dir, doc);
-		templates(dir, doc, verbTemplates);
+		// Report
+		report.write(dir);
+		System.err.println("Total execution time: " + report.totalMillis() + " ms, report in " + new File(dir, PerfReport.FILENAME));
+	}
 
-		// Timing
-		final long endTime = System.currentTimeMillis();
-		System.err.println("Total execution time: " + (endTime - startTime) / 1000 + "s");
+	/**
+	 * Sidecar maps (sentidx.vrb, tag.cnt), loaded in the background from construction on, then bound to sense ordinals
+	 */
+	static class Sidecars
+	{
+		private final Parallel.Pending<SensekeyTable, IOException> verbTemplatesLoad;
+
+		private final Parallel.Pending<SensekeyTable, IOException> tagCountsLoad;
+
+		/**
+		 * Verb templates indexed by sense ordinal, once bound
+		 */
+		SenseTable verbTemplates;
+
+		/**
+		 * Tag counts indexed by sense ordinal, once bound
+		 */
+		SenseTable tagCounts;
+
+		/**
+		 * Constructor, which starts loading
+		 *
+		 * @param dir directory of sidecar files
+		 */
+		Sidecars(String dir)
+		{
+			verbTemplatesLoad = Parallel.start(VerbTemplatesFactory.FILENAME, () -> VerbTemplatesFactory.parseVerbTemplates(dir));
+			tagCountsLoad = Parallel.start(TagCountsFactory.FILENAME, () -> TagCountsFactory.parseTagCounts(dir));
+		}
+
+		/**
+		 * Bind loaded maps to the senses of model
+		 *
+		 * @param model model
+		 * @param report performance report
+		 * @throws IOException io, when loading
+		 */
+		void bind(Model model, PerfReport report) throws IOException
+		{
+			try (Phase phase = report.phase("maps"))
+			{
+				SensekeyTable verbTemplatesTable = verbTemplatesLoad.get();
+				SensekeyTable tagCountsTable = tagCountsLoad.get();
+				verbTemplates = verbTemplatesTable.bind(model);
+				tagCounts = tagCountsTable.bind(model);
+				phase.items(verbTemplatesTable.size() + tagCountsTable.size());
+			}
+		}
 	}
 
 	/**
-	 * Grind data.{noun|verb|adj|adv}
+	 * Grind data.{noun|verb|adj|adv}, computing synset offsets either beforehand or from rendered data, unless they are given
 	 *
 	 * @param dir output directory
-	 * @param doc parsed XML W3C document
-	 * @param sensesBySynsetId sense elements mapped by synsetId (whose 'synset' attribute = synsetId)
-	 * @param synsetsById synset elements mapped by synsetId
-	 * @param sensesById sense elements mapped by synsetId
-	 * @param offsets offsets mapped by synsetId
+	 * @param model model
+	 * @param offsets offsets indexed by synset ordinal, null if they are to be computed
+	 * @param twoPass whether to compute offsets beforehand rather than from rendered data
+	 * @param report performance report
+	 * @return offsets indexed by synset ordinal
 	 * @throws IOException io
-	 * @throws XPathExpressionException xpath
 	 */
-	public static void data(File dir, Document doc, //
-			Map<String, List<Element>> sensesBySynsetId, //
-			Map<String, Element> synsetsById, //
-			Map<String, Element> sensesById, //
-			Map<String, Long> offsets //
-	) throws IOException, XPathExpressionException
+	static long[] grindData(File dir, Model model, long[] offsets, boolean twoPass, PerfReport report) throws IOException
 	{
-		// Data
-		DataGrinder grinder = new DataGrinder(doc, sensesBySynsetId, synsetsById, sensesById, offsets);
-		try (PrintStream ps = new PrintStream(new FileOutputStream(new File(dir, "data.noun")), true, Flags.charSet.name()))
+		if (offsets != null)
 		{
-			grinder.makeData(ps, SynsetProcessor.NOUN_SYNSET_XPATH);
-			grinder.report();
+			data(dir, model, offsets, report);
 		}
-		try (PrintStream ps = new PrintStream(new FileOutputStream(new File(dir, "data.verb")), true, Flags.charSet.name()))
+		else if (twoPass)
 		{
-			grinder.makeData(ps, SynsetProcessor.VERB_SYNSET_XPATH);
-			grinder.report();
+			offsets = offsets(model, report);
+			data(dir, model, offsets, report);
 		}
-		try (PrintStream ps = new PrintStream(new FileOutputStream(new File(dir, "data.adj")), true, Flags.charSet.name()))
+		else
 		{
-			grinder.makeData(ps, SynsetProcessor.ADJ_SYNSET_XPATH);
-			grinder.report();
+			offsets = data(dir, model, report);
 		}
-		try (PrintStream ps = new PrintStream(new FileOutputStream(new File(dir, "data.adv")), true, Flags.charSet.name()))
+		return offsets;
+	}
+
+	/**
+	 * Grind indexes, morphs and templates, from what is collected from lexical entries in one traversal
+	 *
+	 * @param dir output directory
+	 * @param model model
+	 * @param offsets offsets indexed by synset ordinal
+	 * @param sidecars sidecar maps, bound
+	 * @param senseIndexCased whether to grind index.sense.cased too
+	 * @param senseIndexBoth whether to grind index.sense.both too
+	 * @param report performance report
+	 * @throws IOException io
+	 */
+	static void grindIndexes(File dir, Model model, long[] offsets, Sidecars sidecars, boolean senseIndexCased, boolean senseIndexBoth, PerfReport report) throws IOException
+	{
+		// Collect from lexical entries in one traversal
+		WordIndexer wordIndexer = new WordIndexer(model, offsets);
+		MorphGrinder morphGrinder = new MorphGrinder(model);
+		TemplateIndexer templateIndexer = new TemplateIndexer(model, sidecars.verbTemplates);
+		try (Phase phase = report.phase("traversal"))
 		{
-			grinder.makeData(ps, SynsetProcessor.ADV_SYNSET_XPATH);
+			new Traversal(model) //
+					.register(Parallel.POSES, wordIndexer::collect) //
+					.register(Parallel.POSES, morphGrinder::collect) //
+					.register("v", templateIndexer::collect) //
+					.run();
+			phase.items(model.lexicalEntries.length);
+		}
+
+		indexWords(dir, wordIndexer, report);
+		indexSenses(dir, model, offsets, sidecars.tagCounts, senseIndexCased, senseIndexBoth, report);
+		morphs(dir, morphGrinder, report);
+		templates(dir, templateIndexer, report);
+	}
+
+	/**
+	 * Compute offsets, parts of speech being computed concurrently
+	 *
+	 * @param model model
+	 * @param report performance report
+	 * @return offsets indexed by synset ordinal
+	 */
+	public static long[] offsets(Model model, PerfReport report)
+	{
+		try (Phase phase = report.phase("offsets"))
+		{
+			OffsetFactory factory = new OffsetFactory(model);
+			long[] offsets = new long[model.synsets.length];
+			Parallel.forEachPos(Parallel.POSES, pos -> {
+				try (Part part = phase.part(String.valueOf(pos)))
+				{
+					factory.compute(pos, offsets);
+					part.items(model.getSynsets(pos).size());
+				}
+			});
+			return offsets;
+		}
+	}
+
+	/**
+	 * Grind data.{noun|verb|adj|adv}, parts of speech being ground concurrently, chunks of synsets being rendered and written in parallel
+	 *
+	 * @param dir output directory
+	 * @param model model
+	 * @param offsets offsets indexed by synset ordinal
+	 * @param report performance report
+	 * @throws IOException io
+	 */
+	public static void data(File dir, Model model, long[] offsets, PerfReport report) throws IOException
+	{
+		// Data
+		try (Phase phase = report.phase("data"))
+		{
+			DataGrinder grinder = new DataGrinder(model, offsets);
+			Parallel.forEachPos(Parallel.POSES, pos -> {
+				try (Part part = phase.part(String.valueOf(pos)))
+				{
+					File file = new File(dir, "data." + posName(pos));
+					grinder.makeData(file, pos);
+					part.items(model.getSynsets(pos).size()).bytes(file.length());
+				}
+			});
 			grinder.report();
 		}
 	}
 
 	/**
+	 * Grind data.{noun|verb|adj|adv}, rendering lines once and patching offsets in, parts of speech being rendered and written concurrently
+	 *
 	 * @param dir output directory
-	 * @param doc parsed XML document
-	 * @param synsetsById synset elements mapped by synsetId
-	 * @param offsets offsets mapped by synsetId
+	 * @param model model
+	 * @param report performance report, offsets being reported as rendering and patching, data as writing
+	 * @return offsets indexed by synset ordinal
 	 * @throws IOException io
-	 * @throws XPathExpressionException xpath
 	 */
-	public static void indexWords(File dir, Document doc, //
-			Map<String, Element> synsetsById, //
-			Map<String, Long> offsets //
-	) throws IOException, XPathExpressionException
+	public static long[] data(File dir, Model model, PerfReport report) throws IOException
 	{
-		// Index
-		WordIndexer indexer = new WordIndexer(doc, synsetsById, offsets);
-		try (PrintStream ps = new PrintStream(new FileOutputStream(new File(dir, "index.noun")), true, Flags.charSet.name()))
+		// Data
+		DataGrinder grinder = new DataGrinder(model);
+		long[] offsets;
+		try (Phase phase = report.phase("offsets"))
 		{
-			indexer.makeIndex(ps, WordIndexer.NOUN_LEXENTRIES_XPATH);
+			Parallel.forEachPos(Parallel.POSES, pos -> {
+				try (Part part = phase.part(String.valueOf(pos)))
+				{
+					grinder.renderData(pos);
+					part.items(model.getSynsets(pos).size());
+				}
+			});
+			grinder.report();
+			offsets = grinder.patchOffsets();
 		}
-		try (PrintStream ps = new PrintStream(new FileOutputStream(new File(dir, "index.verb")), true, Flags.charSet.name()))
+		try (Phase phase = report.phase("data"))
 		{
-			indexer.makeIndex(ps, WordIndexer.VERB_LEXENTRIES_XPATH);
+			Parallel.forEachPos(Parallel.POSES, pos -> {
+				try (Part part = phase.part(String.valueOf(pos)))
+				{
+					File file = new File(dir, "data." + posName(pos));
+					grinder.writeData(file, pos);
+					part.items(model.getSynsets(pos).size()).bytes(file.length());
+				}
+			});
 		}
-		try (PrintStream ps = new PrintStream(new FileOutputStream(new File(dir, "index.adj")), true, Flags.charSet.name()))
+		return offsets;
+	}
+
+	/**
+	 * Report what was written to sink
+	 *
+	 * @param name file name
+	 * @param sink sink
+	 */
+	private static void report(String name, OutputSink sink)
+	{
+		System.err.printf("%s: %d lines, %d bytes%n", name, sink.getLineCount(), sink.getByteCount());
+	}
+
+	/**
+	 * Report what was written to sink, to console and to performance report
+	 *
+	 * @param name file name
+	 * @param sink sink
+	 * @param part part of performance report phase
+	 */
+	private static void report(String name, OutputSink sink, Part part)
+	{
+		report(name, sink);
+		part.items(sink.getLineCount()).bytes(sink.getByteCount());
+	}
+
+	/**
+	 * Part-of-speech name in data and index file names
+	 *
+	 * @param pos part of speech (n|v|a|r)
+	 * @return name
+	 */
+	static String posName(char pos)
+	{
+		switch (pos)
 		{
-			indexer.makeIndex(ps, WordIndexer.ADJ_LEXENTRIES_XPATH);
+		case 'n':
+			return "noun";
+		case 'v':
+			return "verb";
+		case 'a':
+			return "adj";
+		case 'r':
+			return "adv";
+		default:
+			throw new IllegalArgumentException("pos=" + pos);
 		}
-		try (PrintStream ps = new PrintStream(new FileOutputStream(new File(dir, "index.adv")), true, Flags.charSet.name()))
+	}
+
+	/**
+	 * Grind index.{noun|verb|adj|adv}
+	 *
+	 * @param dir output directory
+	 * @param indexer word indexer, lexical entries having been collected
+	 * @param report performance report
+	 * @throws IOException io
+	 */
+	public static void indexWords(File dir, WordIndexer indexer, PerfReport report) throws IOException
+	{
+		// Index
+		try (Phase phase = report.phase("index.words"))
 		{
-			indexer.makeIndex(ps, WordIndexer.ADV_LEXENTRIES_XPATH);
+			for (char pos : Parallel.POSES.toCharArray())
+			{
+				String name = "index." + posName(pos);
+				try (Part part = phase.part(String.valueOf(pos)); OutputSink sink = ChannelSink.open(new File(dir, name)))
+				{
+					indexer.write(sink, pos);
+					report(name, sink, part);
+				}
+			}
 		}
 	}
 
 	/**
-	 * Grind index.sense
+	 * Grind index.sense, and its selected variants, from senses gathered and sorted once
 	 *
 	 * @param dir output directory
-	 * @param doc parsed XML document
-	 * @param offsets offsets mapped by synsetId
-	 * @param tagCounts mapped by sensekey
+	 * @param model model
+	 * @param offsets offsets indexed by synset ordinal
+	 * @param tagCounts tag counts indexed by sense ordinal
+	 * @param cased whether to grind index.sense.cased too
+	 * @param both whether to grind index.sense.both too
+	 * @param report performance report
 	 * @throws IOException io
 	 */
-	public static void indexSenses(File dir, Document doc, //
-			Map<String, Long> offsets, Map<String, Integer> tagCounts) throws IOException
+	public static void indexSenses(File dir, Model model, //
+			long[] offsets, SenseTable tagCounts, boolean cased, boolean both, PerfReport report) throws IOException
 	{
-		/*
-		 * try (PrintStream ps = new PrintStream(new FileOutputStream(new File(dir, "index.sense.cased")), true, Flags.charSet.name())) { new SenseIndexer(doc,
-		 * offsets).makeIndexCased(ps); }
-		 */
-		try (PrintStream ps = new PrintStream(new FileOutputStream(new File(dir, "index.sense")), true, Flags.charSet.name()))
+		try (Phase phase = report.phase("index.sense"))
 		{
-			new SenseIndexer(doc, offsets, tagCounts).makeIndexLowerMultiValue(ps);
+			SenseIndexer indexer = new SenseIndexer(model, offsets, tagCounts);
+			try (Part part = phase.part("index.sense"); OutputSink sink = ChannelSink.open(new File(dir, "index.sense")))
+			{
+				indexer.makeIndexLowerMultiValue(sink);
+				report("index.sense", sink, part);
+			}
+			if (cased)
+			{
+				try (Part part = phase.part("index.sense.cased"); OutputSink sink = ChannelSink.open(new File(dir, "index.sense.cased")))
+				{
+					indexer.makeIndexCased(sink);
+					report("index.sense.cased", sink, part);
+				}
+			}
+			if (both)
+			{
+				try (Part part = phase.part("index.sense.both"); OutputSink sink = ChannelSink.open(new File(dir, "index.sense.both")))
+				{
+					indexer.makeIndexBoth(sink);
+					report("index.sense.both", sink, part);
+				}
+			}
 		}
 		/*
-		 * try (PrintStream ps = new PrintStream(new FileOutputStream(new File(dir, "index.sense.both")), true, Flags.charSet.name())) { new SenseIndexer(doc,
-		 * offsets).makeIndexBoth(ps); }
-		 */
-		/*
-		 * try (PrintStream ps = new PrintStream(new FileOutputStream(new File(dir, "index.sense.legacy")), true, Flags.charSet.name())) { new SenseIndexer(doc,
-		 * offsets).makeIndexLegacy(ps); }
+		 * try (OutputSink sink = ChannelSink.open(new File(dir, "index.sense.legacy"))) { new SenseIndexer(model,
+		 * offsets, tagCounts).makeIndexLegacy(sink); }
 		 */
 	}
 
@@ -236,28 +557,23 @@ public class Grinder
 	 * Grind {noun|verb|adj|adv}.exc
 	 *
 	 * @param dir output directory
-	 * @param doc parsed XML document
+	 * @param grinder morph grinder, lexical entries having been collected
+	 * @param report performance report
 	 * @throws IOException io
-	 * @throws XPathExpressionException xpath
 	 */
-	public static void morphs(File dir, Document doc) throws IOException, XPathExpressionException
+	public static void morphs(File dir, MorphGrinder grinder, PerfReport report) throws IOException
 	{
-		MorphGrinder grinder = new MorphGrinder(doc);
-		try (PrintStream ps = new PrintStream(new FileOutputStream(new File(dir, "noun.exc")), true, Flags.charSet.name()))
-		{
-			grinder.makeMorph(ps, MorphGrinder.NOUN_LEXENTRIES_XPATH);
-		}
-		try (PrintStream ps = new PrintStream(new FileOutputStream(new File(dir, "verb.exc")), true, Flags.charSet.name()))
-		{
-			grinder.makeMorph(ps, MorphGrinder.VERB_LEXENTRIES_XPATH);
-		}
-		try (PrintStream ps = new PrintStream(new FileOutputStream(new File(dir, "adj.exc")), true, Flags.charSet.name()))
-		{
-			grinder.makeMorph(ps, MorphGrinder.ADJ_LEXENTRIES_XPATH);
-		}
-		try (PrintStream ps = new PrintStream(new FileOutputStream(new File(dir, "adv.exc")), true, Flags.charSet.name()))
+		try (Phase phase = report.phase("morphs"))
 		{
-			grinder.makeMorph(ps, MorphGrinder.ADV_LEXENTRIES_XPATH);
+			for (char pos : Parallel.POSES.toCharArray())
+			{
+				String name = posName(pos) + ".exc";
+				try (Part part = phase.part(String.valueOf(pos)); OutputSink sink = ChannelSink.open(new File(dir, name)))
+				{
+					grinder.write(sink, pos);
+					report(name, sink, part);
+				}
+			}
 		}
 	}
 
@@ -265,16 +581,16 @@ public class Grinder
 	 * Grind sentidx.vrb
 	 *
 	 * @param dir output directory
-	 * @param doc parsed XML document
+	 * @param indexer template indexer, verb lexical entries having been collected
+	 * @param report performance report
 	 * @throws IOException io
-	 * @throws XPathExpressionException xpath
 	 */
-	public static void templates(File dir, Document doc, Map<String, int[]> verbTemplates) throws IOException, XPathExpressionException
+	public static void templates(File dir, TemplateIndexer indexer, PerfReport report) throws IOException
 	{
-		TemplateIndexer indexer = new TemplateIndexer(doc, verbTemplates);
-		try (PrintStream ps = new PrintStream(new FileOutputStream(new File(dir, "sentidx.vrb")), true, Flags.charSet.name()))
+		try (Phase phase = report.phase("templates"); Part part = phase.part("sentidx.vrb"); OutputSink sink = ChannelSink.open(new File(dir, "sentidx.vrb")))
 		{
-			indexer.makeIndex(ps);
+			indexer.write(sink);
+			report("sentidx.vrb", sink, part);
 		}
 	}
 }
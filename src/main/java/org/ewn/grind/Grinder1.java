@@ -1,40 +1,113 @@
 package org.ewn.grind;
 
 import org.ewn.grind.Memory.Unit;
+import org.ewn.grind.Model.Sense;
 import org.oewntk.parse.DataParser1;
 import org.oewntk.pojos.ParsePojoException;
 import org.oewntk.pojos.Synset;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.xml.sax.SAXException;
 
-import java.io.IOException;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPathExpressionException;
+import javax.xml.stream.XMLStreamException;
 
 /**
  * Main class that generates one line of the WN database in the WNDB format as per wndb(5WN)
+ * <p>
+ * In daemon mode, the model is loaded once and queries are answered one per line, from standard input or from clients of a local socket. In batch
+ * mode, the queries of a file are answered in parallel and the answers are output in query order. A query is 'SYNSETID', '-sense SENSEID' or '-offset POS
+ * OFFSET', or, in short, 'SENSEID' or 'POS OFFSET'; its answer is the data line and its parsed pretty-printed form (or an '[E]' line), followed by an
+ * empty line.
  *
  * @author Bernard Bou
  * @see "https://wordnet.princeton.edu/documentation/wndb5wn"
  */
 public class Grinder1
 {
+	/**
+	 * Command-line usage
+	 */
+	private static final String USAGE = "[-snapshot] [-offsetmap:in offsetMap] mergedXml (SYNSETID | -sense SENSEID | -offset POS OFFSET | SENSEID | POS OFFSET | -daemon [PORT] | -batch QUERYFILE)";
+
+	/**
+	 * Model
+	 */
+	private final Model model;
+
+	/**
+	 * Synset offsets indexed by synset ordinal
+	 */
+	private final long[] offsets;
+
+	/**
+	 * Data grinder, shared by queries
+	 */
+	private final DataGrinder grinder;
+
+	/**
+	 * Constructor
+	 *
+	 * @param model   model
+	 * @param offsets offsets indexed by synset ordinal
+	 */
+	public Grinder1(Model model, long[] offsets)
+	{
+		this.model = model;
+		this.offsets = offsets;
+		this.grinder = new DataGrinder(model, offsets);
+	}
+
 	/**
 	 * Main entry point
 	 *
-	 * @param args command-line arguments ([0] merged XML filename,[1] pos, [2] offset) # 1 input XML file # 2 SYNSETID | -sense | -offset # 3 SENSEID | POS
-	 *             (n|v|a|r|s) # 4 OFFSET (ie 1740)
-	 * @throws SAXException                 sax
-	 * @throws ParserConfigurationException parser configuration
-	 * @throws IOException                  io
-	 * @throws XPathExpressionException     xpath
+	 * @param args0 command-line arguments ([-snapshot] [-offsetmap:in offsetMap] [0] merged XML filename,[1] pos, [2] offset) # 1 input XML file # 2 SYNSETID | -sense | -offset |
+	 *              -daemon | -batch # 3 SENSEID | POS (n|v|a|r|s) | [PORT] | QUERYFILE # 4 OFFSET (ie 1740)
+	 * @throws IOException        io
+	 * @throws XMLStreamException xml stream
 	 */
-	public static void main(String[] args) throws SAXException, ParserConfigurationException, IOException, XPathExpressionException
+	public static void main(String[] args0) throws IOException, XMLStreamException
 	{
+		// Snapshot and offset map switches, in any order
+		int iArg = 0;
+		boolean snapshot = false;
+		File offsetMapIn = null;
+		while (iArg < args0.length && args0[iArg].startsWith("-"))
+		{
+			String option = args0[iArg];
+			if ("-snapshot".equals(option))
+			{
+				snapshot = true;
+				iArg++;
+			}
+			else if ("-offsetmap:in".equals(option))
+			{
+				if (iArg + 1 >= args0.length)
+				{
+					throw new IllegalArgumentException("[E] Missing value for " + option);
+				}
+				offsetMapIn = new File(args0[iArg + 1]);
+				iArg += 2;
+			}
+			else
+			{
+				throw new IllegalArgumentException("[E] Unknown option " + option);
+			}
+		}
+		if (iArg == args0.length)
+		{
+			throw new IllegalArgumentException("[E] Missing merged XML file");
+		}
+		String[] args = Arrays.copyOfRange(args0, iArg, args0.length);
+
 		// Timing
 		final long startTime = System.currentTimeMillis();
 
@@ -43,84 +116,310 @@ public class Grinder1
 
 		// Input
 		String filename = args[0];
-		String extraArg1 = args[1];
-		boolean isOffset = extraArg1.equals("-offset");
-		boolean isSense = extraArg1.equals("-sense");
-		String extraArg2 = isOffset || isSense ? args[2] : null;
-		String extraArg3 = isOffset ? args[3] : null;
+		String[] query = Arrays.copyOfRange(args, 1, args.length);
+		boolean isDaemon = query.length > 0 && query[0].equals("-daemon");
+		boolean isBatch = query.length > 0 && query[0].equals("-batch");
+		if (isBatch && query.length < 2 || //
+				query.length > 0 && query[0].equals("-offset") && query.length < 3 || //
+				query.length > 0 && query[0].equals("-sense") && query.length < 2)
+		{
+			throw new IllegalArgumentException("[E] Usage: " + USAGE);
+		}
+
+		// Model and synset offsets, from snapshot if it is up to date
+		Model model;
+		long[] offsets;
+		ModelSnapshot loaded = null;
+		byte[] hash = null;
+		if (snapshot)
+		{
+			hash = ModelSnapshot.hash(new File(filename));
+			loaded = ModelSnapshot.load(new File(filename), hash);
+		}
+		if (loaded != null)
+		{
+			model = loaded.model;
+			offsets = loaded.offsets;
+		}
+		else
+		{
+			model = ModelFactory.makeModel(filename);
+			offsets = null;
+			if (offsetMapIn != null)
+			{
+				OffsetMap map = OffsetMap.open(offsetMapIn);
+				if (map.matches(hash != null ? hash : ModelSnapshot.hash(new File(filename))))
+				{
+					offsets = map.getOffsets(model);
+				}
+				else
+				{
+					System.err.println("Offset map " + offsetMapIn + " is stale");
+				}
+			}
+			if (offsets == null)
+			{
+				offsets = new OffsetFactory(model).compute();
+			}
+			if (snapshot)
+			{
+				new ModelSnapshot(model, offsets).write(new File(filename), hash);
+			}
+		}
+
+		// Heap
+		System.err.println(Memory.heapInfo("after maps", Unit.M));
+
+		// Process
+		Grinder1 grinder1 = new Grinder1(model, offsets);
+		if (isDaemon)
+		{
+			System.err.println("Loaded in " + (System.currentTimeMillis() - startTime) + " ms");
+			if (query.length > 1)
+			{
+				grinder1.serve(Integer.parseInt(query[1]));
+			}
+			else
+			{
+				grinder1.serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)), System.out);
+			}
+			return;
+		}
+		if (isBatch)
+		{
+			List<String> queries = Files.readAllLines(Paths.get(query[1]), StandardCharsets.UTF_8);
+			int n = grinder1.batch(queries, System.out);
+			System.err.println("Queries: " + n + " in " + (System.currentTimeMillis() - startTime) + " ms");
+			return;
+		}
+		grinder1.query(query, System.out);
 
-		// XML document
-		Document doc = XmlUtils.getDocument(filename, false);
+		// Timing
+		final long endTime = System.currentTimeMillis();
+		System.err.println("Total execution time: " + (endTime - startTime) / 1000 + "s");
+	}
 
-		// Maps
-		Map<String, List<Element>> sensesBySynsetId = XmlUtils.makeElementMultiMap(doc, XmlNames.SENSE_TAG, XmlNames.SYNSET_ATTR);
-		Map<String, Element> synsetsById = XmlUtils.makeElementMap(doc, XmlNames.SYNSET_TAG, XmlNames.ID_ATTR);
-		Map<String, Element> sensesById = XmlUtils.makeElementMap(doc, XmlNames.SENSE_TAG, XmlNames.ID_ATTR);
+	/**
+	 * Resolve query to synset
+	 *
+	 * @param query SYNSETID | -sense SENSEID | -offset POS OFFSET | SENSEID | POS OFFSET
+	 * @return synset
+	 * @throws IllegalArgumentException if the query is malformed or the synset is not found
+	 */
+	Model.Synset resolve(String[] query)
+	{
+		if (query.length == 0)
+		{
+			throw new IllegalArgumentException("No query");
+		}
+		boolean isOffset = query[0].equals("-offset");
+		boolean isSense = query[0].equals("-sense");
+		if (isOffset && query.length < 3 || isSense && query.length < 2)
+		{
+			throw new IllegalArgumentException("Malformed query " + String.join(" ", query));
+		}
 
-		// Compute synset offsets
-		Map<String, Long> offsets = new OffsetFactory(doc, sensesBySynsetId, synsetsById, sensesById).compute();
+		// short forms
+		if (!isOffset && !isSense)
+		{
+			if (query.length == 2 && query[0].length() == 1 && "nvasr".indexOf(query[0].charAt(0)) != -1)
+			{
+				return resolve(new String[]{"-offset", query[0], query[1]});
+			}
+			if (model.getSynset(query[0]) == null && model.getSense(query[0]) != null)
+			{
+				return resolve(new String[]{"-sense", query[0]});
+			}
+		}
 
 		// SynsetId, SenseId, w31 offset
 		String synsetId;
 		if (isSense)
 		{
-			Element senseElement = sensesById.get(extraArg2);
-			synsetId = senseElement.getAttribute(XmlNames.SYNSET_ATTR);
+			Sense sense = model.getSense(query[1]);
+			if (sense == null)
+			{
+				throw new IllegalArgumentException("Sense " + query[1] + " not found");
+			}
+			synsetId = model.synsets[sense.synset].id;
 		}
 		else if (isOffset)
 		{
-			char pos = extraArg2.charAt(0);
-			long offset31 = Long.parseLong(extraArg3);
+			char pos = query[1].charAt(0);
+			long offset31 = Long.parseLong(query[2]);
 			synsetId = String.format("oewn-%08d-%c", offset31, pos);
 		}
 		else
 		{
-			synsetId = extraArg1;
+			synsetId = query[0];
 		}
 
-		// Heap
-		System.err.println(Memory.heapInfo("after maps", Unit.M));
+		Model.Synset synset = model.getSynset(synsetId);
+		if (synset == null)
+		{
+			throw new IllegalArgumentException("Synset " + synsetId + " not found");
+		}
+		return synset;
+	}
 
-		// Process
-		Element synsetElement = synsetsById.get(synsetId);
-		long offset = offsets.get(synsetId);
-		data(synsetElement, offset, doc, sensesBySynsetId, synsetsById, sensesById, offsets);
+	/**
+	 * Answer query: data line and its parsed pretty-printed form
+	 *
+	 * @param query SYNSETID | -sense SENSEID | -offset POS OFFSET | SENSEID | POS OFFSET
+	 * @param out   output
+	 * @throws IllegalArgumentException if the query is malformed or the synset is not found
+	 */
+	void query(String[] query, PrintStream out)
+	{
+		Model.Synset synset = resolve(query);
+		data(synset, offsets[synset.ordinal], out);
+	}
 
-		// Timing
-		final long endTime = System.currentTimeMillis();
-		System.err.println("Total execution time: " + (endTime - startTime) / 1000 + "s");
+	/**
+	 * Answer query line
+	 *
+	 * @param line query line
+	 * @return answer, data line and its parsed pretty-printed form or '[E]' line, followed by an empty line
+	 */
+	String answer(String line)
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (PrintStream out = new PrintStream(bos, false, "UTF-8"))
+		{
+			try
+			{
+				query(line.trim().split("\\s+"), out);
+			}
+			catch (RuntimeException e)
+			{
+				out.println("[E] " + e.getMessage());
+			}
+			out.println();
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			throw new IllegalStateException(e);
+		}
+		return new String(bos.toByteArray(), StandardCharsets.UTF_8);
 	}
 
 	/**
 	 * Grind data for this synset
 	 *
-	 * @param synsetElement    synset element
-	 * @param offset           offset
-	 * @param doc              parsed XML W3C document
-	 * @param sensesBySynsetId sense elements mapped by synsetId (whose 'synset' attribute = synsetId)
-	 * @param synsetsById      synset elements mapped by synsetId
-	 * @param sensesById       sense elements mapped by synsetId
-	 * @param offsets          offsets mapped by synsetId
+	 * @param synset synset
+	 * @param offset offset
+	 * @param out    output
 	 */
-	public static void data(Element synsetElement, long offset, Document doc, //
-			Map<String, List<Element>> sensesBySynsetId, //
-			Map<String, Element> synsetsById, //
-			Map<String, Element> sensesById, //
-			Map<String, Long> offsets //
-	)
+	private void data(Model.Synset synset, long offset, PrintStream out)
 	{
-		// Data
-		DataGrinder factory = new DataGrinder(doc, sensesBySynsetId, synsetsById, sensesById, offsets);
-		String line = factory.getData(synsetElement, offset);
-		System.out.println(line);
+		String line = grinder.getData(synset, offset);
+		out.println(line);
 		try
 		{
 			Synset s = DataParser1.parseSynset(line, false);
-			System.out.println(s.toPrettyString());
+			out.println(s.toPrettyString());
 		}
 		catch (ParsePojoException e)
 		{
 			e.printStackTrace();
 		}
 	}
+
+	/**
+	 * Grind data for this synset
+	 *
+	 * @param synset  synset
+	 * @param offset  offset
+	 * @param model   model
+	 * @param offsets offsets indexed by synset ordinal
+	 */
+	public static void data(Model.Synset synset, long offset, Model model, long[] offsets)
+	{
+		new Grinder1(model, offsets).data(synset, offset, System.out);
+	}
+
+	// D A E M O N
+
+	/**
+	 * Answer queries, one per line, until end of input or 'quit'. Each answer is followed by an empty line and flushed.
+	 *
+	 * @param in  query input
+	 * @param out answer output
+	 * @throws IOException io
+	 */
+	void serve(BufferedReader in, PrintStream out) throws IOException
+	{
+		String line;
+		while ((line = in.readLine()) != null)
+		{
+			line = line.trim();
+			if (line.isEmpty())
+			{
+				continue;
+			}
+			if (line.equals("quit"))
+			{
+				break;
+			}
+			long start = System.nanoTime();
+			out.print(answer(line));
+			out.flush();
+			System.err.printf("%s: %.3f ms%n", line, (System.nanoTime() - start) / 1_000_000.);
+		}
+	}
+
+	/**
+	 * Answer queries in parallel across cores, answers being output in query order. Blank lines and lines starting with '#' are skipped.
+	 *
+	 * @param queries query lines
+	 * @param out     answer output
+	 * @return number of answered queries
+	 */
+	int batch(List<String> queries, PrintStream out)
+	{
+		String[] lines = queries.stream().map(String::trim).filter(q -> !q.isEmpty() && !q.startsWith("#")).toArray(String[]::new);
+		String[] answers = new String[lines.length];
+		Parallel.forEachIndex(lines.length, i -> answers[i] = answer(lines[i]));
+		for (String answer : answers)
+		{
+			out.print(answer);
+		}
+		out.flush();
+		return answers.length;
+	}
+
+	/**
+	 * Answer queries from clients of a local socket, each client on its own thread
+	 *
+	 * @param port port on the loopback address
+	 * @throws IOException io
+	 */
+	void serve(int port) throws IOException
+	{
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress()))
+		{
+			System.err.println("Listening on " + server.getLocalSocketAddress());
+			while (!Thread.currentThread().isInterrupted())
+			{
+				Socket socket = server.accept();
+				executor.execute(() -> {
+					try (Socket s = socket; //
+					     BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8)); //
+					     PrintStream out = new PrintStream(new BufferedOutputStream(s.getOutputStream()), false, "UTF-8"))
+					{
+						serve(in, out);
+					}
+					catch (IOException e)
+					{
+						System.err.println("[E] client " + e.getMessage());
+					}
+				});
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
 }
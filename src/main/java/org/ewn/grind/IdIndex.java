@@ -0,0 +1,101 @@
+package org.ewn.grind;
+
+/**
+ * Open-addressing table that maps ids to the dense int ordinals they were given at load time. It is used to resolve id references once, so that lookups
+ * further down the line are plain array indexing.
+ *
+ * @author Bernard Bou
+ */
+class IdIndex
+{
+	/**
+	 * Keys, null when slot is free
+	 */
+	private final String[] keys;
+
+	/**
+	 * Ordinals, in the slot of their key
+	 */
+	private final int[] values;
+
+	/**
+	 * Slot mask (capacity - 1)
+	 */
+	private final int mask;
+
+	/**
+	 * Number of distinct ids
+	 */
+	private int size;
+
+	/**
+	 * Constructor
+	 *
+	 * @param ids ids, whose ordinal is their position in the array (if an id occurs more than once, the last position wins)
+	 */
+	IdIndex(String[] ids)
+	{
+		int capacity = Integer.highestOneBit(Math.max(2, ids.length) * 2 - 1) << 1;
+		this.keys = new String[capacity];
+		this.values = new int[capacity];
+		this.mask = capacity - 1;
+		for (int i = 0; i < ids.length; i++)
+		{
+			put(ids[i], i);
+		}
+	}
+
+	private void put(String id, int ordinal)
+	{
+		int slot = slot(id);
+		while (keys[slot] != null)
+		{
+			if (keys[slot].equals(id))
+			{
+				values[slot] = ordinal;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = id;
+		values[slot] = ordinal;
+		size++;
+	}
+
+	/**
+	 * Get ordinal
+	 *
+	 * @param id id
+	 * @return ordinal of id, -1 if id is unknown
+	 */
+	int get(String id)
+	{
+		int slot = slot(id);
+		String key;
+		while ((key = keys[slot]) != null)
+		{
+			if (key.equals(id))
+			{
+				return values[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Number of distinct ids
+	 *
+	 * @return number of distinct ids
+	 */
+	int size()
+	{
+		return size;
+	}
+
+	private int slot(String id)
+	{
+		int h = id.hashCode() * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+}
@@ -0,0 +1,257 @@
+package org.ewn.grind;
+
+import org.ewn.grind.Model.Sense;
+import org.ewn.grind.Model.SenseRelation;
+import org.ewn.grind.Model.Synset;
+import org.ewn.grind.Model.SynsetRelation;
+import org.ewn.grind.SynsetProcessor.XMLRelation;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * This class computes the byte length of a synset's line in the data files without rendering it. Offsets, word numbers and frame fields have a fixed
+ * width and counts have a width that follows from their value, so the length only depends on counts, pointer symbols and the UTF-8 lengths of lemmas,
+ * adjective positions, definitions and examples. It must be kept in line with what SynsetProcessor.getData() renders. It holds no state and may be used
+ * from several threads.
+ *
+ * @author Bernard Bou
+ */
+class LineSizer
+{
+	/**
+	 * %08d offset
+	 */
+	private static final int OFFSET_WIDTH = 8;
+
+	/**
+	 * %02d lexfile num
+	 */
+	private static final int LEXFILENUM_WIDTH = 2;
+
+	/**
+	 * ' ' ptr_symbol ' ' %08d ' ' %c ' ' %02x%02x, less the pointer symbol
+	 */
+	private static final int RELATION_WIDTH = 1 + 1 + OFFSET_WIDTH + 1 + 1 + 1 + 4;
+
+	/**
+	 * ' ' + ' ' %02d ' ' %02x
+	 */
+	private static final int FRAME_WIDTH = 1 + 1 + 1 + 2 + 1 + 2;
+
+	/**
+	 * Model
+	 */
+	private final Model model;
+
+	/**
+	 * Constructor
+	 *
+	 * @param model model
+	 */
+	LineSizer(Model model)
+	{
+		this.model = model;
+	}
+
+	/**
+	 * Compute the byte length the synset's data line will have
+	 *
+	 * @param synset synset
+	 * @return line length in bytes
+	 */
+	long getDataLength(Synset synset)
+	{
+		char pos = synset.pos;
+		int[] senses = synset.senses;
+		assert senses.length > 0;
+
+		// members (Members is a set ordered by (order, escaped lemma): the first member wins)
+		int[] orders = new int[senses.length];
+		Sense[] memberSenses = new Sense[senses.length];
+		int memberCount = 0;
+		long membersLength = 0;
+		for (int senseOrdinal : senses)
+		{
+			Sense sense = model.senses[senseOrdinal];
+			int order = XmlExtractor.getOrder(sense);
+			if (isMember(order, sense.entry.lemma, orders, memberSenses, memberCount))
+			{
+				continue;
+			}
+			orders[memberCount] = order;
+			memberSenses[memberCount] = sense;
+			memberCount++;
+
+			int lexid = XmlExtractor.getLexid(sense);
+			if (Flags.LEXID_COMPAT)
+			{
+				lexid %= 16;
+			}
+			String adjPosition = XmlExtractor.getAdjPosition(sense);
+			membersLength += 1 + Formatter.utf8Length(sense.entry.lemma) + (adjPosition.isEmpty() ? 0 : 2 + Formatter.utf8Length(adjPosition)) + 1 + Formatter.hexWidth(lexid, 1);
+		}
+		membersLength += Formatter.hexWidth(memberCount, 2);
+
+		// synset relations
+		int relationCount = 0;
+		long relationsLength = 0;
+		Set<XMLRelation> relationSet = new HashSet<>();
+		for (SynsetRelation semRelation : synset.relations)
+		{
+			if (!relationSet.add(new XMLRelation(false, semRelation.relType, semRelation.target)))
+			{
+				continue;
+			}
+			String ptrSymbol;
+			try
+			{
+				ptrSymbol = Coder.codeRelation(semRelation.relType, pos);
+			}
+			catch (CompatException e)
+			{
+				continue;
+			}
+			relationCount++;
+			relationsLength += RELATION_WIDTH + ptrSymbol.length();
+		}
+
+		// senses
+		int[] frameNums = new int[0];
+		int frameCount = 0;
+		for (int senseOrdinal : senses)
+		{
+			Sense sense = model.senses[senseOrdinal];
+
+			// verb frames attribute
+			String vframes = XmlExtractor.getVerbFrames(sense);
+			if (!vframes.isEmpty())
+			{
+				for (String vframeId : vframes.split("\\s+"))
+				{
+					try
+					{
+						int frameNum = Coder.codeFrameId(vframeId);
+						if (frameCount == frameNums.length)
+						{
+							frameNums = Arrays.copyOf(frameNums, Math.max(4, 2 * frameCount));
+						}
+						frameNums[frameCount++] = frameNum;
+					}
+					catch (CompatException e)
+					{
+						// not output
+					}
+				}
+			}
+
+			// sense relations
+			relationSet.clear();
+			for (SenseRelation lexRelation : sense.relations)
+			{
+				if (!relationSet.add(new XMLRelation(true, lexRelation.relType, lexRelation.target)))
+				{
+					continue;
+				}
+				String ptrSymbol;
+				try
+				{
+					ptrSymbol = Coder.codeRelation(lexRelation.relType, pos);
+				}
+				catch (CompatException e)
+				{
+					continue;
+				}
+				catch (IllegalArgumentException e)
+				{
+					String cause = e.getClass().getName() + ' ' + e.getMessage();
+					System.err.printf("Illegal relation %s id=%s offset=%d%n", cause, synset.id, 0);
+					continue;
+				}
+				relationCount++;
+				relationsLength += RELATION_WIDTH + ptrSymbol.length();
+			}
+		}
+		relationsLength += Formatter.decimalWidth(relationCount, 3);
+
+		// verb frames, a frame that applies to all members is output once
+		long framesLength = 0;
+		if (pos == 'v')
+		{
+			int outputFrameCount = 0;
+			for (int i = 0; i < frameCount; i++)
+			{
+				int frameNum = frameNums[i];
+				if (indexOf(frameNum, frameNums, i) != -1)
+				{
+					continue;
+				}
+				int withFrameNum = 1;
+				for (int j = i + 1; j < frameCount; j++)
+				{
+					if (frameNums[j] == frameNum)
+					{
+						withFrameNum++;
+					}
+				}
+				outputFrameCount += withFrameNum == memberCount ? 1 : withFrameNum;
+			}
+			framesLength = 1 + (outputFrameCount == 0 ? 2 : Formatter.decimalWidth(outputFrameCount, 2) + (long) FRAME_WIDTH * outputFrameCount);
+		}
+
+		// definitions, joined with "; "
+		String[] definitions = synset.definitions;
+		assert definitions.length > 0;
+		long definitionsLength = 2L * (definitions.length - 1);
+		for (String definition : definitions)
+		{
+			definitionsLength += Formatter.utf8Length(definition);
+		}
+
+		// examples, quoted, joined with ' ' and prefixed with "; "
+		String[] examples = synset.examples;
+		long examplesLength = 0;
+		if (examples.length > 0)
+		{
+			examplesLength = 2 + examples.length - 1;
+			for (String example : examples)
+			{
+				examplesLength += Formatter.utf8Length(example) + (Formatter.isQuoted(example) ? 0 : 2);
+			}
+		}
+
+		// "%08d %02d %c %s %s%s | %s%s  \n"
+		return OFFSET_WIDTH + 1 + LEXFILENUM_WIDTH + 1 + 1 + 1 + membersLength + 1 + relationsLength + framesLength + 3 + definitionsLength + examplesLength + 3;
+	}
+
+	/**
+	 * Whether a member with the same order and escaped lemma has been collected
+	 */
+	private static boolean isMember(int order, String lemma, int[] orders, Sense[] memberSenses, int memberCount)
+	{
+		for (int i = 0; i < memberCount; i++)
+		{
+			if (orders[i] == order && Formatter.escape(memberSenses[i].entry.lemma).equals(Formatter.escape(lemma)))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Index of value in the first n elements of array, -1 if absent
+	 */
+	private static int indexOf(int value, int[] array, int n)
+	{
+		for (int i = 0; i < n; i++)
+		{
+			if (array[i] == value)
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,399 @@
+package org.ewn.grind;
+
+import java.util.*;
+
+/**
+ * Compact in-memory model of the merged XML file. It holds only what the grinders use: no whitespace text nodes, no generic attribute maps.
+ * Lexical entries, senses and synsets are given dense ordinals (their index in the model's arrays) at load time and references between them are resolved to
+ * these ordinals.
+ *
+ * @author Bernard Bou
+ * @see ModelFactory
+ */
+public class Model
+{
+	/**
+	 * Lexical entry
+	 */
+	static class LexicalEntry
+	{
+		final int ordinal;
+
+		final String id;
+
+		/**
+		 * Lemma written form
+		 */
+		String lemma;
+
+		/**
+		 * Lemma part of speech
+		 */
+		char pos;
+
+		/**
+		 * Form written forms
+		 */
+		String[] forms;
+
+		/**
+		 * Senses in document order
+		 */
+		Sense[] senses;
+
+		LexicalEntry(int ordinal, String id)
+		{
+			this.ordinal = ordinal;
+			this.id = id;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "LexicalEntry " + id;
+		}
+	}
+
+	/**
+	 * Sense
+	 */
+	static class Sense
+	{
+		final int ordinal;
+
+		final String id;
+
+		/**
+		 * Parent lexical entry
+		 */
+		final LexicalEntry entry;
+
+		/**
+		 * Ordinal of synset in 'synset' attribute
+		 */
+		int synset;
+
+		/**
+		 * Position of parent lexical entry in the 'members' attribute of synset, -1 if absent
+		 */
+		int order = -1;
+
+		/**
+		 * Sensekey decoded from id, on first use
+		 */
+		Sensekey key;
+
+		/**
+		 * Value of 'n' attribute, -1 if absent
+		 */
+		final int n;
+
+		/**
+		 * Value of 'adjposition' attribute, empty if absent
+		 */
+		final String adjPosition;
+
+		/**
+		 * Value of 'subcat' attribute, empty if absent
+		 */
+		final String verbFrames;
+
+		/**
+		 * Sense relations in document order
+		 */
+		final SenseRelation[] relations;
+
+		Sense(int ordinal, String id, LexicalEntry entry, int n, String adjPosition, String verbFrames, SenseRelation[] relations)
+		{
+			this.ordinal = ordinal;
+			this.id = id;
+			this.entry = entry;
+			this.n = n;
+			this.adjPosition = adjPosition;
+			this.verbFrames = verbFrames;
+			this.relations = relations;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "Sense " + id;
+		}
+	}
+
+	/**
+	 * Synset
+	 */
+	static class Synset
+	{
+		final int ordinal;
+
+		final String id;
+
+		final char pos;
+
+		/**
+		 * Value of 'members' attribute
+		 */
+		final String members;
+
+		/**
+		 * Value of 'dc:subject' attribute, empty if absent
+		 */
+		final String lexfile;
+
+		/**
+		 * Definition texts in document order
+		 */
+		final String[] definitions;
+
+		/**
+		 * Example texts in document order
+		 */
+		final String[] examples;
+
+		/**
+		 * Synset relations in document order
+		 */
+		final SynsetRelation[] relations;
+
+		/**
+		 * Ordinals of senses whose 'synset' attribute refers to this synset, in document order
+		 */
+		int[] senses;
+
+		Synset(int ordinal, String id, char pos, String members, String lexfile, String[] definitions, String[] examples, SynsetRelation[] relations)
+		{
+			this.ordinal = ordinal;
+			this.id = id;
+			this.pos = pos;
+			this.members = members;
+			this.lexfile = lexfile;
+			this.definitions = definitions;
+			this.examples = examples;
+			this.relations = relations;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "Synset " + id;
+		}
+	}
+
+	/**
+	 * Sense relation
+	 */
+	static class SenseRelation
+	{
+		final RelationType relType;
+
+		/**
+		 * Target sense ordinal
+		 */
+		int target;
+
+		SenseRelation(RelationType relType)
+		{
+			this.relType = relType;
+		}
+	}
+
+	/**
+	 * Synset relation
+	 */
+	static class SynsetRelation
+	{
+		final RelationType relType;
+
+		/**
+		 * Target synset ordinal
+		 */
+		int target;
+
+		SynsetRelation(RelationType relType)
+		{
+			this.relType = relType;
+		}
+	}
+
+	/**
+	 * Lexical entries in document order, indexed by ordinal
+	 */
+	final LexicalEntry[] lexicalEntries;
+
+	/**
+	 * Senses in document order, indexed by ordinal
+	 */
+	final Sense[] senses;
+
+	/**
+	 * Synsets in document order, indexed by ordinal
+	 */
+	final Synset[] synsets;
+
+	/**
+	 * Lexical entry ordinals by id
+	 */
+	final IdIndex lexicalEntryIndex;
+
+	/**
+	 * Sense ordinals by id
+	 */
+	final IdIndex senseIndex;
+
+	/**
+	 * Synset ordinals by id
+	 */
+	final IdIndex synsetIndex;
+
+	/**
+	 * Synsets partitioned by part of speech (indexed as in Parallel.POSES), in document order
+	 */
+	private final List<List<Synset>> synsetsByPos;
+
+	/**
+	 * Lexical entries partitioned by part of speech (indexed as in Parallel.POSES), in document order
+	 */
+	private final List<List<LexicalEntry>> lexicalEntriesByPos;
+
+	Model(LexicalEntry[] lexicalEntries, Sense[] senses, Synset[] synsets, IdIndex lexicalEntryIndex, IdIndex senseIndex, IdIndex synsetIndex)
+	{
+		this.lexicalEntries = lexicalEntries;
+		this.senses = senses;
+		this.synsets = synsets;
+		this.lexicalEntryIndex = lexicalEntryIndex;
+		this.senseIndex = senseIndex;
+		this.synsetIndex = synsetIndex;
+
+		// partition by part of speech, in one pass
+		List<List<Synset>> synsetsByPos = new ArrayList<>();
+		List<List<LexicalEntry>> lexicalEntriesByPos = new ArrayList<>();
+		for (int p = 0; p < Parallel.POSES.length(); p++)
+		{
+			synsetsByPos.add(new ArrayList<>());
+			lexicalEntriesByPos.add(new ArrayList<>());
+		}
+		for (Synset synset : synsets)
+		{
+			int p = posIndex(synset.pos);
+			if (p != -1)
+			{
+				synsetsByPos.get(p).add(synset);
+			}
+		}
+		for (LexicalEntry lexicalEntry : lexicalEntries)
+		{
+			int p = posIndex(lexicalEntry.pos);
+			if (p != -1)
+			{
+				lexicalEntriesByPos.get(p).add(lexicalEntry);
+			}
+		}
+		this.synsetsByPos = unmodifiable(synsetsByPos);
+		this.lexicalEntriesByPos = unmodifiable(lexicalEntriesByPos);
+	}
+
+	private static <T> List<List<T>> unmodifiable(List<List<T>> partitions)
+	{
+		List<List<T>> result = new ArrayList<>();
+		for (List<T> partition : partitions)
+		{
+			result.add(Collections.unmodifiableList(partition));
+		}
+		return result;
+	}
+
+	/**
+	 * Index of part of speech in Parallel.POSES, 's' going with 'a'
+	 *
+	 * @param pos part of speech
+	 * @return index, -1 if pos is not a part of speech of the data and index files
+	 */
+	static int posIndex(char pos)
+	{
+		return Parallel.POSES.indexOf(pos == 's' ? 'a' : pos);
+	}
+
+	/**
+	 * Whether part of speech is selected by selector ('a' selects both 'a' and 's')
+	 *
+	 * @param pos      part of speech
+	 * @param selector selector part of speech (n|v|a|r)
+	 * @return whether part of speech is selected by selector
+	 */
+	static boolean isSelected(char pos, char selector)
+	{
+		return pos == selector || selector == 'a' && pos == 's';
+	}
+
+	/**
+	 * Get synsets having given part of speech
+	 *
+	 * @param pos part of speech (n|v|a|r), 'a' selects both 'a' and 's'
+	 * @return synsets in document order, unmodifiable
+	 */
+	List<Synset> getSynsets(char pos)
+	{
+		if (pos != 's' && posIndex(pos) != -1)
+		{
+			return synsetsByPos.get(posIndex(pos));
+		}
+		List<Synset> result = new ArrayList<>();
+		for (Synset synset : synsets)
+		{
+			if (isSelected(synset.pos, pos))
+			{
+				result.add(synset);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Get lexical entries having a lemma with given part of speech
+	 *
+	 * @param pos part of speech (n|v|a|r), 'a' selects both 'a' and 's'
+	 * @return lexical entries in document order, unmodifiable
+	 */
+	List<LexicalEntry> getLexicalEntries(char pos)
+	{
+		if (pos != 's' && posIndex(pos) != -1)
+		{
+			return lexicalEntriesByPos.get(posIndex(pos));
+		}
+		List<LexicalEntry> result = new ArrayList<>();
+		for (LexicalEntry lexicalEntry : lexicalEntries)
+		{
+			if (isSelected(lexicalEntry.pos, pos))
+			{
+				result.add(lexicalEntry);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Get synset from id
+	 *
+	 * @param id synset id
+	 * @return synset, null if not found
+	 */
+	Synset getSynset(String id)
+	{
+		int ordinal = synsetIndex.get(id);
+		return ordinal == -1 ? null : synsets[ordinal];
+	}
+
+	/**
+	 * Get sense from id
+	 *
+	 * @param id sense id
+	 * @return sense, null if not found
+	 */
+	Sense getSense(String id)
+	{
+		int ordinal = senseIndex.get(id);
+		return ordinal == -1 ? null : senses[ordinal];
+	}
+}
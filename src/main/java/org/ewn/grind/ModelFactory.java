@@ -0,0 +1,359 @@
+package org.ewn.grind;
+
+import org.ewn.grind.Model.*;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * This class builds the model from the merged XML file. It streams the file once with a StAX reader and keeps only what the grinders use, so that no W3C
+ * document is built. Id references are then resolved to ordinals once and for all.
+ *
+ * @author Bernard Bou
+ */
+public class ModelFactory
+{
+	private ModelFactory()
+	{
+	}
+
+	/**
+	 * Make model from file
+	 *
+	 * @param filePath file path
+	 * @return model
+	 * @throws IOException        io
+	 * @throws XMLStreamException xml stream
+	 */
+	public static Model makeModel(String filePath) throws IOException, XMLStreamException
+	{
+		try (InputStream is = new BufferedInputStream(new FileInputStream(filePath), 1 << 16))
+		{
+			XMLStreamReader reader = XmlUtils.getReader(is);
+			try
+			{
+				Model model = parse(reader);
+				System.err.println("Model " + filePath + " " + model.lexicalEntries.length + " lexentries " + model.senses.length + " senses " + model.synsets.length + " synsets");
+				return model;
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 * Parse stream
+	 *
+	 * @param reader StAX reader
+	 * @return model
+	 * @throws XMLStreamException xml stream
+	 */
+	private static Model parse(XMLStreamReader reader) throws XMLStreamException
+	{
+		List<LexicalEntry> lexicalEntries = new ArrayList<>();
+		List<Sense> senses = new ArrayList<>();
+		List<Synset> synsets = new ArrayList<>();
+
+		// unresolved references, in document order
+		List<String> senseSynsetIds = new ArrayList<>();
+		List<String> senseRelationTargets = new ArrayList<>();
+		List<String> synsetRelationTargets = new ArrayList<>();
+
+		// lexical entry state
+		LexicalEntry lexicalEntry = null;
+		int lemmaCount = 0;
+		List<String> forms = new ArrayList<>();
+		List<Sense> entrySenses = new ArrayList<>();
+
+		// sense state
+		String senseId = null;
+		int senseN = -1;
+		String senseAdjPosition = null;
+		String senseVerbFrames = null;
+		List<SenseRelation> senseRelations = new ArrayList<>();
+
+		// synset state
+		String synsetId = null;
+		char synsetPos = 0;
+		String synsetMembers = null;
+		String synsetLexfile = null;
+		List<String> definitions = new ArrayList<>();
+		List<String> examples = new ArrayList<>();
+		List<SynsetRelation> synsetRelations = new ArrayList<>();
+
+		// relations of unknown types, by type, which are dropped
+		Map<String, Integer> unknownRelationTypes = new TreeMap<>();
+
+		while (reader.hasNext())
+		{
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+			{
+				switch (reader.getLocalName())
+				{
+				case XmlNames.LEXICALENTRY_TAG:
+					lexicalEntry = new LexicalEntry(lexicalEntries.size(), XmlUtils.getAttribute(reader, XmlNames.ID_ATTR));
+					lemmaCount = 0;
+					forms.clear();
+					entrySenses.clear();
+					break;
+
+				case XmlNames.LEMMA_TAG:
+					assert lexicalEntry != null;
+					lexicalEntry.lemma = XmlUtils.getAttribute(reader, XmlNames.WRITTENFORM_ATTR);
+					lexicalEntry.pos = XmlUtils.getAttribute(reader, XmlNames.POS_ATTR).charAt(0);
+					lemmaCount++;
+					break;
+
+				case XmlNames.FORM_TAG:
+					forms.add(XmlUtils.getAttribute(reader, XmlNames.WRITTENFORM_ATTR));
+					break;
+
+				case XmlNames.SENSE_TAG:
+					senseId = XmlUtils.getAttribute(reader, XmlNames.ID_ATTR);
+					senseSynsetIds.add(XmlUtils.getAttribute(reader, XmlNames.SYNSET_ATTR));
+					String nAttr = XmlUtils.getAttribute(reader, XmlNames.N_ATTR);
+					senseN = nAttr.isEmpty() ? -1 : Integer.parseInt(nAttr);
+					senseAdjPosition = XmlUtils.getAttribute(reader, XmlNames.ADJPOSITION_ATTR);
+					senseVerbFrames = XmlUtils.getAttribute(reader, XmlNames.VERBFRAMES_ATTR);
+					senseRelations.clear();
+					break;
+
+				case XmlNames.SENSERELATION_TAG:
+					RelationType senseRelationType = decodeRelationType(reader, unknownRelationTypes);
+					if (senseRelationType != null)
+					{
+						senseRelations.add(new SenseRelation(senseRelationType));
+						senseRelationTargets.add(XmlUtils.getAttribute(reader, XmlNames.TARGET_ATTR));
+					}
+					break;
+
+				case XmlNames.SYNSET_TAG:
+					synsetId = XmlUtils.getAttribute(reader, XmlNames.ID_ATTR);
+					synsetPos = XmlUtils.getAttribute(reader, XmlNames.POS_ATTR).charAt(0);
+					synsetMembers = XmlUtils.getAttribute(reader, XmlNames.MEMBERS_ATTR);
+					synsetLexfile = XmlUtils.getAttributeNS(reader, XmlNames.NS_DC, XmlNames.LEXFILE_ATTR);
+					definitions.clear();
+					examples.clear();
+					synsetRelations.clear();
+					break;
+
+				case XmlNames.DEFINITION_TAG:
+					definitions.add(XmlUtils.getTextContent(reader));
+					break;
+
+				case XmlNames.EXAMPLE_TAG:
+					examples.add(XmlUtils.getTextContent(reader));
+					break;
+
+				case XmlNames.SYNSETRELATION_TAG:
+					RelationType synsetRelationType = decodeRelationType(reader, unknownRelationTypes);
+					if (synsetRelationType != null)
+					{
+						synsetRelations.add(new SynsetRelation(synsetRelationType));
+						synsetRelationTargets.add(XmlUtils.getAttribute(reader, XmlNames.TARGET_ATTR));
+					}
+					break;
+
+				default:
+					break;
+				}
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT)
+			{
+				switch (reader.getLocalName())
+				{
+				case XmlNames.SENSE_TAG:
+					Sense sense = new Sense(senses.size(), senseId, lexicalEntry, senseN, senseAdjPosition, senseVerbFrames, senseRelations.toArray(new SenseRelation[0]));
+					entrySenses.add(sense);
+					senses.add(sense);
+					break;
+
+				case XmlNames.LEXICALENTRY_TAG:
+					assert lexicalEntry != null;
+					if (lemmaCount != 1)
+					{
+						throw new IllegalArgumentException("Element " + lexicalEntry.id + " has not a unique child with tag " + XmlNames.LEMMA_TAG + " count=" + lemmaCount);
+					}
+					lexicalEntry.forms = forms.toArray(new String[0]);
+					lexicalEntry.senses = entrySenses.toArray(new Sense[0]);
+					lexicalEntries.add(lexicalEntry);
+					lexicalEntry = null;
+					break;
+
+				case XmlNames.SYNSET_TAG:
+					synsets.add(new Synset(synsets.size(), synsetId, synsetPos, synsetMembers, synsetLexfile, //
+							definitions.toArray(new String[0]), //
+							examples.toArray(new String[0]), //
+							synsetRelations.toArray(new SynsetRelation[0])));
+					break;
+
+				default:
+					break;
+				}
+			}
+		}
+		for (Map.Entry<String, Integer> entry : unknownRelationTypes.entrySet())
+		{
+			System.err.printf("[E] Unknown relation type '%s': %d relations ignored%n", entry.getKey(), entry.getValue());
+		}
+
+		Model model = new Model( //
+				lexicalEntries.toArray(new LexicalEntry[0]), //
+				senses.toArray(new Sense[0]), //
+				synsets.toArray(new Synset[0]), //
+				new IdIndex(lexicalEntries.stream().map(e -> e.id).toArray(String[]::new)), //
+				new IdIndex(senses.stream().map(s -> s.id).toArray(String[]::new)), //
+				new IdIndex(synsets.stream().map(s -> s.id).toArray(String[]::new)));
+		resolve(model, senseSynsetIds, senseRelationTargets, synsetRelationTargets);
+		return model;
+	}
+
+	/**
+	 * Decode relation type of current relation element
+	 *
+	 * @param reader       StAX reader, at relation element
+	 * @param unknownTypes counts of relations of unknown types, by type, incremented if the type is unknown
+	 * @return relation type, null if unknown
+	 */
+	private static RelationType decodeRelationType(XMLStreamReader reader, Map<String, Integer> unknownTypes)
+	{
+		String name = XmlUtils.getAttribute(reader, XmlNames.RELTYPE_ATTR);
+		RelationType type = RelationType.decode(name);
+		if (type == null)
+		{
+			unknownTypes.merge(name, 1, Integer::sum);
+		}
+		return type;
+	}
+
+	/**
+	 * Resolve id references to ordinals
+	 *
+	 * @param model                 model
+	 * @param senseSynsetIds        values of sense 'synset' attributes, in document order
+	 * @param senseRelationTargets  sense relation targets, in document order
+	 * @param synsetRelationTargets synset relation targets, in document order
+	 */
+	private static void resolve(Model model, List<String> senseSynsetIds, List<String> senseRelationTargets, List<String> synsetRelationTargets)
+	{
+		// senses
+		int[] senseCounts = new int[model.synsets.length];
+		int r = 0;
+		for (Sense sense : model.senses)
+		{
+			sense.synset = resolve(model.synsetIndex, senseSynsetIds.get(sense.ordinal), sense);
+			senseCounts[sense.synset]++;
+			for (SenseRelation relation : sense.relations)
+			{
+				relation.target = resolve(model.senseIndex, senseRelationTargets.get(r++), sense);
+			}
+		}
+
+		// synsets
+		r = 0;
+		for (Synset synset : model.synsets)
+		{
+			synset.senses = new int[senseCounts[synset.ordinal]];
+			for (SynsetRelation relation : synset.relations)
+			{
+				relation.target = resolve(model.synsetIndex, synsetRelationTargets.get(r++), synset);
+			}
+		}
+
+		// senses by synset, in document order
+		int[] fill = new int[model.synsets.length];
+		for (Sense sense : model.senses)
+		{
+			model.synsets[sense.synset].senses[fill[sense.synset]++] = sense.ordinal;
+		}
+
+		// member order of senses, the 'members' attribute of each synset being parsed once
+		for (Synset synset : model.synsets)
+		{
+			String[] memberIds = splitMembers(synset.members);
+			for (int senseOrdinal : synset.senses)
+			{
+				Sense sense = model.senses[senseOrdinal];
+				sense.order = indexOf(memberIds, sense.entry.id);
+			}
+		}
+	}
+
+	/**
+	 * Split 'members' attribute on whitespace, as split("\\s+") does (leading whitespace yields an empty first id)
+	 *
+	 * @param members value of 'members' attribute
+	 * @return member lexical entry ids
+	 */
+	private static String[] splitMembers(String members)
+	{
+		List<String> ids = new ArrayList<>();
+		int n = members.length();
+		int start = 0;
+		int i = 0;
+		while (i < n)
+		{
+			if (isWhitespace(members.charAt(i)))
+			{
+				ids.add(members.substring(start, i));
+				while (i < n && isWhitespace(members.charAt(i)))
+				{
+					i++;
+				}
+				start = i;
+			}
+			else
+			{
+				i++;
+			}
+		}
+		if (start < n)
+		{
+			ids.add(members.substring(start, n));
+		}
+		return ids.toArray(new String[0]);
+	}
+
+	/**
+	 * Whether character is whitespace as regex \\s matches it
+	 */
+	private static boolean isWhitespace(char c)
+	{
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	private static int indexOf(String[] ids, String id)
+	{
+		for (int i = 0; i < ids.length; i++)
+		{
+			if (ids[i].equals(id))
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int resolve(IdIndex index, String id, Object referrer)
+	{
+		int ordinal = index.get(id);
+		if (ordinal == -1)
+		{
+			throw new IllegalArgumentException("Dangling reference to " + id + " in " + referrer);
+		}
+		return ordinal;
+	}
+}
@@ -0,0 +1,397 @@
+package org.ewn.grind;
+
+import org.ewn.grind.Model.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Binary snapshot of the model and of the synset offsets computed from it, so that repeated grinds of the same merged XML file skip XML parsing and offset
+ * computation. The snapshot is written next to the input file, one per combination of compat flags since offsets depend on them. It is keyed by the
+ * SHA-256 hash of the input's content and by the flags, and is ignored when either differs.
+ * <p>
+ * Layout (big-endian): magic, version, input hash, flags, string table (count, end positions, UTF-8 bytes), lexical entries, senses, synsets, each
+ * string being referred to by its index in the table (-1 for null) and each relation type by its ordinal, then offsets indexed by synset ordinal.
+ * Senses of a lexical entry are consecutive in document order, so entries only hold their sense count. It is read through a memory-mapped buffer.
+ *
+ * @author Bernard Bou
+ */
+class ModelSnapshot
+{
+	private static final long MAGIC = 0x4F45574E534E4150L; // OEWNSNAP
+
+	private static final int VERSION = 2;
+
+	private static final int HASH_LENGTH = 32;
+
+	/**
+	 * Model
+	 */
+	final Model model;
+
+	/**
+	 * Offsets indexed by synset ordinal
+	 */
+	final long[] offsets;
+
+	/**
+	 * Constructor
+	 *
+	 * @param model   model
+	 * @param offsets offsets indexed by synset ordinal
+	 */
+	ModelSnapshot(Model model, long[] offsets)
+	{
+		this.model = model;
+		this.offsets = offsets;
+	}
+
+	// K E Y
+
+	/**
+	 * Current compat flags, as bits
+	 *
+	 * @return flags
+	 */
+	static int flags()
+	{
+		return (Flags.POINTER_COMPAT ? 1 : 0) | (Flags.LEXID_COMPAT ? 2 : 0) | (Flags.VERBFRAME_COMPAT ? 4 : 0);
+	}
+
+	/**
+	 * Snapshot file of input for current flags
+	 *
+	 * @param input merged XML file
+	 * @return snapshot file, next to the input file
+	 */
+	static File file(File input)
+	{
+		return new File(input.getPath() + ".flags" + flags() + ".snapshot");
+	}
+
+	/**
+	 * SHA-256 hash of file content
+	 *
+	 * @param file file
+	 * @return hash
+	 * @throws IOException io
+	 */
+	static byte[] hash(File file) throws IOException
+	{
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath()))
+		{
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+			while (channel.read(buffer) != -1)
+			{
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}
+		return digest.digest();
+	}
+
+	// L O A D
+
+	/**
+	 * Load snapshot of input for current flags
+	 *
+	 * @param input merged XML file
+	 * @param hash  hash of input content
+	 * @return snapshot, null if there is none or if it is stale (input content, flags or version differ)
+	 * @throws IOException io
+	 */
+	static ModelSnapshot load(File input, byte[] hash) throws IOException
+	{
+		File file = file(input);
+		if (!file.exists())
+		{
+			return null;
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath()))
+		{
+			if (channel.size() > Integer.MAX_VALUE)
+			{
+				System.err.println("Snapshot " + file + " is too large to be mapped");
+				return null;
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			// header
+			if (buffer.remaining() < 8 + 4 + HASH_LENGTH + 4 || buffer.getLong() != MAGIC || buffer.getInt() != VERSION)
+			{
+				System.err.println("Snapshot " + file + " has another format");
+				return null;
+			}
+			byte[] snapshotHash = new byte[HASH_LENGTH];
+			buffer.get(snapshotHash);
+			if (!Arrays.equals(hash, snapshotHash) || buffer.getInt() != flags())
+			{
+				System.err.println("Snapshot " + file + " is stale");
+				return null;
+			}
+			return read(buffer);
+		}
+	}
+
+	private static ModelSnapshot read(ByteBuffer buffer)
+	{
+		// strings
+		int stringCount = buffer.getInt();
+		int[] ends = new int[stringCount];
+		buffer.asIntBuffer().get(ends);
+		buffer.position(buffer.position() + 4 * stringCount);
+		byte[] bytes = new byte[stringCount == 0 ? 0 : ends[stringCount - 1]];
+		buffer.get(bytes);
+		String[] strings = new String[stringCount];
+		for (int i = 0, start = 0; i < stringCount; start = ends[i], i++)
+		{
+			strings[i] = new String(bytes, start, ends[i] - start, StandardCharsets.UTF_8);
+		}
+
+		// counts
+		LexicalEntry[] lexicalEntries = new LexicalEntry[buffer.getInt()];
+		Sense[] senses = new Sense[buffer.getInt()];
+		Synset[] synsets = new Synset[buffer.getInt()];
+
+		// lexical entries and their senses
+		int s = 0;
+		for (int e = 0; e < lexicalEntries.length; e++)
+		{
+			LexicalEntry entry = new LexicalEntry(e, string(buffer, strings));
+			entry.lemma = string(buffer, strings);
+			entry.pos = buffer.getChar();
+			entry.forms = strings(buffer, strings);
+			entry.senses = new Sense[buffer.getInt()];
+			for (int i = 0; i < entry.senses.length; i++, s++)
+			{
+				String id = string(buffer, strings);
+				int n = buffer.getInt();
+				String adjPosition = string(buffer, strings);
+				String verbFrames = string(buffer, strings);
+				int synset = buffer.getInt();
+				int order = buffer.getInt();
+				SenseRelation[] relations = new SenseRelation[buffer.getInt()];
+				for (int r = 0; r < relations.length; r++)
+				{
+					relations[r] = new SenseRelation(RelationType.VALUES[buffer.getInt()]);
+					relations[r].target = buffer.getInt();
+				}
+				Sense sense = new Sense(s, id, entry, n, adjPosition, verbFrames, relations);
+				sense.synset = synset;
+				sense.order = order;
+				entry.senses[i] = sense;
+				senses[s] = sense;
+			}
+			lexicalEntries[e] = entry;
+		}
+
+		// synsets
+		for (int y = 0; y < synsets.length; y++)
+		{
+			String id = string(buffer, strings);
+			char pos = buffer.getChar();
+			String members = string(buffer, strings);
+			String lexfile = string(buffer, strings);
+			String[] definitions = strings(buffer, strings);
+			String[] examples = strings(buffer, strings);
+			SynsetRelation[] relations = new SynsetRelation[buffer.getInt()];
+			for (int r = 0; r < relations.length; r++)
+			{
+				relations[r] = new SynsetRelation(RelationType.VALUES[buffer.getInt()]);
+				relations[r].target = buffer.getInt();
+			}
+			synsets[y] = new Synset(y, id, pos, members, lexfile, definitions, examples, relations);
+		}
+
+		// senses by synset, in document order
+		int[] senseCounts = new int[synsets.length];
+		for (Sense sense : senses)
+		{
+			senseCounts[sense.synset]++;
+		}
+		for (Synset synset : synsets)
+		{
+			synset.senses = new int[senseCounts[synset.ordinal]];
+		}
+		int[] fill = new int[synsets.length];
+		for (Sense sense : senses)
+		{
+			synsets[sense.synset].senses[fill[sense.synset]++] = sense.ordinal;
+		}
+
+		// offsets
+		long[] offsets = new long[synsets.length];
+		buffer.asLongBuffer().get(offsets);
+
+		Model model = new Model(lexicalEntries, senses, synsets, //
+				new IdIndex(Arrays.stream(lexicalEntries).map(e -> e.id).toArray(String[]::new)), //
+				new IdIndex(Arrays.stream(senses).map(e -> e.id).toArray(String[]::new)), //
+				new IdIndex(Arrays.stream(synsets).map(e -> e.id).toArray(String[]::new)));
+		return new ModelSnapshot(model, offsets);
+	}
+
+	private static String string(ByteBuffer buffer, String[] strings)
+	{
+		int i = buffer.getInt();
+		return i == -1 ? null : strings[i];
+	}
+
+	private static String[] strings(ByteBuffer buffer, String[] strings)
+	{
+		String[] result = new String[buffer.getInt()];
+		for (int i = 0; i < result.length; i++)
+		{
+			result[i] = string(buffer, strings);
+		}
+		return result;
+	}
+
+	// W R I T E
+
+	/**
+	 * Write snapshot of input for current flags. It is written to a temporary file that is then moved in place, so that a concurrent run never reads a
+	 * partial snapshot.
+	 *
+	 * @param input merged XML file
+	 * @param hash  hash of input content
+	 * @throws IOException io
+	 */
+	void write(File input, byte[] hash) throws IOException
+	{
+		File file = file(input);
+		File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		try
+		{
+			// string table
+			Map<String, Integer> table = new HashMap<>();
+			List<String> strings = new ArrayList<>();
+			ByteArrayOutputStream body = new ByteArrayOutputStream(1 << 20);
+			try (DataOutputStream out = new DataOutputStream(body))
+			{
+				writeBody(out, s -> s == null ? -1 : table.computeIfAbsent(s, k -> {
+					strings.add(k);
+					return strings.size() - 1;
+				}));
+			}
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16)))
+			{
+				out.writeLong(MAGIC);
+				out.writeInt(VERSION);
+				out.write(hash);
+				out.writeInt(flags());
+
+				out.writeInt(strings.size());
+				byte[][] encoded = new byte[strings.size()][];
+				int end = 0;
+				for (int i = 0; i < encoded.length; i++)
+				{
+					encoded[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+					end += encoded[i].length;
+					out.writeInt(end);
+				}
+				for (byte[] bytes : encoded)
+				{
+					out.write(bytes);
+				}
+				body.writeTo(out);
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			System.err.println("Snapshot " + file + " " + file.length() + " bytes");
+		}
+		finally
+		{
+			// noinspection ResultOfMethodCallIgnored
+			temp.delete();
+		}
+	}
+
+	/**
+	 * String to index in string table
+	 */
+	private interface StringTable
+	{
+		int indexOf(String s);
+	}
+
+	private void writeBody(DataOutputStream out, StringTable table) throws IOException
+	{
+		out.writeInt(model.lexicalEntries.length);
+		out.writeInt(model.senses.length);
+		out.writeInt(model.synsets.length);
+		int s = 0;
+		for (LexicalEntry entry : model.lexicalEntries)
+		{
+			out.writeInt(table.indexOf(entry.id));
+			out.writeInt(table.indexOf(entry.lemma));
+			out.writeChar(entry.pos);
+			writeStrings(out, table, entry.forms);
+			out.writeInt(entry.senses.length);
+			for (Sense sense : entry.senses)
+			{
+				if (sense.ordinal != s++)
+				{
+					throw new IllegalStateException("Senses of " + entry.id + " are not consecutive");
+				}
+				out.writeInt(table.indexOf(sense.id));
+				out.writeInt(sense.n);
+				out.writeInt(table.indexOf(sense.adjPosition));
+				out.writeInt(table.indexOf(sense.verbFrames));
+				out.writeInt(sense.synset);
+				out.writeInt(sense.order);
+				out.writeInt(sense.relations.length);
+				for (SenseRelation relation : sense.relations)
+				{
+					out.writeInt(relation.relType.ordinal());
+					out.writeInt(relation.target);
+				}
+			}
+		}
+		for (Synset synset : model.synsets)
+		{
+			out.writeInt(table.indexOf(synset.id));
+			out.writeChar(synset.pos);
+			out.writeInt(table.indexOf(synset.members));
+			out.writeInt(table.indexOf(synset.lexfile));
+			writeStrings(out, table, synset.definitions);
+			writeStrings(out, table, synset.examples);
+			out.writeInt(synset.relations.length);
+			for (SynsetRelation relation : synset.relations)
+			{
+				out.writeInt(relation.relType.ordinal());
+				out.writeInt(relation.target);
+			}
+		}
+		for (long offset : offsets)
+		{
+			out.writeLong(offset);
+		}
+	}
+
+	private static void writeStrings(DataOutputStream out, StringTable table, String[] strings) throws IOException
+	{
+		out.writeInt(strings.length);
+		for (String s : strings)
+		{
+			out.writeInt(table.indexOf(s));
+		}
+	}
+}
@@ -1,15 +1,11 @@
 package org.ewn.grind;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import org.ewn.grind.Model.LexicalEntry;
 
-import javax.xml.xpath.XPathExpressionException;
-import java.io.PrintStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
 
 /**
  * This class produces the index.{noun|verb|adj|adv}.exc files
@@ -19,84 +15,99 @@ import java.util.TreeSet;
 public class MorphGrinder
 {
 	/**
-	 * XPath for noun lexical entry elements
+	 * Model
 	 */
-	public static final String NOUN_LEXENTRIES_XPATH = String.format("/%s/%s/%s[%s/@%s='n' and count(%s)>0]", //
-			XmlNames.LEXICALRESOURCE_TAG, XmlNames.LEXICON_TAG, XmlNames.LEXICALENTRY_TAG, XmlNames.LEMMA_TAG, XmlNames.POS_ATTR, XmlNames.FORM_TAG);
+	private final Model model;
 
 	/**
-	 * XPath for verb lexical entry elements
+	 * Collected lines, indexed by part of speech (as in Parallel.POSES)
 	 */
-	public static final String VERB_LEXENTRIES_XPATH = String.format("/%s/%s/%s[%s/@%s='v' and count(%s)>0]", //
-			XmlNames.LEXICALRESOURCE_TAG, XmlNames.LEXICON_TAG, XmlNames.LEXICALENTRY_TAG, XmlNames.LEMMA_TAG, XmlNames.POS_ATTR, XmlNames.FORM_TAG);
+	private final List<SortedWriter> lines = new ArrayList<>();
 
 	/**
-	 * XPath for adj lexical entry elements
+	 * Collected lexical entries that have forms, indexed by part of speech (as in Parallel.POSES)
 	 */
-	public static final String ADJ_LEXENTRIES_XPATH = String.format("/%s/%s/%s[(%s/@%s='a' or %s/@%s='s') and count(%s)>0]", //
-			XmlNames.LEXICALRESOURCE_TAG, XmlNames.LEXICON_TAG, XmlNames.LEXICALENTRY_TAG, XmlNames.LEMMA_TAG, XmlNames.POS_ATTR, XmlNames.LEMMA_TAG, XmlNames.POS_ATTR, XmlNames.FORM_TAG);
-
-	/**
-	 * XPath for adv lexical entry elements
-	 */
-	public static final String ADV_LEXENTRIES_XPATH = String.format("/%s/%s/%s[%s/@%s='r' and count(%s)>0]", //
-			XmlNames.LEXICALRESOURCE_TAG, XmlNames.LEXICON_TAG, XmlNames.LEXICALENTRY_TAG, XmlNames.LEMMA_TAG, XmlNames.POS_ATTR, XmlNames.FORM_TAG);
-
-	/**
-	 * W3C document
-	 */
-	private final Document doc;
+	private final int[] counts = new int[Parallel.POSES.length()];
 
 	/**
 	 * Constructor
 	 *
-	 * @param doc W3C document
+	 * @param model model
 	 */
-	public MorphGrinder(Document doc)
+	public MorphGrinder(Model model)
 	{
-		this.doc = doc;
+		this.model = model;
+		for (int p = 0; p < Parallel.POSES.length(); p++)
+		{
+			lines.add(new SortedWriter("morph"));
+		}
 	}
 
 	/**
 	 * Make morph files
 	 *
-	 * @param ps print stream
-	 * @param xpath xpath selecting lexical entry elements
-	 * @throws XPathExpressionException xpath
+	 * @param sink output sink
+	 * @param pos selection of lexical entries (n|v|a|r)
+	 * @throws IOException io
 	 */
-	public void makeMorph(PrintStream ps, String xpath) throws XPathExpressionException
+	public void makeMorph(OutputSink sink, char pos) throws IOException
 	{
-		Set<String> lines = new TreeSet<>();
-
-		// iterate lex entry elements
-		NodeList lexEntryNodes = XmlUtils.getXPathNodeList(xpath, doc);
-		int n = lexEntryNodes.getLength();
-		assert n >= 1;
-		for (int i = 0; i < n; i++)
+		for (LexicalEntry lexEntry : model.getLexicalEntries(pos))
 		{
-			Node lexEntryNode = lexEntryNodes.item(i);
-			assert lexEntryNode.getNodeType() == Node.ELEMENT_NODE;
-			Element lexEntryElement = (Element) lexEntryNode;
+			collect(lexEntry);
+		}
+		write(sink, pos);
+	}
 
-			Element lemmaElement = XmlUtils.getUniqueChildElement(lexEntryElement, XmlNames.LEMMA_TAG);
-			assert lemmaElement != null;
-			String lemma = lemmaElement.getAttribute(XmlNames.WRITTENFORM_ATTR);
+	/**
+	 * Collect morphs of lexical entry, if it has forms
+	 *
+	 * @param lexEntry lexical entry
+	 * @throws UncheckedIOException io, when spilling sorted lines
+	 */
+	public void collect(LexicalEntry lexEntry)
+	{
+		if (lexEntry.forms.length == 0)
+		{
+			return;
+		}
+		int p = Model.posIndex(lexEntry.pos);
+		counts[p]++;
 
-			List<Element> formElements = XmlUtils.getChildElements(lexEntryElement, XmlNames.FORM_TAG);
-			if (formElements != null)
+		String lemma = lexEntry.lemma;
+		for (String form : lexEntry.forms)
+		{
+			String line = form + ' ' + lemma;
+			try
 			{
-				for (Element formElement : formElements)
-				{
-					String form = formElement.getAttribute(XmlNames.WRITTENFORM_ATTR);
-					String line = String.format("%s %s", form, lemma);
-					lines.add(line);
-				}
+				lines.get(p).addLine(line);
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
 			}
 		}
-		for (String line : lines)
+	}
+
+	/**
+	 * Write collected morphs of part of speech
+	 *
+	 * @param sink output sink
+	 * @param pos selection of lexical entries (n|v|a|r)
+	 * @throws IOException io
+	 */
+	public void write(OutputSink sink, char pos) throws IOException
+	{
+		int p = Model.posIndex(pos);
+		try (SortedWriter lines = this.lines.get(p))
 		{
-			ps.println(line);
+			// duplicate lines are written once
+			lines.forEachDistinct(line -> line.writePayload(sink, 0));
 		}
-		System.err.println("Morphs: " + n + " for " + xpath);
+		System.err.println("Morphs: " + counts[p] + " for " + pos);
+
+		// release
+		lines.set(p, new SortedWriter("morph"));
+		counts[p] = 0;
 	}
 }
@@ -1,108 +1,75 @@
 package org.ewn.grind;
 
-import org.ewn.grind.Data.Relation;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import org.ewn.grind.Model.Synset;
 
-import javax.xml.xpath.XPathExpressionException;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.stream.IntStream;
 
 /**
- * This class computes file offsets that serve as synset id in the WNDB format. It does so by iterating over synset elements and yielding a dummy line string of
- * the same length as the final string. The offset counter is moved by the line's length.
+ * This class computes file offsets that serve as synset id in the WNDB format. It does so by iterating over synsets and computing the byte length the
+ * final line will have, without rendering it (see LineSizer). The offset counter is moved by the line's length.
  *
  * @author Bernard Bou
  */
-public class OffsetFactory extends SynsetProcessor
+public class OffsetFactory
 {
 	/**
-	 * Constructor
-	 *
-	 * @param doc W3C document
-	 * @param sensesBySynsetId map of senses with key=synsetId
-	 * @param synsetsById synset elements mapped by id
-	 * @param sensesById sense elements mapped by id
+	 * Model
 	 */
-	public OffsetFactory(Document doc, Map<String, List<Element>> sensesBySynsetId, Map<String, Element> synsetsById, Map<String, Element> sensesById)
-	{
-		super(doc, sensesBySynsetId, synsetsById, sensesById, s -> 0L /* dummy synset */);
-	}
+	private final Model model;
+
+	/**
+	 * Line length computer
+	 */
+	private final LineSizer lineSizer;
 
 	/**
-	 * Log things as this is the first pass
+	 * Constructor
+	 *
+	 * @param model model
 	 */
-	@Override
-	protected boolean log()
+	public OffsetFactory(Model model)
 	{
-		return false;
+		this.model = model;
+		this.lineSizer = new LineSizer(model);
 	}
 
 	/**
-	 * Compute synset offsets
+	 * Compute synset offsets. Line lengths are computed in parallel on the fork-join pool, then offsets are assigned by a parallel prefix sum, which
+	 * yields the same offsets as accumulating lengths line after line.
 	 *
-	 * @param xpath selection of synset elements
-	 * @param offsets result map
-	 * @throws XPathExpressionException xpath
+	 * @param pos selection of synsets (n|v|a|r)
+	 * @param offsets result offsets indexed by synset ordinal
 	 */
-	public void compute(String xpath, Map<String, Long> offsets) throws XPathExpressionException
+	public void compute(char pos, long[] offsets)
 	{
-		long offset = Formatter.OEWN_HEADER.getBytes(Flags.charSet).length;
+		long offset0 = Formatter.OEWN_HEADER.getBytes(Flags.charSet).length;
 
-		// iterate synset elements
-		NodeList synsetNodes = XmlUtils.getXPathNodeList(xpath, doc);
-		int n = synsetNodes.getLength();
+		// line lengths
+		List<Synset> synsets = model.getSynsets(pos);
+		int n = synsets.size();
 		assert n >= 1;
-		for (int i = 0; i < n; i++)
-		{
-			Node synsetNode = synsetNodes.item(i);
-			assert synsetNode.getNodeType() == Node.ELEMENT_NODE;
-			Element synsetElement = (Element) synsetNode;
-			String id = synsetElement.getAttribute(XmlNames.ID_ATTR);
-
-			String data = getData(synsetElement, dummyOfs);
-			offsets.put(id, offset);
+		long[] ends = new long[n];
+		IntStream.range(0, n).parallel().forEach(i -> {
+			ends[i] = lineSizer.getDataLength(synsets.get(i));
+		});
 
-			offset += data.getBytes(Flags.charSet).length;
-		}
-		System.err.println("Computed offsets for " + xpath);
+		// line ends, line offset is previous line end
+		Arrays.parallelPrefix(ends, Long::sum);
+		IntStream.range(0, n).parallel().forEach(i -> offsets[synsets.get(i).ordinal] = offset0 + (i == 0 ? 0 : ends[i - 1]));
+		System.err.println("Computed offsets for " + pos);
 	}
 
 	/**
-	 * Compute offsets mapped by synsetId
+	 * Compute offsets indexed by synset ordinal. Parts of speech are computed concurrently as each has its own data file and a disjoint set of synsets.
 	 *
-	 * @return map of offsets by synsetId
-	 * @throws XPathExpressionException xpath
+	 * @return offsets indexed by synset ordinal
 	 */
-	Map<String, Long> compute() throws XPathExpressionException
+	long[] compute()
 	{
-		Map<String, Long> offsets = new HashMap<>();
-		compute(SynsetProcessor.NOUN_SYNSET_XPATH, offsets);
-		compute(SynsetProcessor.VERB_SYNSET_XPATH, offsets);
-		compute(SynsetProcessor.ADJ_SYNSET_XPATH, offsets);
-		compute(SynsetProcessor.ADV_SYNSET_XPATH, offsets);
+		long[] offsets = new long[model.synsets.length];
+		Parallel.forEachPos(Parallel.POSES, pos -> compute(pos, offsets));
 		return offsets;
 	}
-
-	// I M P L E M E N T A T I O N
-
-	private final long dummyOfs = this.offsetFunction.applyAsLong("");
-
-	private static final int DUMMY_NUM = 0;
-
-	@Override
-	protected Relation buildLexRelation(String type, char pos, int lemmaIndex, Element targetSenseElement, Element targetSynsetElement, String targetSynsetId) throws CompatException
-	{
-		char targetPos = targetSynsetElement.getAttribute(XmlNames.POS_ATTR).charAt(0);
-		return new Relation(type, pos, targetPos, dummyOfs, DUMMY_NUM, DUMMY_NUM);
-	}
-
-	@Override
-	protected int buildLexfileNum(Element synsetElement)
-	{
-		return DUMMY_NUM;
-	}
 }
@@ -0,0 +1,396 @@
+package org.ewn.grind;
+
+import org.ewn.grind.Model.Synset;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Sorted binary sidecar of the synset offset map, in both directions: synset id to part of speech and offset, and part of speech and offset to synset id.
+ * It is read through a memory-mapped buffer and looked up by binary search, so that ids and offsets are resolved without computing any data line.
+ * <p>
+ * Layout (big-endian): magic, version, input hash, compat flags, count, size of id bytes; then records sorted by id (unsigned UTF-8 byte order), each
+ * being id position, id length, part of speech and offset (16 bytes); then record indexes sorted by data file and offset (4 bytes each); then id bytes.
+ * Offsets being those of the data files, satellites ('s') are looked up with the adjectives ('a').
+ *
+ * @author Bernard Bou
+ */
+public class OffsetMap
+{
+	private static final long MAGIC = 0x4F45574E4F464653L; // OEWNOFFS
+
+	private static final int VERSION = 1;
+
+	private static final int HASH_LENGTH = 32;
+
+	private static final int HEADER_SIZE = 8 + 4 + HASH_LENGTH + 4 + 4 + 4;
+
+	private static final int RECORD_SIZE = 16;
+
+	/**
+	 * Mapped file
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * Hash of the content of the merged XML file the map was computed from
+	 */
+	private final byte[] hash;
+
+	/**
+	 * Compat flags the map was computed with
+	 */
+	private final int flags;
+
+	private final int count;
+
+	private final int byOffsetStart;
+
+	private final int idsStart;
+
+	private OffsetMap(ByteBuffer buffer)
+	{
+		this.buffer = buffer;
+		if (buffer.remaining() < HEADER_SIZE || buffer.getLong(0) != MAGIC || buffer.getInt(8) != VERSION)
+		{
+			throw new IllegalArgumentException("Not an offset map");
+		}
+		this.hash = new byte[HASH_LENGTH];
+		for (int i = 0; i < HASH_LENGTH; i++)
+		{
+			hash[i] = buffer.get(12 + i);
+		}
+		this.flags = buffer.getInt(12 + HASH_LENGTH);
+		this.count = buffer.getInt(16 + HASH_LENGTH);
+		this.byOffsetStart = HEADER_SIZE + count * RECORD_SIZE;
+		this.idsStart = byOffsetStart + count * 4;
+		if (buffer.capacity() != idsStart + buffer.getInt(20 + HASH_LENGTH))
+		{
+			throw new IllegalArgumentException("Truncated offset map");
+		}
+	}
+
+	// O P E N
+
+	/**
+	 * Open offset map
+	 *
+	 * @param file offset map file
+	 * @return offset map
+	 * @throws IOException              io
+	 * @throws IllegalArgumentException if the file is not an offset map
+	 */
+	public static OffsetMap open(File file) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file.toPath()))
+		{
+			return new OffsetMap(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Number of synsets
+	 *
+	 * @return number of synsets
+	 */
+	public int size()
+	{
+		return count;
+	}
+
+	/**
+	 * Whether the map was computed from input with this content hash and with current compat flags
+	 *
+	 * @param hash hash of the content of the merged XML file
+	 * @return whether the map applies
+	 */
+	boolean matches(byte[] hash)
+	{
+		return Arrays.equals(this.hash, hash) && flags == ModelSnapshot.flags();
+	}
+
+	// L O O K U P
+
+	/**
+	 * Offset of synset
+	 *
+	 * @param synsetId synset id
+	 * @return offset in data file, -1 if not found
+	 */
+	public long getOffset(String synsetId)
+	{
+		int r = find(synsetId);
+		return r == -1 ? -1 : buffer.getLong(record(r) + 8);
+	}
+
+	/**
+	 * Part of speech of synset
+	 *
+	 * @param synsetId synset id
+	 * @return part of speech (n|v|a|s|r), 0 if not found
+	 */
+	public char getPos(String synsetId)
+	{
+		int r = find(synsetId);
+		return r == -1 ? 0 : buffer.getChar(record(r) + 6);
+	}
+
+	/**
+	 * Synset at offset
+	 *
+	 * @param pos    part of speech (n|v|a|s|r)
+	 * @param offset offset in data file
+	 * @return synset id, null if not found
+	 */
+	public String getSynsetId(char pos, long offset)
+	{
+		int p = Model.posIndex(pos);
+		int lo = 0;
+		int hi = count - 1;
+		while (lo <= hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			int r = buffer.getInt(byOffsetStart + 4 * mid);
+			int record = record(r);
+			int c = Integer.compare(Model.posIndex(buffer.getChar(record + 6)), p);
+			if (c == 0)
+			{
+				c = Long.compare(buffer.getLong(record + 8), offset);
+			}
+			if (c < 0)
+			{
+				lo = mid + 1;
+			}
+			else if (c > 0)
+			{
+				hi = mid - 1;
+			}
+			else
+			{
+				return id(r);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Offsets of the model's synsets
+	 *
+	 * @param model model
+	 * @return offsets indexed by synset ordinal
+	 * @throws IllegalArgumentException if a synset of the model is not in the map
+	 */
+	long[] getOffsets(Model model)
+	{
+		if (model.synsets.length != count)
+		{
+			throw new IllegalArgumentException("Offset map has " + count + " synsets, model has " + model.synsets.length);
+		}
+		long[] offsets = new long[model.synsets.length];
+		Parallel.forEachIndex(offsets.length, i -> {
+			long offset = getOffset(model.synsets[i].id);
+			if (offset == -1)
+			{
+				throw new IllegalArgumentException("Offset map has no " + model.synsets[i].id);
+			}
+			offsets[i] = offset;
+		});
+		return offsets;
+	}
+
+	private int record(int r)
+	{
+		return HEADER_SIZE + r * RECORD_SIZE;
+	}
+
+	private String id(int r)
+	{
+		int record = record(r);
+		byte[] bytes = new byte[buffer.getShort(record + 4) & 0xFFFF];
+		int start = idsStart + buffer.getInt(record);
+		for (int i = 0; i < bytes.length; i++)
+		{
+			bytes[i] = buffer.get(start + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Binary search of id in records sorted by id
+	 *
+	 * @return record index, -1 if not found
+	 */
+	private int find(String synsetId)
+	{
+		byte[] key = synsetId.getBytes(StandardCharsets.UTF_8);
+		int lo = 0;
+		int hi = count - 1;
+		while (lo <= hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			int record = record(mid);
+			int c = compare(idsStart + buffer.getInt(record), buffer.getShort(record + 4) & 0xFFFF, key);
+			if (c < 0)
+			{
+				lo = mid + 1;
+			}
+			else if (c > 0)
+			{
+				hi = mid - 1;
+			}
+			else
+			{
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Compare mapped bytes with key, as unsigned bytes
+	 */
+	private int compare(int start, int length, byte[] key)
+	{
+		int n = Math.min(length, key.length);
+		for (int i = 0; i < n; i++)
+		{
+			int c = Integer.compare(buffer.get(start + i) & 0xFF, key[i] & 0xFF);
+			if (c != 0)
+			{
+				return c;
+			}
+		}
+		return Integer.compare(length, key.length);
+	}
+
+	private static int compare(byte[] a, byte[] b)
+	{
+		int n = Math.min(a.length, b.length);
+		for (int i = 0; i < n; i++)
+		{
+			int c = Integer.compare(a[i] & 0xFF, b[i] & 0xFF);
+			if (c != 0)
+			{
+				return c;
+			}
+		}
+		return Integer.compare(a.length, b.length);
+	}
+
+	// W R I T E
+
+	/**
+	 * Write offset map. It is written to a temporary file that is then moved in place.
+	 *
+	 * @param file    offset map file
+	 * @param model   model
+	 * @param offsets offsets indexed by synset ordinal
+	 * @param hash    hash of the content of the merged XML file
+	 * @throws IOException io
+	 */
+	static void write(File file, Model model, long[] offsets, byte[] hash) throws IOException
+	{
+		int n = model.synsets.length;
+		byte[][] ids = new byte[n][];
+		for (int i = 0; i < n; i++)
+		{
+			ids[i] = model.synsets[i].id.getBytes(StandardCharsets.UTF_8);
+			if (ids[i].length > 0xFFFF)
+			{
+				throw new IllegalArgumentException("Synset id too long " + model.synsets[i].id);
+			}
+		}
+
+		// records sorted by id, then by data file and offset
+		Integer[] byId = new Integer[n];
+		for (int i = 0; i < n; i++)
+		{
+			byId[i] = i;
+		}
+		Arrays.parallelSort(byId, (i1, i2) -> compare(ids[i1], ids[i2]));
+		int[] rank = new int[n];
+		for (int r = 0; r < n; r++)
+		{
+			rank[byId[r]] = r;
+		}
+		Integer[] byOffset = byId.clone();
+		Arrays.parallelSort(byOffset, Comparator.<Integer>comparingInt(i -> Model.posIndex(model.synsets[i].pos)).thenComparingLong(i -> offsets[i]));
+
+		File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		try
+		{
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16)))
+			{
+				out.writeLong(MAGIC);
+				out.writeInt(VERSION);
+				out.write(hash);
+				out.writeInt(ModelSnapshot.flags());
+				out.writeInt(n);
+				int idBytes = 0;
+				for (byte[] id : ids)
+				{
+					idBytes += id.length;
+				}
+				out.writeInt(idBytes);
+
+				int position = 0;
+				for (int r = 0; r < n; r++)
+				{
+					int i = byId[r];
+					Synset synset = model.synsets[i];
+					out.writeInt(position);
+					out.writeShort(ids[i].length);
+					out.writeChar(synset.pos);
+					out.writeLong(offsets[i]);
+					position += ids[i].length;
+				}
+				for (int i : byOffset)
+				{
+					out.writeInt(rank[i]);
+				}
+				for (int r = 0; r < n; r++)
+				{
+					out.write(ids[byId[r]]);
+				}
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			// noinspection ResultOfMethodCallIgnored
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Main entry point, that looks up synset ids or offsets
+	 *
+	 * @param args command-line arguments: offsetMap (SYNSETID | POS OFFSET)...
+	 * @throws IOException io
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		OffsetMap map = OffsetMap.open(new File(args[0]));
+		for (int i = 1; i < args.length; i++)
+		{
+			if (args[i].length() == 1 && i + 1 < args.length)
+			{
+				char pos = args[i].charAt(0);
+				long offset = Long.parseLong(args[++i]);
+				String id = map.getSynsetId(pos, offset);
+				System.out.printf("%c %08d %s%n", pos, offset, id == null ? "-" : id);
+			}
+			else
+			{
+				long offset = map.getOffset(args[i]);
+				System.out.printf("%s %s%n", args[i], offset == -1 ? "-" : String.format("%c %08d", map.getPos(args[i]), offset));
+			}
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package org.ewn.grind;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Sink that grinders write their output to. It keeps count of bytes and lines written.
+ *
+ * @author Bernard Bou
+ * @see ChannelSink
+ */
+public interface OutputSink extends Closeable
+{
+	/**
+	 * Print text
+	 *
+	 * @param text text
+	 * @throws IOException io
+	 */
+	void print(CharSequence text) throws IOException;
+
+	/**
+	 * Print text followed by line separator
+	 *
+	 * @param text text
+	 * @throws IOException io
+	 */
+	void println(CharSequence text) throws IOException;
+
+	/**
+	 * Write bytes already encoded in the output character set
+	 *
+	 * @param bytes  bytes
+	 * @param offset offset of first byte
+	 * @param length number of bytes
+	 * @throws IOException io
+	 */
+	void write(byte[] bytes, int offset, int length) throws IOException;
+
+	/**
+	 * Number of bytes written so far
+	 *
+	 * @return number of bytes
+	 */
+	long getByteCount();
+
+	/**
+	 * Number of lines written so far (line feeds)
+	 *
+	 * @return number of lines
+	 */
+	long getLineCount();
+}
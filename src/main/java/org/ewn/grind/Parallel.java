@@ -0,0 +1,221 @@
+package org.ewn.grind;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.stream.IntStream;
+
+/**
+ * This class runs per part-of-speech tasks, or tasks on chunks of data, concurrently. Flags are read by the tasks, so they must be set before.
+ *
+ * @author Bernard Bou
+ */
+class Parallel
+{
+	/**
+	 * Parts of speech of the data and index files
+	 */
+	static final String POSES = "nvar";
+
+	private Parallel()
+	{
+	}
+
+	/**
+	 * Task for one part of speech
+	 *
+	 * @param <E> exception the task may throw
+	 */
+	interface PosTask<E extends Exception>
+	{
+		void run(char pos) throws E;
+	}
+
+	/**
+	 * Run task for each part of speech, each on its own thread, and wait for all of them to complete
+	 *
+	 * @param poses parts of speech
+	 * @param task  task
+	 * @param <E>   exception the task may throw
+	 * @throws E first exception thrown by a task, in part-of-speech order
+	 */
+	@SuppressWarnings("unchecked")
+	static <E extends Exception> void forEachPos(String poses, PosTask<E> task) throws E
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(poses.length());
+		try
+		{
+			List<Future<?>> futures = new ArrayList<>();
+			for (char pos : poses.toCharArray())
+			{
+				futures.add(executor.submit(() -> {
+					task.run(pos);
+					return null;
+				}));
+			}
+			for (Future<?> future : futures)
+			{
+				try
+				{
+					future.get();
+				}
+				catch (ExecutionException e)
+				{
+					Throwable cause = e.getCause();
+					if (cause instanceof Error)
+					{
+						throw (Error) cause;
+					}
+					// RuntimeException or E, since the task throws nothing else
+					throw (E) cause;
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted", e);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Task for one index
+	 *
+	 * @param <E> exception the task may throw
+	 */
+	interface IndexTask<E extends Exception>
+	{
+		void run(int i) throws E;
+	}
+
+	/**
+	 * Run task for each index in [0, n) in parallel on the fork-join pool and wait for all of them to complete
+	 *
+	 * @param n    number of indexes
+	 * @param task task
+	 * @param <E>  exception the task may throw
+	 * @throws E exception thrown by a task
+	 */
+	@SuppressWarnings("unchecked")
+	static <E extends Exception> void forEachIndex(int n, IndexTask<E> task) throws E
+	{
+		try
+		{
+			IntStream.range(0, n).parallel().forEach(i -> {
+				try
+				{
+					task.run(i);
+				}
+				catch (RuntimeException e)
+				{
+					throw e;
+				}
+				catch (Exception e)
+				{
+					throw new TaskException(e);
+				}
+			});
+		}
+		catch (TaskException e)
+		{
+			// E, since the task throws nothing else
+			throw (E) e.getCause();
+		}
+	}
+
+	/**
+	 * Task run in the background
+	 *
+	 * @param <T> result
+	 * @param <E> exception the task may throw
+	 */
+	interface BackgroundTask<T, E extends Exception>
+	{
+		T call() throws E;
+	}
+
+	/**
+	 * Result of a task run in the background
+	 *
+	 * @param <T> result
+	 * @param <E> exception the task may throw
+	 */
+	static class Pending<T, E extends Exception>
+	{
+		private final FutureTask<T> future;
+
+		private Pending(FutureTask<T> future)
+		{
+			this.future = future;
+		}
+
+		/**
+		 * Wait for the task to complete
+		 *
+		 * @return result
+		 * @throws E exception thrown by the task
+		 */
+		@SuppressWarnings("unchecked")
+		T get() throws E
+		{
+			try
+			{
+				return future.get();
+			}
+			catch (ExecutionException e)
+			{
+				Throwable cause = e.getCause();
+				if (cause instanceof Error)
+				{
+					throw (Error) cause;
+				}
+				// RuntimeException or E, since the task throws nothing else
+				throw (E) cause;
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted", e);
+			}
+		}
+	}
+
+	/**
+	 * Start task on its own (daemon) thread, for it to run while the caller goes on
+	 *
+	 * @param name thread name
+	 * @param task task
+	 * @param <T>  result
+	 * @param <E>  exception the task may throw
+	 * @return pending result
+	 */
+	static <T, E extends Exception> Pending<T, E> start(String name, BackgroundTask<T, E> task)
+	{
+		FutureTask<T> future = new FutureTask<>(task::call);
+		Thread thread = new Thread(future, name);
+		thread.setDaemon(true);
+		thread.start();
+		return new Pending<>(future);
+	}
+
+	/**
+	 * Carries a checked exception out of a parallel stream
+	 */
+	private static class TaskException extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+
+		TaskException(Exception cause)
+		{
+			super(cause);
+		}
+	}
+}
@@ -0,0 +1,473 @@
+package org.ewn.grind;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-phase performance report, written as JSON into the output directory.
+ * <p>
+ * Phases run one after the other and record wall time, process CPU time, bytes allocated by each thread, GC collections and time, peak heap, items
+ * processed and bytes written. Parts of a phase may run concurrently, typically one per part of speech, and record wall time, CPU time and bytes allocated
+ * by the thread that runs them, items and bytes written.
+ * <p>
+ * CPU time and allocations rely on the com.sun.management extensions of the platform beans; they are reported as -1 when the JVM lacks them.
+ *
+ * @author Bernard Bou
+ */
+class PerfReport
+{
+	/**
+	 * Report file name, in the output directory
+	 */
+	static final String FILENAME = "grind-perf.json";
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	private static final OperatingSystemMXBean OS = ManagementFactory.getOperatingSystemMXBean();
+
+	private static final boolean ALLOCATIONS = THREADS instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported() && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemoryEnabled();
+
+	private static final boolean THREAD_CPU = THREADS.isThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+
+	private final Instant start = Instant.now();
+
+	private final long startNanos = System.nanoTime();
+
+	private final Map<String, String> properties = new LinkedHashMap<>();
+
+	private final List<Phase> phases = new ArrayList<>();
+
+	/**
+	 * Set property of run (input, mode, ...)
+	 *
+	 * @param key   key
+	 * @param value value
+	 * @return this report
+	 */
+	PerfReport property(String key, String value)
+	{
+		properties.put(key, value);
+		return this;
+	}
+
+	/**
+	 * Start phase, heap peaks being reset. Phases are not meant to overlap.
+	 *
+	 * @param name phase name
+	 * @return phase, to be closed when done
+	 */
+	Phase phase(String name)
+	{
+		Phase phase = new Phase(name);
+		phases.add(phase);
+		return phase;
+	}
+
+	/**
+	 * Phases so far
+	 *
+	 * @return phases, in the order they were started
+	 */
+	List<Phase> getPhases()
+	{
+		return Collections.unmodifiableList(phases);
+	}
+
+	/**
+	 * Total wall time so far
+	 *
+	 * @return milliseconds since the report was created
+	 */
+	long totalMillis()
+	{
+		return (System.nanoTime() - startNanos) / 1_000_000;
+	}
+
+	/**
+	 * Phase, one after the other
+	 */
+	class Phase implements AutoCloseable
+	{
+		final String name;
+
+		private final long startNanos = System.nanoTime();
+
+		private final long startCpu = processCpuTime();
+
+		private final long startGcCount;
+
+		private final long startGcMillis;
+
+		private final Map<Long, Long> startAllocations = allocations();
+
+		private final AtomicLong items = new AtomicLong();
+
+		private final AtomicLong bytes = new AtomicLong();
+
+		private final List<Part> parts = Collections.synchronizedList(new ArrayList<>());
+
+		private long wallMillis = -1;
+
+		private long cpuMillis;
+
+		private long gcCount;
+
+		private long gcMillis;
+
+		private long peakHeap;
+
+		private final Map<String, Long> threadAllocations = new TreeMap<>();
+
+		private Phase(String name)
+		{
+			this.name = name;
+			long count = 0;
+			long millis = 0;
+			for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			{
+				count += Math.max(0, gc.getCollectionCount());
+				millis += Math.max(0, gc.getCollectionTime());
+			}
+			startGcCount = count;
+			startGcMillis = millis;
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			{
+				if (pool.getType() == MemoryType.HEAP)
+				{
+					pool.resetPeakUsage();
+				}
+			}
+		}
+
+		/**
+		 * Count processed items
+		 *
+		 * @param n number of items
+		 * @return this phase
+		 */
+		Phase items(long n)
+		{
+			items.addAndGet(n);
+			return this;
+		}
+
+		/**
+		 * Count written bytes
+		 *
+		 * @param n number of bytes
+		 * @return this phase
+		 */
+		Phase bytes(long n)
+		{
+			bytes.addAndGet(n);
+			return this;
+		}
+
+		/**
+		 * Wall time
+		 *
+		 * @return milliseconds, -1 if the phase is not closed
+		 */
+		long getWallMillis()
+		{
+			return wallMillis;
+		}
+
+		/**
+		 * Peak heap
+		 *
+		 * @return sum of the peak usages of heap pools during the phase
+		 */
+		long getPeakHeap()
+		{
+			return peakHeap;
+		}
+
+		/**
+		 * Written bytes
+		 *
+		 * @return bytes written so far
+		 */
+		long getBytes()
+		{
+			return bytes.get();
+		}
+
+		/**
+		 * Start part of this phase, on the current thread. Parts may run concurrently; their items and bytes add to the phase's.
+		 *
+		 * @param name part name
+		 * @return part, to be closed on the thread that started it
+		 */
+		Part part(String name)
+		{
+			Part part = new Part(name);
+			parts.add(part);
+			return part;
+		}
+
+		@Override
+		public void close()
+		{
+			wallMillis = (System.nanoTime() - startNanos) / 1_000_000;
+			long cpu = processCpuTime();
+			cpuMillis = cpu == -1 || startCpu == -1 ? -1 : (cpu - startCpu) / 1_000_000;
+
+			long count = 0;
+			long millis = 0;
+			for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			{
+				count += Math.max(0, gc.getCollectionCount());
+				millis += Math.max(0, gc.getCollectionTime());
+			}
+			gcCount = count - startGcCount;
+			gcMillis = millis - startGcMillis;
+
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			{
+				if (pool.getType() == MemoryType.HEAP)
+				{
+					peakHeap += pool.getPeakUsage().getUsed();
+				}
+			}
+
+			// threads alive at the end, then the threads of parts that have terminated since
+			Map<Long, Long> endAllocations = allocations();
+			for (Map.Entry<Long, Long> thread : endAllocations.entrySet())
+			{
+				ThreadInfo info = THREADS.getThreadInfo(thread.getKey());
+				long allocated = thread.getValue() - startAllocations.getOrDefault(thread.getKey(), 0L);
+				if (info != null && allocated > 0)
+				{
+					threadAllocations.merge(info.getThreadName(), allocated, Long::sum);
+				}
+			}
+			synchronized (parts)
+			{
+				for (Part part : parts)
+				{
+					if (!endAllocations.containsKey(part.threadId) && part.allocated > 0)
+					{
+						threadAllocations.merge(part.threadName, part.allocated, Long::sum);
+					}
+				}
+			}
+
+			System.err.printf("Phase %s: %d ms%n", name, wallMillis);
+		}
+
+		/**
+		 * Part of phase, on one thread
+		 */
+		class Part implements AutoCloseable
+		{
+			final String name;
+
+			private final long threadId = Thread.currentThread().getId();
+
+			private final String threadName = Thread.currentThread().getName();
+
+			private final long startNanos = System.nanoTime();
+
+			private final long startCpu = THREAD_CPU ? THREADS.getCurrentThreadCpuTime() : -1;
+
+			private final long startAllocated = allocated(threadId);
+
+			private long items;
+
+			private long bytes;
+
+			private long wallMillis = -1;
+
+			private long cpuMillis;
+
+			private long allocated;
+
+			private Part(String name)
+			{
+				this.name = name;
+			}
+
+			/**
+			 * Count processed items, which add to the phase's
+			 *
+			 * @param n number of items
+			 * @return this part
+			 */
+			Part items(long n)
+			{
+				items += n;
+				Phase.this.items(n);
+				return this;
+			}
+
+			/**
+			 * Count written bytes, which add to the phase's
+			 *
+			 * @param n number of bytes
+			 * @return this part
+			 */
+			Part bytes(long n)
+			{
+				bytes += n;
+				Phase.this.bytes(n);
+				return this;
+			}
+
+			@Override
+			public void close()
+			{
+				wallMillis = (System.nanoTime() - startNanos) / 1_000_000;
+				cpuMillis = startCpu == -1 ? -1 : (THREADS.getCurrentThreadCpuTime() - startCpu) / 1_000_000;
+				allocated = startAllocated == -1 ? -1 : allocated(threadId) - startAllocated;
+			}
+		}
+	}
+
+	// M E A S U R E S
+
+	private static long processCpuTime()
+	{
+		if (OS instanceof com.sun.management.OperatingSystemMXBean)
+		{
+			return ((com.sun.management.OperatingSystemMXBean) OS).getProcessCpuTime();
+		}
+		return -1;
+	}
+
+	private static long allocated(long threadId)
+	{
+		return ALLOCATIONS ? ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(threadId) : -1;
+	}
+
+	/**
+	 * Bytes allocated by live threads
+	 *
+	 * @return allocated bytes, indexed by thread id
+	 */
+	private static Map<Long, Long> allocations()
+	{
+		Map<Long, Long> allocations = new HashMap<>();
+		if (ALLOCATIONS)
+		{
+			long[] ids = THREADS.getAllThreadIds();
+			long[] allocated = ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(ids);
+			for (int i = 0; i < ids.length; i++)
+			{
+				if (allocated[i] != -1)
+				{
+					allocations.put(ids[i], allocated[i]);
+				}
+			}
+		}
+		return allocations;
+	}
+
+	// J S O N
+
+	/**
+	 * Write report as JSON
+	 *
+	 * @param dir output directory
+	 * @throws IOException io
+	 */
+	void write(File dir) throws IOException
+	{
+		long peakHeap = 0;
+		for (Phase phase : phases)
+		{
+			peakHeap = Math.max(peakHeap, phase.peakHeap);
+		}
+		try (PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(dir, FILENAME)), StandardCharsets.UTF_8)))
+		{
+			pw.println("{");
+			pw.printf("  \"started\": %s,%n", quote(start.toString()));
+			for (Map.Entry<String, String> property : properties.entrySet())
+			{
+				pw.printf("  %s: %s,%n", quote(property.getKey()), quote(property.getValue()));
+			}
+			pw.printf("  \"processors\": %d,%n", Runtime.getRuntime().availableProcessors());
+			pw.printf("  \"max_heap_bytes\": %d,%n", Runtime.getRuntime().maxMemory());
+			pw.printf("  \"wall_ms\": %d,%n", totalMillis());
+			pw.printf("  \"peak_heap_bytes\": %d,%n", peakHeap);
+			pw.println("  \"phases\": [");
+			for (int i = 0; i < phases.size(); i++)
+			{
+				Phase phase = phases.get(i);
+				long allocated = ALLOCATIONS ? phase.threadAllocations.values().stream().mapToLong(Long::longValue).sum() : -1;
+				pw.println("    {");
+				pw.printf("      \"name\": %s,%n", quote(phase.name));
+				pw.printf("      \"wall_ms\": %d,%n", phase.wallMillis);
+				pw.printf("      \"cpu_ms\": %d,%n", phase.cpuMillis);
+				pw.printf("      \"allocated_bytes\": %d,%n", allocated);
+				pw.print("      \"allocated_bytes_by_thread\": {");
+				int t = 0;
+				for (Map.Entry<String, Long> thread : phase.threadAllocations.entrySet())
+				{
+					pw.printf("%s%s: %d", t++ == 0 ? "" : ", ", quote(thread.getKey()), thread.getValue());
+				}
+				pw.println("},");
+				pw.printf("      \"gc_count\": %d,%n", phase.gcCount);
+				pw.printf("      \"gc_ms\": %d,%n", phase.gcMillis);
+				pw.printf("      \"peak_heap_bytes\": %d,%n", phase.peakHeap);
+				pw.printf("      \"items\": %d,%n", phase.items.get());
+				pw.printf("      \"bytes_written\": %d,%n", phase.bytes.get());
+				pw.print("      \"parts\": [");
+				synchronized (phase.parts)
+				{
+					for (int j = 0; j < phase.parts.size(); j++)
+					{
+						Phase.Part part = phase.parts.get(j);
+						pw.printf("%n        {\"name\": %s, \"thread\": %s, \"wall_ms\": %d, \"cpu_ms\": %d, \"allocated_bytes\": %d, \"items\": %d, \"bytes_written\": %d}%s", //
+								quote(part.name), quote(part.threadName), part.wallMillis, part.cpuMillis, part.allocated, part.items, part.bytes, j < phase.parts.size() - 1 ? "," : String.format("%n      "));
+					}
+				}
+				pw.println("]");
+				pw.printf("    }%s%n", i < phases.size() - 1 ? "," : "");
+			}
+			pw.println("  ]");
+			pw.println("}");
+		}
+	}
+
+	private static String quote(String s)
+	{
+		StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+		for (char c : s.toCharArray())
+		{
+			switch (c)
+			{
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			default:
+				if (c < 0x20)
+				{
+					sb.append(String.format("\\u%04x", (int) c));
+				}
+				else
+				{
+					sb.append(c);
+				}
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
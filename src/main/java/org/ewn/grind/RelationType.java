@@ -0,0 +1,83 @@
+package org.ewn.grind;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Relation types, as named by the 'relType' attribute of SenseRelation and SynsetRelation elements. They are decoded once, when the model is loaded, so
+ * that relations are coded by table lookup (see Coder).
+ *
+ * @author Bernard Bou
+ */
+enum RelationType
+{
+	ANTONYM("antonym"), //
+	HYPERNYM("hypernym"), //
+	INSTANCE_HYPERNYM("instance_hypernym"), //
+	HYPONYM("hyponym"), //
+	INSTANCE_HYPONYM("instance_hyponym"), //
+	HOLO_MEMBER("holo_member"), //
+	HOLO_SUBSTANCE("holo_substance"), //
+	HOLO_PART("holo_part"), //
+	MERO_MEMBER("mero_member"), //
+	MERO_SUBSTANCE("mero_substance"), //
+	MERO_PART("mero_part"), //
+	ATTRIBUTE("attribute"), //
+	PERTAINYM("pertainym"), //
+	DERIVATION("derivation"), //
+	DOMAIN_TOPIC("domain_topic"), //
+	HAS_DOMAIN_TOPIC("has_domain_topic"), //
+	DOMAIN_REGION("domain_region"), //
+	HAS_DOMAIN_REGION("has_domain_region"), //
+	DOMAIN_USAGE("exemplifies"), //
+	HAS_DOMAIN_USAGE("is_exemplified_by"), //
+	ALSO("also"), //
+	ENTAILS("entails"), //
+	IS_ENTAILED("is_entailed_by"), //
+	SIMILAR("similar"), // similar to (adjectives), verb group (verbs)
+	PARTICIPLE("participle"), //
+	CAUSES("causes"), //
+	IS_CAUSED("is_caused_by");
+
+	/**
+	 * Types, indexed by ordinal
+	 */
+	static final RelationType[] VALUES = values();
+
+	private static final Map<String, RelationType> BY_NAME = new HashMap<>();
+
+	static
+	{
+		for (RelationType type : VALUES)
+		{
+			BY_NAME.put(type.name, type);
+		}
+	}
+
+	/**
+	 * Name, as in the XML file
+	 */
+	private final String name;
+
+	RelationType(String name)
+	{
+		this.name = name;
+	}
+
+	/**
+	 * Decode relation type
+	 *
+	 * @param name name, as in the XML file
+	 * @return relation type, null if unknown
+	 */
+	static RelationType decode(String name)
+	{
+		return BY_NAME.get(name);
+	}
+
+	@Override
+	public String toString()
+	{
+		return name;
+	}
+}
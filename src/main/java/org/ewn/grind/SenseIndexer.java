@@ -1,36 +1,37 @@
 package org.ewn.grind;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import org.ewn.grind.Model.Sense;
+import org.ewn.grind.SortedWriter.Record;
+import org.ewn.grind.SortedWriter.RecordEncoder;
 
-import java.io.PrintStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.function.Function;
 
+/**
+ * This class produces the index.sense file and its variants (index.sense.cased, index.sense.both). Per-sense records (sensekey, lower-cased and
+ * case-folded sensekeys, offset, sense number, tag count) are gathered in one pass into sorted writers and sorted once; the variants are then
+ * streamed from the sorted records, as many as are made.
+ *
+ * @author Bernard Bou
+ */
 public class SenseIndexer
 {
 	// sense_key synset_offset sense_number tag_cnt
 
 	/**
-	 * Format in data file
+	 * Make line in data file: "%s %08d %d %d  "
+	 *
+	 * @param sensekey  sensekey
+	 * @param offset    synset offset
+	 * @param senseNum  sense number
+	 * @param tagCount  tag count
+	 * @return line
 	 */
-	private static final String SENSE_FORMAT = "%s %08d %d %d  ";
-
-	static final Comparator<String> lexicalComparatorLowerFirst = (s1, s2) -> {
-		int c = s1.compareToIgnoreCase(s2);
-		if (c != 0)
-			return c;
-		return -s1.compareTo(s2);
-	};
-
-	static final Comparator<String> lexicalComparatorUpperFirst = (s1, s2) -> {
-		int c = s1.compareToIgnoreCase(s2);
-		if (c != 0)
-			return c;
-		return s1.compareTo(s2);
-	};
+	private static String senseLine(String sensekey, long offset, int senseNum, int tagCount)
+	{
+		return new FieldEncoder().text(sensekey).chr(' ').decimal(offset, 8).chr(' ').decimal(senseNum).chr(' ').decimal(tagCount).ascii("  ").toString();
+	}
 
 	private static class Data
 	{
@@ -66,220 +67,404 @@ public class SenseIndexer
 	}
 
 	/**
-	 * W3C document
+	 * Model
+	 */
+	private final Model model;
+
+	/**
+	 * Synset offsets indexed by synset ordinal
+	 */
+	private final long[] offsets;
+
+	/**
+	 * Tag counts indexed by sense ordinal
+	 */
+	private final SenseTable tagCounts;
+
+	// R E C O R D S
+
+	/**
+	 * Unit flag of the cased line of a sense whose sensekey has upper case
+	 */
+	private static final int CASED = 1;
+
+	/**
+	 * Unit flag of the lower-cased line of a sense whose sensekey has upper case
 	 */
-	private final Document doc;
+	private static final int LOWERED = 2;
 
 	/**
-	 * Synset offsets map indexed by synsetid key
+	 * Lines in case-insensitive order (compareToIgnoreCase then compareTo, as lines): the lower-cased line of each sense, and the cased line of each
+	 * sense whose sensekey has upper case. The key is the case-folded line, then the line, the payload the unit's flags, sense ordinal, length of the
+	 * folded key, offset, sense number, tag count, lower-cased sensekey, and line.
 	 */
-	private final Map<String, Long> offsets;
+	private SortedWriter units;
 
 	/**
-	 * Tag counts map indexed by sensekey
+	 * Lines in cased order (compareTo, as lines), keyed by line
 	 */
-	private final Map<String, Integer> tagCounts;
+	private SortedWriter cased;
+
+	/**
+	 * Number of senses
+	 */
+	private int senseCount;
 
 	/**
 	 * Constructor
 	 *
-	 * @param doc W3C document
-	 * @param offsets synset offsets map indexed by synsetid key
-	 * @param tagCounts map indexed by sensekey
+	 * @param model model
+	 * @param offsets synset offsets indexed by synset ordinal
+	 * @param tagCounts tag counts indexed by sense ordinal
 	 */
-	public SenseIndexer(Document doc, Map<String, Long> offsets, Map<String, Integer> tagCounts)
+	public SenseIndexer(Model model, long[] offsets, SenseTable tagCounts)
 	{
 		super();
-		this.doc = doc;
+		this.model = model;
 		this.offsets = offsets;
 		this.tagCounts = tagCounts;
 	}
 
 	/**
-	 * Make 'index.sense'. Sensekeys are cased.
+	 * Gather per-sense records, once, sensekeys being made in parallel. Records are added in sense order, which breaks ties when sorting.
 	 *
-	 * @param ps print stream
+	 * @param isCased whether to gather the lines in cased order, as well as in case-insensitive order
+	 * @throws IOException io, when spilling
 	 */
-	public void makeIndexCased(PrintStream ps)
+	private void gather(boolean isCased) throws IOException
 	{
-		SortedSet<String> lines = new TreeSet<>(String::compareTo);
-
-		NodeList senseNodes = doc.getElementsByTagName(XmlNames.SENSE_TAG);
-		int n = senseNodes.getLength();
-		assert n >= 1;
+		boolean isUnits = units == null;
+		isCased = isCased && cased == null;
+		if (!isUnits && !isCased)
+		{
+			return;
+		}
+		Sense[] senses = model.senses;
+		int n = senses.length;
+		senseCount = n;
+		String[] keys = new String[n];
+		Parallel.forEachIndex(n, i -> keys[i] = XmlExtractor.getSensekey(senses[i]));
+
+		SortedWriter units = isUnits ? new SortedWriter("sense") : null;
+		SortedWriter cased = isCased ? new SortedWriter("sense.cased") : null;
+		RecordEncoder key = new RecordEncoder();
+		RecordEncoder payload = new RecordEncoder();
 		for (int i = 0; i < n; i++)
 		{
-			Node senseNode = senseNodes.item(i);
-			assert senseNode.getNodeType() == Node.ELEMENT_NODE;
-			Element senseElement = (Element) senseNode;
-
-			String sensekey = XmlExtractor.getSensekey(senseElement);
-			String synsetId = senseElement.getAttribute(XmlNames.SYNSET_ATTR);
-			String nth = senseElement.getAttribute(XmlNames.N_ATTR);
-			long offset = offsets.get(synsetId);
-			int senseNum = Integer.parseInt(nth) + 1;
-			int tagCount = XmlExtractor.getTagCount(senseElement, tagCounts);
-
-			String line = String.format(SENSE_FORMAT, sensekey, offset, senseNum, tagCount);
-			lines.add(line);
+			Sense sense = senses[i];
+			String sensekey = keys[i];
+			long offset = offsets[sense.synset];
+			int senseNum = sense.n + 1;
+			int tagCount = XmlExtractor.getTagCount(sense, tagCounts);
+			if (isUnits)
+			{
+				String lower = sensekey.toLowerCase();
+				if (lower.equals(sensekey))
+				{
+					addUnit(units, key, payload, 0, i, sensekey, sensekey, offset, senseNum, tagCount);
+				}
+				else
+				{
+					addUnit(units, key, payload, LOWERED, i, lower, lower, offset, senseNum, tagCount);
+					addUnit(units, key, payload, CASED, i, sensekey, lower, offset, senseNum, tagCount);
+				}
+			}
+			if (isCased)
+			{
+				key.reset();
+				tail(key.sortable(sensekey), offset, senseNum, tagCount);
+				payload.reset();
+				tail(payload.text(sensekey), offset, senseNum, tagCount).ascii("  ").lineSeparator();
+				cased.add(key, payload);
+			}
+		}
+		if (isUnits)
+		{
+			this.units = units;
 		}
-		for (String line : lines)
+		if (isCased)
 		{
-			ps.println(line);
+			this.cased = cased;
 		}
-		System.err.printf("Senses (cased): %d, %d lines%n", n, lines.size());
 	}
 
 	/**
-	 * Make 'index.sense' in multi-value mode. Each key is a lower-cased sensekey and is unique. The line is extended beyond the first value with extra values.
+	 * Add line unit
 	 *
-	 * @param ps print stream
+	 * @param units    units
+	 * @param key      key encoder
+	 * @param payload  payload encoder
+	 * @param flags    unit flags
+	 * @param ordinal  sense ordinal
+	 * @param unitKey  sensekey of the line
+	 * @param lower    lower-cased sensekey
+	 * @param offset   synset offset
+	 * @param senseNum sense number
+	 * @param tagCount tag count
+	 * @throws IOException io, when spilling
 	 */
-	public void makeIndexLowerMultiValue(PrintStream ps)
+	private static void addUnit(SortedWriter units, RecordEncoder key, RecordEncoder payload, //
+			int flags, int ordinal, String unitKey, String lower, long offset, int senseNum, int tagCount) throws IOException
 	{
-		System.err.print("Senses (lower-cased,multi): ");
-		/*
-		 * // replace LexId with N makeIndexLowerMultiValue(ps, (e) -> { String sk = e.getAttribute(XmlNames.SENSEKEY_ATTR); int p = sk.indexOf('%'); int q =
-		 * sk.indexOf(':', p + 1); int u = sk.indexOf(':', q + 1); int v = sk.indexOf(':', u + 1); String head = sk.substring(0, u); String tail =
-		 * sk.substring(v + 1); int sensenum = Integer.parseInt(e.getAttribute(XmlNames.N_ATTR)); return String.format("%s:%02d:%s", head.toLowerCase(),
-		 * sensenum, tail); });
-		 */
-		makeIndexLowerMultiValue(ps, e -> XmlExtractor.getSensekey(e).toLowerCase());
+		// the key field ends with a space and sensekeys have no whitespace, so folded keys compare the way the lines' heads do
+		key.reset();
+		key.sortable(fold(unitKey));
+		int foldLength = key.size();
+		tail(key, offset, senseNum, tagCount).chr('\0');
+		key.sortable(unitKey);
+		key.chr(' ');
+
+		payload.reset();
+		payload.int8(flags).int32(ordinal).int32(foldLength).int64(offset).int32(senseNum).int32(tagCount);
+		int lowerStart = payload.size() + 4;
+		payload.int32(0);
+		payload.text(lower);
+		int lowerLength = payload.size() - lowerStart;
+		tail(payload.text(unitKey), offset, senseNum, tagCount).ascii("  ").lineSeparator();
+		// patch lower-cased sensekey length
+		payload.buf[lowerStart - 4] = (byte) (lowerLength >>> 24);
+		payload.buf[lowerStart - 3] = (byte) (lowerLength >>> 16);
+		payload.buf[lowerStart - 2] = (byte) (lowerLength >>> 8);
+		payload.buf[lowerStart - 1] = (byte) lowerLength;
+		units.add(key, payload);
 	}
 
-	/*
-	 * Make index.sense (legacy mode) Uses EWN sensekeys (dc:identifier attr).
-	 * @param ps print stream
-	 */
-	/*
-	 * public void makeIndexLegacy(PrintStream ps) { System.err.print("Senses (lower-cased,multi, legacy): "); makeIndexLowerMultiValue(ps, (e) ->
-	 * e.getAttributeNS(XmlNames.NS_DC, XmlNames.SENSEKEY_LEGACY_ATTR)); }
+	/**
+	 * Encode line tail: offset, sense number and tag count, each preceded by a space
+	 *
+	 * @param out      encoder
+	 * @param offset   synset offset
+	 * @param senseNum sense number
+	 * @param tagCount tag count
+	 * @return encoder
 	 */
+	private static FieldEncoder tail(FieldEncoder out, long offset, int senseNum, int tagCount)
+	{
+		return out.chr(' ').decimal(offset, 8).chr(' ').decimal(senseNum).chr(' ').decimal(tagCount);
+	}
 
 	/**
-	 * Make 'index.sense' in multi-value mode. Each key is a lower-cased sensekey and is unique. The line is extended beyond the first value with extra values.
+	 * Case-fold string, so that comparing folded strings with compareTo compares them the way compareToIgnoreCase does
 	 *
-	 * @param ps print stream
-	 * @param keyGetter sensekey getter function
+	 * @param s string
+	 * @return case-folded string, s itself if folding does not change it
 	 */
-	private void makeIndexLowerMultiValue(PrintStream ps, Function<Element, String> keyGetter)
+	private static String fold(String s)
 	{
-		Map<String, LinkedHashSet<Data>> entries = new TreeMap<>(String::compareToIgnoreCase);
+		StringBuilder sb = null;
+		for (int i = 0; i < s.length(); )
+		{
+			int c = s.codePointAt(i);
+			int f = Character.toLowerCase(Character.toUpperCase(c));
+			if (f != c && sb == null)
+			{
+				sb = new StringBuilder(s.length()).append(s, 0, i);
+			}
+			if (sb != null)
+			{
+				sb.appendCodePoint(f);
+			}
+			i += Character.charCount(c);
+		}
+		return sb == null ? s : sb.toString();
+	}
 
-		NodeList senseNodes = doc.getElementsByTagName(XmlNames.SENSE_TAG);
-		int n = senseNodes.getLength();
-		assert n >= 1;
-		for (int i = 0; i < n; i++)
+	/**
+	 * Unit, as read back
+	 */
+	private static class Unit
+	{
+		final int flags;
+
+		final int ordinal;
+
+		final int foldLength;
+
+		final Data data;
+
+		final int lowerStart;
+
+		final int lowerLength;
+
+		final int lineStart;
+
+		final Record record;
+
+		Unit(Record record)
 		{
-			Node senseNode = senseNodes.item(i);
-			assert senseNode.getNodeType() == Node.ELEMENT_NODE;
-			Element senseElement = (Element) senseNode;
-
-			String sensekey = keyGetter.apply(senseElement);
-			String synsetId = senseElement.getAttribute(XmlNames.SYNSET_ATTR);
-			String nth = senseElement.getAttribute(XmlNames.N_ATTR);
-			long offset = offsets.get(synsetId);
-			int senseNum = Integer.parseInt(nth) + 1;
-			int tagCount = XmlExtractor.getTagCount(senseElement, tagCounts);
-
-			// data
-			LinkedHashSet<Data> entry = entries.computeIfAbsent(sensekey, s -> new LinkedHashSet<>());
-			Data data = new Data(offset, senseNum, tagCount);
-			entry.add(data);
+			this.record = record;
+			ByteBuffer payload = record.payload();
+			flags = payload.get();
+			ordinal = payload.getInt();
+			foldLength = payload.getInt();
+			long offset = payload.getLong();
+			int senseNum = payload.getInt();
+			int tagCount = payload.getInt();
+			data = new Data(offset, senseNum, tagCount);
+			lowerLength = payload.getInt();
+			lowerStart = payload.position();
+			lineStart = lowerStart + lowerLength;
 		}
-		for (Map.Entry<String, LinkedHashSet<Data>> entry : entries.entrySet())
+
+		/**
+		 * Whether the sensekeys of this unit and another only differ in case
+		 *
+		 * @param other other unit
+		 * @return whether the folded sensekeys are equal
+		 */
+		boolean foldEquals(Unit other)
 		{
-			StringBuilder sb = new StringBuilder();
-			sb.append(entry.getKey().toLowerCase());
-			LinkedHashSet<Data> values = entry.getValue();
-			List<Data> datas = new ArrayList<>(values);
-			datas.sort(Comparator.comparingInt(d -> d.sensenum));
-			for (Data data : datas)
-				sb.append(String.format(" %08d %d %d", data.offset, data.sensenum, data.tagCnt));
-			ps.println(sb);
+			return foldLength == other.foldLength && record.keyEquals(other.record, foldLength);
 		}
-		System.err.printf("%d, %d lines %n", n, entries.size());
 	}
 
+	// M A K E
+
 	/**
-	 * Make 'index.sense'. Sensekeys are lower-cased. Multiple lines may have the same key, which makes binary search yield unpredictable (non-deterministic)
-	 * results.
+	 * Make 'index.sense'. Sensekeys are cased.
 	 *
-	 * @param ps print stream
+	 * @param sink output sink
+	 * @throws IOException io
 	 */
-	public void makeIndexLowerMultiKey(PrintStream ps)
+	public void makeIndexCased(OutputSink sink) throws IOException
 	{
-		SortedSet<String> lines = new TreeSet<>(lexicalComparatorUpperFirst);
+		gather(true);
+		int[] lines = {0};
+		// skip duplicate lines
+		cased.forEachDistinct(line -> {
+			line.writePayload(sink, 0);
+			lines[0]++;
+		});
+		System.err.printf("Senses (cased): %d, %d lines%n", senseCount, lines[0]);
+	}
 
-		NodeList senseNodes = doc.getElementsByTagName(XmlNames.SENSE_TAG);
-		int n = senseNodes.getLength();
-		assert n >= 1;
-		for (int i = 0; i < n; i++)
+	/**
+	 * Make 'index.sense' in multi-value mode. Each key is a lower-cased sensekey and is unique. The line is extended beyond the first value with extra values.
+	 *
+	 * @param sink output sink
+	 * @throws IOException io
+	 */
+	public void makeIndexLowerMultiValue(OutputSink sink) throws IOException
+	{
+		System.err.print("Senses (lower-cased,multi): ");
+		gather(false);
+
+		// the senses' own (cased) lines, in case-insensitive order, in groups of senses whose sensekeys only differ in case
+		int[] lines = {0};
+		List<Unit> group = new ArrayList<>();
+		FieldEncoder out = new FieldEncoder();
+		units.forEach(record -> {
+			Unit unit = new Unit(record);
+			if ((unit.flags & LOWERED) != 0)
+			{
+				return;
+			}
+			if (!group.isEmpty() && !unit.foldEquals(group.get(0)))
+			{
+				writeGroup(group, out, sink);
+				lines[0]++;
+				group.clear();
+			}
+			group.add(unit);
+		});
+		if (!group.isEmpty())
 		{
-			Node senseNode = senseNodes.item(i);
-			assert senseNode.getNodeType() == Node.ELEMENT_NODE;
-			Element senseElement = (Element) senseNode;
-
-			String sensekey = XmlExtractor.getSensekey(senseElement);
-			String synsetId = senseElement.getAttribute(XmlNames.SYNSET_ATTR);
-			String nth = senseElement.getAttribute(XmlNames.N_ATTR);
-			long offset = offsets.get(synsetId);
-			int senseNum = Integer.parseInt(nth) + 1;
-			int tagCount = XmlExtractor.getTagCount(senseElement, tagCounts);
-
-			String sensekeyLower = sensekey.toLowerCase();
-			String line = String.format(SENSE_FORMAT, sensekeyLower, offset, senseNum, tagCount);
-			lines.add(line);
+			writeGroup(group, out, sink);
+			lines[0]++;
 		}
-		for (String line : lines)
+		System.err.printf("%d, %d lines %n", senseCount, lines[0]);
+	}
+
+	/**
+	 * Write line for senses whose sensekeys only differ in case: the first sensekey (in document order) lower-cased, then distinct values by sense number
+	 *
+	 * @param group units
+	 * @param out   field encoder
+	 * @param sink  output sink
+	 * @throws IOException io
+	 */
+	private static void writeGroup(List<Unit> group, FieldEncoder out, OutputSink sink) throws IOException
+	{
+		group.sort(Comparator.comparingInt(unit -> unit.ordinal));
+		LinkedHashSet<Data> values = new LinkedHashSet<>();
+		for (Unit unit : group)
 		{
-			ps.println(line);
+			values.add(unit.data);
 		}
-		System.err.printf("Senses (lower): %d, %d lines%n", n, lines.size());
+		List<Data> datas = new ArrayList<>(values);
+		datas.sort(Comparator.comparingInt(d -> d.sensenum));
+
+		Unit first = group.get(0);
+		first.record.writePayload(sink, first.lowerStart, first.lowerLength);
+		out.reset();
+		for (Data data : datas)
+			out.chr(' ').decimal(data.offset, 8).chr(' ').decimal(data.sensenum).chr(' ').decimal(data.tagCnt);
+		out.lineSeparator();
+		out.writeTo(sink);
+	}
+
+	/*
+	 * Make index.sense (legacy mode) Uses EWN sensekeys (dc:identifier attr).
+	 * @param sink output sink
+	 */
+	/*
+	 * public void makeIndexLegacy(OutputSink sink) { System.err.print("Senses (lower-cased,multi, legacy): "); makeIndexLowerMultiValue(sink, (e) ->
+	 * e.getAttributeNS(XmlNames.NS_DC, XmlNames.SENSEKEY_LEGACY_ATTR)); }
+	 */
+
+	/**
+	 * Make 'index.sense'. Sensekeys are lower-cased. Multiple lines may have the same key, which makes binary search yield unpredictable (non-deterministic)
+	 * results.
+	 *
+	 * @param sink output sink
+	 * @throws IOException io
+	 */
+	public void makeIndexLowerMultiKey(OutputSink sink) throws IOException
+	{
+		int lines = writeUnits(sink, false);
+		System.err.printf("Senses (lower): %d, %d lines%n", senseCount, lines);
 	}
 
 	/**
 	 * Make 'index.sense' (with both cased and lower-case mode) When the sensekey is cased, two lines are generated, the first with lower-case, the second with
 	 * cased.
 	 *
-	 * @param ps print stream
+	 * @param sink output sink
+	 * @throws IOException io
 	 */
-	public void makeIndexBoth(PrintStream ps)
+	public void makeIndexBoth(OutputSink sink) throws IOException
 	{
-		SortedSet<String> lines = new TreeSet<>(lexicalComparatorUpperFirst);
+		int lines = writeUnits(sink, true);
+		System.err.printf("Senses (both): %d, %d lines %n", senseCount, lines);
+	}
 
-		NodeList senseNodes = doc.getElementsByTagName(XmlNames.SENSE_TAG);
-		int n = senseNodes.getLength();
-		assert n >= 1;
-		for (int i = 0; i < n; i++)
-		{
-			Node senseNode = senseNodes.item(i);
-			assert senseNode.getNodeType() == Node.ELEMENT_NODE;
-			Element senseElement = (Element) senseNode;
-
-			String sensekey = XmlExtractor.getSensekey(senseElement);
-			String synsetId = senseElement.getAttribute(XmlNames.SYNSET_ATTR);
-			String nth = senseElement.getAttribute(XmlNames.N_ATTR);
-			long offset = offsets.get(synsetId);
-			int senseNum = Integer.parseInt(nth) + 1;
-			int tagCount = XmlExtractor.getTagCount(senseElement, tagCounts);
-
-			// lowercase first
-			String sensekeyLower = sensekey.toLowerCase();
-			String line = String.format(SENSE_FORMAT, sensekeyLower, offset, senseNum, tagCount);
-			lines.add(line);
-
-			// cased second if needed
-			if (!sensekey.equals(sensekeyLower))
+	/**
+	 * Write lines in case-insensitive order, skipping duplicate lines
+	 *
+	 * @param sink  output sink
+	 * @param cased whether to write the cased lines of senses whose sensekeys have upper case, as well as the lower-cased ones
+	 * @return number of lines
+	 * @throws IOException io
+	 */
+	private int writeUnits(OutputSink sink, boolean cased) throws IOException
+	{
+		gather(false);
+		int[] lines = {0};
+		Record[] previous = new Record[1];
+		units.forEach(record -> {
+			if (!cased && (record.payload().get() & CASED) != 0)
 			{
-				String line2 = String.format(SENSE_FORMAT, sensekey, offset, senseNum, tagCount);
-				lines.add(line2);
+				return;
 			}
-		}
-		for (String line : lines)
-		{
-			ps.println(line);
-		}
-		System.err.printf("Senses (both): %d, %d lines %n", n, lines.size());
+			if (previous[0] != null && record.keyEquals(previous[0], -1))
+			{
+				return;
+			}
+			Unit unit = new Unit(record);
+			record.writePayload(sink, unit.lineStart);
+			previous[0] = record;
+			lines[0]++;
+		});
+		return lines[0];
 	}
 }
@@ -0,0 +1,76 @@
+package org.ewn.grind;
+
+import org.ewn.grind.Model.Sense;
+
+import java.util.Arrays;
+
+/**
+ * Int values indexed by sense ordinal (tag counts, verb template ids), as bound from a sidecar table keyed by sensekey. The values of sense i are
+ * values[starts[i]..starts[i+1]).
+ *
+ * @author Bernard Bou
+ */
+public class SenseTable
+{
+	private static final int[] NO_VALUES = new int[0];
+
+	private final int[] starts;
+
+	private final int[] values;
+
+	/**
+	 * Constructor
+	 *
+	 * @param starts start of the values of each sense, followed by the end of the values of the last sense
+	 * @param values values
+	 */
+	SenseTable(int[] starts, int[] values)
+	{
+		this.starts = starts;
+		this.values = values;
+	}
+
+	/**
+	 * Number of senses that have values
+	 *
+	 * @return number of senses that have values
+	 */
+	public int size()
+	{
+		int n = 0;
+		for (int i = 0; i < starts.length - 1; i++)
+		{
+			if (starts[i + 1] > starts[i])
+			{
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * First value of sense
+	 *
+	 * @param sense        sense
+	 * @param defaultValue value if the sense has none
+	 * @return first value of sense
+	 */
+	public int get(Sense sense, int defaultValue)
+	{
+		int start = starts[sense.ordinal];
+		return starts[sense.ordinal + 1] > start ? values[start] : defaultValue;
+	}
+
+	/**
+	 * Values of sense
+	 *
+	 * @param sense sense
+	 * @return values of sense, empty if the sense has none
+	 */
+	public int[] getAll(Sense sense)
+	{
+		int start = starts[sense.ordinal];
+		int end = starts[sense.ordinal + 1];
+		return end > start ? Arrays.copyOfRange(values, start, end) : NO_VALUES;
+	}
+}
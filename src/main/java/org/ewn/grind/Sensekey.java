@@ -0,0 +1,181 @@
+package org.ewn.grind;
+
+/**
+ * Sensekey decoded from a sense id, along with the lemma and lexid it holds. Ids escape the characters that are not allowed in XML ids (-ap- for ', -lb-
+ * for (, ...) and use '.' where sensekeys have ':'. They are decoded in a single scan. Immutable.
+ *
+ * @author Bernard Bou
+ */
+class Sensekey
+{
+	private static final String PREFIX = "oewn-";
+
+	/**
+	 * Escape sequences, in the order they used to be replaced in
+	 */
+	private static final String[] ESCAPES = {"-ap-", "-lb-", "-rb-", "-sl-", "-cm-", "-ex-", "-cl-", "-pl-", "-sp-"};
+
+	/**
+	 * Characters the escape sequences stand for
+	 */
+	private static final char[] UNESCAPED = {'\'', '(', ')', '/', ',', '!', ':', '+', '_'};
+
+	/**
+	 * Sensekey (lemma%tail)
+	 */
+	final String sensekey;
+
+	/**
+	 * Lemma, as it is in the sensekey
+	 */
+	final String lemma;
+
+	/**
+	 * Lexid, -1 if the id has none
+	 */
+	private final int lexid;
+
+	private final String id;
+
+	private Sensekey(String id, String sensekey, String lemma, int lexid)
+	{
+		this.id = id;
+		this.sensekey = sensekey;
+		this.lemma = lemma;
+		this.lexid = lexid;
+	}
+
+	/**
+	 * Lexid
+	 *
+	 * @return lexid
+	 * @throws IllegalArgumentException when the id holds no lexid
+	 */
+	int getLexid()
+	{
+		if (lexid == -1)
+		{
+			throw new IllegalArgumentException("No lexid in " + id);
+		}
+		return lexid;
+	}
+
+	/**
+	 * Decode sense id
+	 *
+	 * @param id sense id
+	 * @return decoded sensekey
+	 */
+	static Sensekey decode(String id)
+	{
+		int start = id.startsWith(PREFIX) ? PREFIX.length() : 0;
+		int b = id.indexOf("__", start);
+		if (b == -1)
+		{
+			throw new StringIndexOutOfBoundsException("No lemma separator in " + id);
+		}
+
+		// lexid, 2 digits after lex_filenum (lemma__ss.ff.ii.)
+		int l = b + 2 + 5;
+		int lexid = l + 2 <= id.length() && isDigit(id.charAt(l)) && isDigit(id.charAt(l + 1)) ? (id.charAt(l) - '0') * 10 + id.charAt(l + 1) - '0' : -1;
+
+		StringBuilder sb = new StringBuilder(id.length() - start);
+		if (!unescape(id, start, b, false, sb))
+		{
+			return decodeChained(id, lexid);
+		}
+		String lemma = sb.toString();
+		sb.append('%');
+		if (!unescape(id, b + 2, id.length(), true, sb))
+		{
+			return decodeChained(id, lexid);
+		}
+		return new Sensekey(id, sb.toString(), lemma, lexid);
+	}
+
+	/**
+	 * Unescape part of id
+	 *
+	 * @param s    id
+	 * @param from start of part
+	 * @param to   end of part, exclusive
+	 * @param dots whether '.' stands for ':'
+	 * @param sb   receives unescaped part
+	 * @return false if escape sequences overlap (share a '-'), in which case the result depends on the order escapes are replaced in
+	 */
+	private static boolean unescape(String s, int from, int to, boolean dots, StringBuilder sb)
+	{
+		int i = from;
+		while (i < to)
+		{
+			char c = s.charAt(i);
+			if (c == '-')
+			{
+				int e = escapeAt(s, i, to);
+				if (e != -1)
+				{
+					if (escapeAt(s, i + 3, to) != -1)
+					{
+						return false;
+					}
+					sb.append(UNESCAPED[e]);
+					i += 4;
+					continue;
+				}
+			}
+			sb.append(dots && c == '.' ? ':' : c);
+			i++;
+		}
+		return true;
+	}
+
+	/**
+	 * Escape sequence at position
+	 *
+	 * @return index of escape sequence, -1 if none
+	 */
+	private static int escapeAt(String s, int i, int to)
+	{
+		if (i + 4 > to || s.charAt(i) != '-' || s.charAt(i + 3) != '-')
+		{
+			return -1;
+		}
+		for (int e = 0; e < ESCAPES.length; e++)
+		{
+			if (s.charAt(i + 1) == ESCAPES[e].charAt(1) && s.charAt(i + 2) == ESCAPES[e].charAt(2))
+			{
+				return e;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isDigit(char c)
+	{
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * Decode by replacing escape sequences one kind after the other, for ids whose escape sequences overlap
+	 */
+	private static Sensekey decodeChained(String id, int lexid)
+	{
+		String sk = id.startsWith(PREFIX) ? id.substring(PREFIX.length()) : id;
+		int b = sk.indexOf("__");
+		String lemma = sk.substring(0, b);
+		String tail = sk.substring(b + 2).replace(".", ":");
+		for (int e = 0; e < ESCAPES.length; e++)
+		{
+			String unescaped = String.valueOf(UNESCAPED[e]);
+			lemma = lemma.replace(ESCAPES[e], unescaped);
+			tail = tail.replace(ESCAPES[e], unescaped);
+		}
+		return new Sensekey(id, lemma + '%' + tail, lemma, lexid);
+	}
+
+	@Override
+	public String toString()
+	{
+		return sensekey;
+	}
+}
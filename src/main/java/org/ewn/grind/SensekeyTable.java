@@ -0,0 +1,466 @@
+package org.ewn.grind;
+
+import org.ewn.grind.Model.Sense;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Table of int values keyed by sensekey, decoded from a memory-mapped sidecar file (tag.cnt, sentidx.vrb) without regular expressions nor per-line
+ * strings. Keys are not copied: they are slices of the mapped file, hashed into an open-addressing table; the values of all keys are kept in one int
+ * array. The table is bound to the senses of a model to get a table indexed by sense ordinal, after which it may be dropped.
+ *
+ * @author Bernard Bou
+ */
+public class SensekeyTable
+{
+	/**
+	 * Mapped file
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * Number of keys
+	 */
+	private int size;
+
+	// entries, indexed by entry
+
+	private int[] keyStarts = new int[1024];
+
+	private int[] keyLengths = new int[1024];
+
+	private int[] hashes = new int[1024];
+
+	private int[] valueStarts = new int[1024];
+
+	private int[] valueLengths = new int[1024];
+
+	/**
+	 * Values of all entries
+	 */
+	private int[] values = new int[4096];
+
+	private int valueCount;
+
+	/**
+	 * Open-addressing slots, holding entry + 1, 0 if empty
+	 */
+	private int[] slots = new int[2048];
+
+	private SensekeyTable(ByteBuffer buffer)
+	{
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Map sidecar file
+	 *
+	 * @param file sidecar file
+	 * @return empty table over the mapped file
+	 * @throws IOException io
+	 */
+	static SensekeyTable map(File file) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file.toPath()))
+		{
+			if (channel.size() > Integer.MAX_VALUE)
+			{
+				throw new IllegalArgumentException("Too large " + file);
+			}
+			return new SensekeyTable(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Number of keys
+	 *
+	 * @return number of keys
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	// P U T
+
+	/**
+	 * Put values for the key that is the first field of the current line, replacing those of an earlier line with the same key
+	 *
+	 * @param fields fields of the current line
+	 * @param vals   values
+	 * @param n      number of values
+	 * @throws ArrayIndexOutOfBoundsException if the line has no fields
+	 */
+	void put(Fields fields, int[] vals, int n)
+	{
+		if (fields.count <= 0)
+		{
+			throw new ArrayIndexOutOfBoundsException(0);
+		}
+		int keyStart = fields.starts[0];
+		int keyLength = fields.ends[0] - keyStart;
+		int hash = hash(keyStart, keyLength);
+		int mask = slots.length - 1;
+		int slot = hash & mask;
+		int entry;
+		while ((entry = slots[slot] - 1) != -1)
+		{
+			if (hashes[entry] == hash && equals(keyStarts[entry], keyLengths[entry], keyStart, keyLength))
+			{
+				break;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (entry == -1)
+		{
+			entry = size++;
+			if (entry == keyStarts.length)
+			{
+				int capacity = 2 * entry;
+				keyStarts = Arrays.copyOf(keyStarts, capacity);
+				keyLengths = Arrays.copyOf(keyLengths, capacity);
+				hashes = Arrays.copyOf(hashes, capacity);
+				valueStarts = Arrays.copyOf(valueStarts, capacity);
+				valueLengths = Arrays.copyOf(valueLengths, capacity);
+			}
+			keyStarts[entry] = keyStart;
+			keyLengths[entry] = keyLength;
+			hashes[entry] = hash;
+			slots[slot] = entry + 1;
+			if (2 * size > slots.length)
+			{
+				rehash();
+			}
+		}
+		if (valueCount + n > values.length)
+		{
+			values = Arrays.copyOf(values, Math.max(2 * values.length, valueCount + n));
+		}
+		System.arraycopy(vals, 0, values, valueCount, n);
+		valueStarts[entry] = valueCount;
+		valueLengths[entry] = n;
+		valueCount += n;
+	}
+
+	private void rehash()
+	{
+		slots = new int[2 * slots.length];
+		int mask = slots.length - 1;
+		for (int entry = 0; entry < size; entry++)
+		{
+			int slot = hashes[entry] & mask;
+			while (slots[slot] != 0)
+			{
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = entry + 1;
+		}
+	}
+
+	// F I N D
+
+	/**
+	 * Find key
+	 *
+	 * @param key UTF-8 bytes of sensekey
+	 * @return entry, -1 if not found
+	 */
+	private int find(byte[] key)
+	{
+		int hash = 0;
+		for (byte b : key)
+		{
+			hash = 31 * hash + b;
+		}
+		hash = spread(hash);
+		int mask = slots.length - 1;
+		for (int slot = hash & mask; ; slot = (slot + 1) & mask)
+		{
+			int entry = slots[slot] - 1;
+			if (entry == -1)
+			{
+				return -1;
+			}
+			if (hashes[entry] == hash && equals(keyStarts[entry], keyLengths[entry], key))
+			{
+				return entry;
+			}
+		}
+	}
+
+	/**
+	 * Values for sensekey
+	 *
+	 * @param sensekey sensekey
+	 * @return values, null if not found
+	 */
+	public int[] get(String sensekey)
+	{
+		int entry = find(sensekey.getBytes(StandardCharsets.UTF_8));
+		return entry == -1 ? null : Arrays.copyOfRange(values, valueStarts[entry], valueStarts[entry] + valueLengths[entry]);
+	}
+
+	private int hash(int start, int length)
+	{
+		int hash = 0;
+		for (int i = start; i < start + length; i++)
+		{
+			hash = 31 * hash + buffer.get(i);
+		}
+		return spread(hash);
+	}
+
+	private static int spread(int hash)
+	{
+		return hash ^ (hash >>> 16);
+	}
+
+	private boolean equals(int start1, int length1, int start2, int length2)
+	{
+		if (length1 != length2)
+		{
+			return false;
+		}
+		for (int i = 0; i < length1; i++)
+		{
+			if (buffer.get(start1 + i) != buffer.get(start2 + i))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean equals(int start, int length, byte[] key)
+	{
+		if (length != key.length)
+		{
+			return false;
+		}
+		for (int i = 0; i < length; i++)
+		{
+			if (buffer.get(start + i) != key[i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// B I N D
+
+	/**
+	 * Bind to the senses of model, senses being looked up in parallel
+	 *
+	 * @param model model
+	 * @return values indexed by sense ordinal
+	 */
+	public SenseTable bind(Model model)
+	{
+		Sense[] senses = model.senses;
+		int n = senses.length;
+		int[] entries = new int[n];
+		Parallel.forEachIndex(n, i -> entries[i] = find(XmlExtractor.getSensekey(senses[i]).getBytes(StandardCharsets.UTF_8)));
+		int[] starts = new int[n + 1];
+		for (int i = 0; i < n; i++)
+		{
+			starts[i + 1] = starts[i] + (entries[i] == -1 ? 0 : valueLengths[entries[i]]);
+		}
+		int[] bound = new int[starts[n]];
+		Parallel.forEachIndex(n, i -> {
+			if (entries[i] != -1)
+			{
+				System.arraycopy(values, valueStarts[entries[i]], bound, starts[i], valueLengths[entries[i]]);
+			}
+		});
+		return new SenseTable(starts, bound);
+	}
+
+	// F I E L D S
+
+	/**
+	 * Fields of the current line of the mapped file
+	 *
+	 * @param commas whether commas separate fields, as well as whitespace
+	 * @return line cursor, before the first line
+	 */
+	Fields fields(boolean commas)
+	{
+		return new Fields(commas);
+	}
+
+	/**
+	 * Line cursor that splits lines into fields the way String.split("\\s+") (or String.split("[\\s,]+") if commas separate fields too) does, lines
+	 * being terminated the way BufferedReader.readLine() terminates them
+	 */
+	class Fields
+	{
+		private final boolean commas;
+
+		private int position;
+
+		private int line;
+
+		private int lineStart;
+
+		private int lineEnd;
+
+		private int[] starts = new int[16];
+
+		private int[] ends = new int[16];
+
+		private int count;
+
+		private Fields(boolean commas)
+		{
+			this.commas = commas;
+		}
+
+		/**
+		 * Move to next line
+		 *
+		 * @return false if there are no more lines
+		 */
+		boolean next()
+		{
+			int limit = buffer.limit();
+			if (position >= limit)
+			{
+				return false;
+			}
+			line++;
+			lineStart = position;
+			int i = position;
+			while (i < limit && buffer.get(i) != '\n' && buffer.get(i) != '\r')
+			{
+				i++;
+			}
+			lineEnd = i;
+			if (i < limit && buffer.get(i) == '\r' && i + 1 < limit && buffer.get(i + 1) == '\n')
+			{
+				i++;
+			}
+			position = i + 1;
+			count = -1;
+			return true;
+		}
+
+		/**
+		 * Line number
+		 *
+		 * @return 1-based number of the current line
+		 */
+		int line()
+		{
+			return line;
+		}
+
+		/**
+		 * Whether the line is empty or starts with a space
+		 *
+		 * @return whether the line is to be skipped
+		 */
+		boolean isSkipped()
+		{
+			return lineStart == lineEnd || buffer.get(lineStart) == ' ';
+		}
+
+		/**
+		 * Split the current line. Separators at the start yield an empty first field (fields being separated by runs of separators, it is the only
+		 * empty one), trailing ones yield none.
+		 *
+		 * @return number of fields
+		 */
+		int split()
+		{
+			count = 0;
+			int i = lineStart;
+			while (i < lineEnd)
+			{
+				int start = i;
+				while (i < lineEnd && !isSeparator(buffer.get(i)))
+				{
+					i++;
+				}
+				int end = i;
+				while (i < lineEnd && isSeparator(buffer.get(i)))
+				{
+					i++;
+				}
+				if (count == starts.length)
+				{
+					starts = Arrays.copyOf(starts, 2 * count);
+					ends = Arrays.copyOf(ends, 2 * count);
+				}
+				starts[count] = start;
+				ends[count] = end;
+				count++;
+			}
+			// trailing empty fields are removed, as is a lone empty one
+			while (count > 0 && starts[count - 1] == ends[count - 1])
+			{
+				count--;
+			}
+			return count;
+		}
+
+		private boolean isSeparator(byte b)
+		{
+			return b == ' ' || b == '\t' || b == 0x0B || b == '\f' || commas && b == ',';
+		}
+
+		/**
+		 * Parse field as an int
+		 *
+		 * @param field field index
+		 * @return int value
+		 * @throws ArrayIndexOutOfBoundsException if the line has no such field
+		 * @throws NumberFormatException          if the field is not an int
+		 */
+		int parseInt(int field)
+		{
+			if (field >= count)
+			{
+				throw new ArrayIndexOutOfBoundsException(field);
+			}
+			int start = starts[field];
+			int end = ends[field];
+			int i = start;
+			boolean negative = false;
+			if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+'))
+			{
+				negative = buffer.get(i) == '-';
+				i++;
+			}
+			if (i < end && end - i <= 9)
+			{
+				int value = 0;
+				for (; i < end; i++)
+				{
+					int digit = buffer.get(i) - '0';
+					if (digit < 0 || digit > 9)
+					{
+						break;
+					}
+					value = 10 * value + digit;
+				}
+				if (i == end)
+				{
+					return negative ? -value : value;
+				}
+			}
+			// not a plain int: the general case, with its errors
+			byte[] bytes = new byte[end - start];
+			for (int j = 0; j < bytes.length; j++)
+			{
+				bytes[j] = buffer.get(start + j);
+			}
+			return Integer.parseInt(new String(bytes, StandardCharsets.UTF_8));
+		}
+	}
+}
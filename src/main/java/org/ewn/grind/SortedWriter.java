@@ -0,0 +1,812 @@
+package org.ewn.grind;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorted output engine. Records, made of a key and a payload (both bytes), are added in any order and read back in the unsigned byte order of their
+ * keys, records with equal keys in the order they were added, so that readers may merge them (first wins, last wins, union) as groups.
+ * <p>
+ * Records are held in a byte arena and sorted by a most-significant-byte radix sort of record indexes, the buckets of the first byte being sorted in
+ * parallel. When the memory budget (Flags.SORT_BUDGET) would be exceeded, records are sorted and spilled to a temporary file as a sorted run; reading
+ * then merges the runs and the records still in memory, k ways. Beyond MAX_FAN_IN runs, consecutive runs are first merged in batches into longer runs,
+ * so that no more than MAX_FAN_IN run files are open at once. Records may be read more than once, until the writer is closed.
+ *
+ * @author Bernard Bou
+ */
+class SortedWriter implements Closeable
+{
+	/**
+	 * Buckets below this size are insertion-sorted
+	 */
+	private static final int INSERTION_THRESHOLD = 32;
+
+	/**
+	 * Memory per record on top of its bytes: start, key length, payload length, order and sort buffer
+	 */
+	private static final int RECORD_OVERHEAD = 20;
+
+	/**
+	 * Maximum number of runs merged at once
+	 */
+	static final int MAX_FAN_IN = 64;
+
+	/**
+	 * Name, that prefixes the names of the run files
+	 */
+	private final String name;
+
+	/**
+	 * Memory budget in bytes
+	 */
+	private final long budget;
+
+	/**
+	 * Record bytes, key then payload
+	 */
+	private byte[] arena = new byte[1 << 16];
+
+	private int used;
+
+	// records, indexed by record
+
+	private int[] starts = new int[1024];
+
+	private int[] keyLengths = new int[1024];
+
+	private int[] payloadLengths = new int[1024];
+
+	private int count;
+
+	/**
+	 * Records in key order, null if not sorted
+	 */
+	private int[] order;
+
+	/**
+	 * Spilled sorted runs, in spill order
+	 */
+	private final List<File> runs = new ArrayList<>();
+
+	/**
+	 * Number of records added
+	 */
+	private long size;
+
+	/**
+	 * Encoders of lines
+	 */
+	private final RecordEncoder lineKey = new RecordEncoder();
+
+	private final RecordEncoder linePayload = new RecordEncoder();
+
+	/**
+	 * Constructor
+	 *
+	 * @param name name, that prefixes the names of the run files
+	 */
+	SortedWriter(String name)
+	{
+		this(name, Flags.SORT_BUDGET);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param name   name, that prefixes the names of the run files
+	 * @param budget memory budget in bytes, 0 spilling every record but the last (Grinder only accepts positive budgets)
+	 */
+	SortedWriter(String name, long budget)
+	{
+		this.name = name;
+		this.budget = Math.min(budget, Integer.MAX_VALUE - 8);
+	}
+
+	/**
+	 * Number of records added
+	 *
+	 * @return number of records
+	 */
+	long size()
+	{
+		return size;
+	}
+
+	/**
+	 * Number of sorted runs spilled so far
+	 *
+	 * @return number of runs
+	 */
+	int getRunCount()
+	{
+		return runs.size();
+	}
+
+	// A D D
+
+	/**
+	 * Add record
+	 *
+	 * @param key     key encoder
+	 * @param payload payload encoder
+	 * @throws IOException io, when spilling
+	 */
+	void add(RecordEncoder key, RecordEncoder payload) throws IOException
+	{
+		add(key.buf, key.count, payload.buf, payload.count);
+	}
+
+	/**
+	 * Add record
+	 *
+	 * @param key           key bytes
+	 * @param keyLength     key length
+	 * @param payload       payload bytes
+	 * @param payloadLength payload length
+	 * @throws IOException io, when spilling
+	 */
+	void add(byte[] key, int keyLength, byte[] payload, int payloadLength) throws IOException
+	{
+		int length = keyLength + payloadLength;
+		if (count > 0 && used + length + (long) (count + 1) * RECORD_OVERHEAD > budget)
+		{
+			spill();
+		}
+		if (used + length > arena.length)
+		{
+			arena = Arrays.copyOf(arena, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(2L * arena.length, used + length)));
+		}
+		if (count == starts.length)
+		{
+			int capacity = 2 * count;
+			starts = Arrays.copyOf(starts, capacity);
+			keyLengths = Arrays.copyOf(keyLengths, capacity);
+			payloadLengths = Arrays.copyOf(payloadLengths, capacity);
+		}
+		System.arraycopy(key, 0, arena, used, keyLength);
+		System.arraycopy(payload, 0, arena, used + keyLength, payloadLength);
+		starts[count] = used;
+		keyLengths[count] = keyLength;
+		payloadLengths[count] = payloadLength;
+		used += length;
+		count++;
+		size++;
+		order = null;
+	}
+
+	/**
+	 * Add line, keyed by itself, its payload being the line as println() writes it
+	 *
+	 * @param line line
+	 * @throws IOException io, when spilling
+	 */
+	void addLine(String line) throws IOException
+	{
+		lineKey.reset();
+		lineKey.sortable(line);
+		linePayload.reset();
+		linePayload.text(line).lineSeparator();
+		add(lineKey, linePayload);
+	}
+
+	/**
+	 * Sort records in memory and spill them to a run file
+	 */
+	private void spill() throws IOException
+	{
+		sort();
+		File run = createRun();
+		runs.add(run);
+		try (DataOutputStream out = openRun(run))
+		{
+			for (int r : order)
+			{
+				out.writeInt(keyLengths[r]);
+				out.writeInt(payloadLengths[r]);
+				out.write(arena, starts[r], keyLengths[r] + payloadLengths[r]);
+			}
+		}
+		used = 0;
+		count = 0;
+		order = null;
+	}
+
+	/**
+	 * Create run file, deleted on exit if not before
+	 *
+	 * @return run file
+	 * @throws IOException io
+	 */
+	private File createRun() throws IOException
+	{
+		File run = File.createTempFile("grind-" + name + '-', ".run");
+		run.deleteOnExit();
+		return run;
+	}
+
+	private static DataOutputStream openRun(File run) throws IOException
+	{
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16));
+	}
+
+	/**
+	 * Merge consecutive runs in batches of MAX_FAN_IN, pass after pass, until no more than MAX_FAN_IN runs are left. Merged runs replace their
+	 * batch in place, and ties are broken by run order, so that records with equal keys stay in the order they were added.
+	 *
+	 * @throws IOException io
+	 */
+	private void mergeRuns() throws IOException
+	{
+		while (runs.size() > MAX_FAN_IN)
+		{
+			List<File> merged = new ArrayList<>();
+			for (int from = 0; from < runs.size(); from += MAX_FAN_IN)
+			{
+				List<File> batch = runs.subList(from, Math.min(from + MAX_FAN_IN, runs.size()));
+				if (batch.size() == 1)
+				{
+					merged.add(batch.get(0));
+					continue;
+				}
+				List<Source> sources = new ArrayList<>();
+				File run = createRun();
+				merged.add(run);
+				try (DataOutputStream out = openRun(run))
+				{
+					for (File batchRun : batch)
+					{
+						sources.add(new RunSource(batchRun));
+					}
+					merge(sources, record -> {
+						out.writeInt(record.keyLength);
+						out.writeInt(record.payloadLength);
+						out.write(record.bytes, record.keyOffset, record.keyLength + record.payloadLength);
+					});
+				}
+				finally
+				{
+					for (Source source : sources)
+					{
+						source.close();
+					}
+				}
+				for (File batchRun : batch)
+				{
+					// noinspection ResultOfMethodCallIgnored
+					batchRun.delete();
+				}
+			}
+			runs.clear();
+			runs.addAll(merged);
+		}
+	}
+
+	// S O R T
+
+	/**
+	 * Sort records in memory, the buckets of the first byte in parallel
+	 */
+	private void sort()
+	{
+		if (order != null)
+		{
+			return;
+		}
+		int[] order = new int[count];
+		for (int r = 0; r < count; r++)
+		{
+			order[r] = r;
+		}
+		int[] buffer = new int[count];
+		if (count >= INSERTION_THRESHOLD)
+		{
+			int[] bounds = distribute(order, buffer, 0, count, 0);
+			Parallel.forEachIndex(256, b -> sort(order, buffer, bounds[b + 1], bounds[b + 2], 1));
+		}
+		else
+		{
+			insertionSort(order, 0, count, 0);
+		}
+		this.order = order;
+	}
+
+	/**
+	 * Sort records in [lo, hi) that have equal keys up to depth
+	 */
+	private void sort(int[] order, int[] buffer, int lo, int hi, int depth)
+	{
+		if (hi - lo < INSERTION_THRESHOLD)
+		{
+			insertionSort(order, lo, hi, depth);
+			return;
+		}
+		int[] bounds = distribute(order, buffer, lo, hi, depth);
+		// bucket 0, that of keys that end at depth, is in insertion order
+		for (int b = 1; b <= 256; b++)
+		{
+			if (bounds[b + 1] - bounds[b] > 1)
+			{
+				sort(order, buffer, bounds[b], bounds[b + 1], depth + 1);
+			}
+		}
+	}
+
+	/**
+	 * Distribute records in [lo, hi) into buckets by byte at depth, stably
+	 *
+	 * @return bucket bounds, bucket b being [bounds[b], bounds[b + 1]), bucket 0 being that of keys that end before depth
+	 */
+	private int[] distribute(int[] order, int[] buffer, int lo, int hi, int depth)
+	{
+		int[] bounds = new int[258];
+		for (int i = lo; i < hi; i++)
+		{
+			bounds[byteAt(order[i], depth) + 2]++;
+		}
+		bounds[0] = lo;
+		for (int b = 1; b < 258; b++)
+		{
+			bounds[b] += bounds[b - 1];
+		}
+		int[] next = bounds.clone();
+		for (int i = lo; i < hi; i++)
+		{
+			int r = order[i];
+			buffer[next[byteAt(r, depth) + 1]++] = r;
+		}
+		System.arraycopy(buffer, lo, order, lo, hi - lo);
+		return bounds;
+	}
+
+	/**
+	 * Byte of key
+	 *
+	 * @return unsigned byte of key at depth, -1 if the key is shorter
+	 */
+	private int byteAt(int r, int depth)
+	{
+		return depth < keyLengths[r] ? arena[starts[r] + depth] & 0xFF : -1;
+	}
+
+	/**
+	 * Stable insertion sort of records in [lo, hi) that have equal keys up to depth
+	 */
+	private void insertionSort(int[] order, int lo, int hi, int depth)
+	{
+		for (int i = lo + 1; i < hi; i++)
+		{
+			int r = order[i];
+			int j = i - 1;
+			while (j >= lo && compare(arena, starts[order[j]] + depth, keyLengths[order[j]] - depth, arena, starts[r] + depth, keyLengths[r] - depth) > 0)
+			{
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = r;
+		}
+	}
+
+	/**
+	 * Compare keys as unsigned bytes, shorter first if one is a prefix of the other
+	 */
+	private static int compare(byte[] bytes1, int offset1, int length1, byte[] bytes2, int offset2, int length2)
+	{
+		int n = Math.min(length1, length2);
+		for (int i = 0; i < n; i++)
+		{
+			int c = (bytes1[offset1 + i] & 0xFF) - (bytes2[offset2 + i] & 0xFF);
+			if (c != 0)
+			{
+				return c;
+			}
+		}
+		return length1 - length2;
+	}
+
+	// R E A D
+
+	/**
+	 * Record, as read back. It is valid until records are added or the writer is closed.
+	 */
+	static final class Record
+	{
+		private final byte[] bytes;
+
+		private final int keyOffset;
+
+		private final int keyLength;
+
+		private final int payloadLength;
+
+		private Record(byte[] bytes, int keyOffset, int keyLength, int payloadLength)
+		{
+			this.bytes = bytes;
+			this.keyOffset = keyOffset;
+			this.keyLength = keyLength;
+			this.payloadLength = payloadLength;
+		}
+
+		/**
+		 * Payload
+		 *
+		 * @return payload, as a big-endian buffer positioned at its start
+		 */
+		ByteBuffer payload()
+		{
+			return ByteBuffer.wrap(bytes, keyOffset + keyLength, payloadLength).slice();
+		}
+
+		/**
+		 * Write payload bytes to sink
+		 *
+		 * @param sink   output sink
+		 * @param offset offset in payload
+		 * @throws IOException io
+		 */
+		void writePayload(OutputSink sink, int offset) throws IOException
+		{
+			sink.write(bytes, keyOffset + keyLength + offset, payloadLength - offset);
+		}
+
+		/**
+		 * Write payload bytes to sink
+		 *
+		 * @param sink   output sink
+		 * @param offset offset in payload
+		 * @param length number of bytes
+		 * @throws IOException io
+		 */
+		void writePayload(OutputSink sink, int offset, int length) throws IOException
+		{
+			sink.write(bytes, keyOffset + keyLength + offset, length);
+		}
+
+		/**
+		 * Whether this record's key starts with that of another record
+		 *
+		 * @param other  other record
+		 * @param length length of the keys' prefix to compare, -1 for the whole keys
+		 * @return whether the keys (or their prefixes) are equal
+		 */
+		boolean keyEquals(Record other, int length)
+		{
+			int length1 = length == -1 ? keyLength : Math.min(length, keyLength);
+			int length2 = length == -1 ? other.keyLength : Math.min(length, other.keyLength);
+			return compare(bytes, keyOffset, length1, other.bytes, other.keyOffset, length2) == 0;
+		}
+
+		private int compareTo(Record other)
+		{
+			return compare(bytes, keyOffset, keyLength, other.bytes, other.keyOffset, other.keyLength);
+		}
+	}
+
+	/**
+	 * Record consumer
+	 */
+	interface RecordConsumer
+	{
+		void accept(Record record) throws IOException;
+	}
+
+	/**
+	 * Group consumer
+	 */
+	interface GroupConsumer
+	{
+		/**
+		 * Accept records with equal keys
+		 *
+		 * @param group records with equal keys, in the order they were added
+		 * @throws IOException io
+		 */
+		void accept(List<Record> group) throws IOException;
+	}
+
+	/**
+	 * Sorted source of records: the records in memory or a run file
+	 */
+	private interface Source extends Closeable
+	{
+		/**
+		 * Advance
+		 *
+		 * @return next record, null if there are no more
+		 */
+		Record next() throws IOException;
+	}
+
+	private class MemorySource implements Source
+	{
+		private int i;
+
+		@Override
+		public Record next()
+		{
+			if (i == order.length)
+			{
+				return null;
+			}
+			int r = order[i++];
+			return new Record(arena, starts[r], keyLengths[r], payloadLengths[r]);
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+
+	private static class RunSource implements Source
+	{
+		private final DataInputStream in;
+
+		private RunSource(File run) throws IOException
+		{
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+		}
+
+		@Override
+		public Record next() throws IOException
+		{
+			int keyLength;
+			try
+			{
+				keyLength = in.readInt();
+			}
+			catch (EOFException e)
+			{
+				return null;
+			}
+			int payloadLength = in.readInt();
+			byte[] bytes = new byte[keyLength + payloadLength];
+			in.readFully(bytes);
+			return new Record(bytes, 0, keyLength, payloadLength);
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Head record of source, ordered by key then by source, earlier sources holding earlier records
+	 */
+	private static class Head implements Comparable<Head>
+	{
+		final Source source;
+
+		final int index;
+
+		Record record;
+
+		Head(Source source, int index)
+		{
+			this.source = source;
+			this.index = index;
+		}
+
+		@Override
+		public int compareTo(Head other)
+		{
+			int c = record.compareTo(other.record);
+			return c != 0 ? c : Integer.compare(index, other.index);
+		}
+	}
+
+	/**
+	 * Read records in key order, records with equal keys in the order they were added
+	 *
+	 * @param consumer record consumer
+	 * @throws IOException io
+	 */
+	void forEach(RecordConsumer consumer) throws IOException
+	{
+		sort();
+		if (runs.isEmpty())
+		{
+			Source source = new MemorySource();
+			for (Record record = source.next(); record != null; record = source.next())
+			{
+				consumer.accept(record);
+			}
+			return;
+		}
+
+		// k-way merge, of no more than MAX_FAN_IN runs and the records in memory
+		mergeRuns();
+		List<Source> sources = new ArrayList<>();
+		try
+		{
+			for (File run : runs)
+			{
+				sources.add(new RunSource(run));
+			}
+			sources.add(new MemorySource());
+			merge(sources, consumer);
+		}
+		finally
+		{
+			for (Source source : sources)
+			{
+				source.close();
+			}
+		}
+	}
+
+	/**
+	 * Merge sorted sources k ways, records with equal keys in source order
+	 *
+	 * @param sources  sorted sources, earlier sources holding earlier records
+	 * @param consumer record consumer
+	 * @throws IOException io
+	 */
+	private static void merge(List<Source> sources, RecordConsumer consumer) throws IOException
+	{
+		PriorityQueue<Head> heads = new PriorityQueue<>(sources.size());
+		for (int i = 0; i < sources.size(); i++)
+		{
+			Head head = new Head(sources.get(i), i);
+			head.record = head.source.next();
+			if (head.record != null)
+			{
+				heads.add(head);
+			}
+		}
+		while (!heads.isEmpty())
+		{
+			Head head = heads.poll();
+			consumer.accept(head.record);
+			head.record = head.source.next();
+			if (head.record != null)
+			{
+				heads.add(head);
+			}
+		}
+	}
+
+	/**
+	 * Read records in groups of records with equal keys, in key order
+	 *
+	 * @param consumer group consumer
+	 * @throws IOException io
+	 */
+	void forEachGroup(GroupConsumer consumer) throws IOException
+	{
+		List<Record> group = new ArrayList<>();
+		forEach(record -> {
+			if (!group.isEmpty() && !record.keyEquals(group.get(0), -1))
+			{
+				consumer.accept(group);
+				group.clear();
+			}
+			group.add(record);
+		});
+		if (!group.isEmpty())
+		{
+			consumer.accept(group);
+		}
+	}
+
+	/**
+	 * Read the first record of each group of records with equal keys, in key order, duplicates being dropped
+	 *
+	 * @param consumer record consumer
+	 * @throws IOException io
+	 */
+	void forEachDistinct(RecordConsumer consumer) throws IOException
+	{
+		Record[] previous = new Record[1];
+		forEach(record -> {
+			if (previous[0] == null || !record.keyEquals(previous[0], -1))
+			{
+				consumer.accept(record);
+				previous[0] = record;
+			}
+		});
+	}
+
+	/**
+	 * Delete run files and release memory
+	 */
+	@Override
+	public void close()
+	{
+		for (File run : runs)
+		{
+			// noinspection ResultOfMethodCallIgnored
+			run.delete();
+		}
+		runs.clear();
+		arena = new byte[0];
+		used = 0;
+		count = 0;
+		order = null;
+	}
+
+	// E N C O D E R
+
+	/**
+	 * Encoder of record keys and payloads
+	 */
+	static class RecordEncoder extends FieldEncoder
+	{
+		/**
+		 * Text as a sort key, each UTF-16 char being encoded on its own (surrogates included) the way UTF-8 encodes code points, so that keys compare
+		 * as unsigned bytes the way strings compare with String.compareTo()
+		 *
+		 * @param s text
+		 * @return this encoder
+		 */
+		RecordEncoder sortable(String s)
+		{
+			int n = s.length();
+			if (count + 3 * n > buf.length)
+			{
+				buf = Arrays.copyOf(buf, Math.max(2 * buf.length, count + 3 * n));
+			}
+			for (int i = 0; i < n; i++)
+			{
+				char c = s.charAt(i);
+				if (c < 0x80)
+				{
+					buf[count++] = (byte) c;
+				}
+				else if (c < 0x800)
+				{
+					buf[count++] = (byte) (0xC0 | c >> 6);
+					buf[count++] = (byte) (0x80 | c & 0x3F);
+				}
+				else
+				{
+					buf[count++] = (byte) (0xE0 | c >> 12);
+					buf[count++] = (byte) (0x80 | c >> 6 & 0x3F);
+					buf[count++] = (byte) (0x80 | c & 0x3F);
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * Byte
+		 *
+		 * @param value value
+		 * @return this encoder
+		 */
+		RecordEncoder int8(int value)
+		{
+			chr((char) (value & 0xFF));
+			return this;
+		}
+
+		/**
+		 * Big-endian int
+		 *
+		 * @param value value
+		 * @return this encoder
+		 */
+		RecordEncoder int32(int value)
+		{
+			int8(value >>> 24).int8(value >>> 16).int8(value >>> 8).int8(value);
+			return this;
+		}
+
+		/**
+		 * Big-endian long
+		 *
+		 * @param value value
+		 * @return this encoder
+		 */
+		RecordEncoder int64(long value)
+		{
+			int32((int) (value >>> 32)).int32((int) value);
+			return this;
+		}
+	}
+}
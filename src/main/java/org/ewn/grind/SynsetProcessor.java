@@ -1,25 +1,26 @@
 package org.ewn.grind;
 
 import org.ewn.grind.Data.*;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import org.ewn.grind.Model.Sense;
+import org.ewn.grind.Model.SenseRelation;
+import org.ewn.grind.Model.Synset;
+import org.ewn.grind.Model.SynsetRelation;
 
 import java.util.*;
-import java.util.function.ToLongFunction;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntToLongFunction;
 
 /**
- * This abstract class iterates over the synset elements to produce a line of data. The real classes implement some functions differently.
+ * This abstract class iterates over the synsets to produce a line of data. The real classes implement some functions differently.
  *
  * @author Bernard Bou
  */
 public abstract class SynsetProcessor
 {
-	/**
-	 * Format in data file
+	/*
+	 * Format in data file: "%08d %02d %c %s %s%s | %s%s  \n"
 	 */
-	private static final String SYNSET_FORMAT = "%08d %02d %c %s %s%s | %s%s  \n";
 	// offset
 	// lexfilenum
 	// pos
@@ -30,58 +31,30 @@ public abstract class SynsetProcessor
 	// example
 
 	/**
-	 * XPath for noun synset elements
-	 */
-	protected static final String NOUN_SYNSET_XPATH = String.format("/%s/%s/%s[@%s='n']", //
-			XmlNames.LEXICALRESOURCE_TAG, XmlNames.LEXICON_TAG, XmlNames.SYNSET_TAG, XmlNames.POS_ATTR);
-
-	/**
-	 * XPath for verb synset elements
-	 */
-	protected static final String VERB_SYNSET_XPATH = String.format("/%s/%s/%s[@%s='v']", //
-			XmlNames.LEXICALRESOURCE_TAG, XmlNames.LEXICON_TAG, XmlNames.SYNSET_TAG, XmlNames.POS_ATTR);
-
-	/**
-	 * XPath for adj synset elements
-	 */
-	protected static final String ADJ_SYNSET_XPATH = String.format("/%s/%s/%s[@%s='a' or @%s='s']", //
-			XmlNames.LEXICALRESOURCE_TAG, XmlNames.LEXICON_TAG, XmlNames.SYNSET_TAG, XmlNames.POS_ATTR, XmlNames.POS_ATTR);
-
-	/**
-	 * XPath for adv synset elements
+	 * Model
 	 */
-	protected static final String ADV_SYNSET_XPATH = String.format("/%s/%s/%s[@%s='r']", //
-			XmlNames.LEXICALRESOURCE_TAG, XmlNames.LEXICON_TAG, XmlNames.SYNSET_TAG, XmlNames.POS_ATTR);
+	protected final Model model;
 
 	/**
-	 * W3C document
+	 * Function that, when applied to a synset ordinal, yields the synset offset in the data files. May be dummy constant function.
 	 */
-	protected final Document doc;
+	protected final IntToLongFunction offsetFunction;
 
 	/**
-	 * Map of sense elements by synsetid
+	 * Report incompatibility counts (indexed by cause), thread-safe as lines may be produced concurrently
 	 */
-	protected final Map<String, List<Element>> sensesBySynsetId;
-
-	/**
-	 * Synset elements mapped by id
-	 */
-	protected final Map<String, Element> synsetsById;
-
-	/**
-	 * Sense elements mapped by id
-	 */
-	protected final Map<String, Element> sensesById;
+	protected final Map<String, Integer> incompats;
 
 	/**
-	 * Function that, when applied to a synsetId, yields the synset offset in the data files. May be dummy constant function.
+	 * Members indexed by synset ordinal, built on first use and shared by the synset's own line and by the lines whose relations point to its members.
+	 * Threads racing to build the members of a synset build equal ones.
 	 */
-	protected final ToLongFunction<String> offsetFunction;
+	private final AtomicReferenceArray<Members> members;
 
 	/**
-	 * Report incompatibility counts (indexed by cause)
+	 * 1-based member numbers indexed by sense ordinal, set before the members of the sense's synset are published
 	 */
-	protected final Map<String, Integer> incompats;
+	private final int[] memberNums;
 
 	/**
 	 * Log error flag (avoid duplicate messages)
@@ -94,20 +67,16 @@ public abstract class SynsetProcessor
 	/**
 	 * Constructor
 	 *
-	 * @param doc              W3C document
-	 * @param sensesBySynsetId map of sense elements indexed with key=synsetId
-	 * @param synsetsById      synset elements mapped by id
-	 * @param sensesById       sense elements mapped by id
-	 * @param offsetFunction   function that, when applied to a synsetId, yields the synset offset in the data files. May be dummy constant function.
+	 * @param model          model
+	 * @param offsetFunction function that, when applied to a synset ordinal, yields the synset offset in the data files. May be dummy constant function.
 	 */
-	protected SynsetProcessor(Document doc, Map<String, List<Element>> sensesBySynsetId, Map<String, Element> synsetsById, Map<String, Element> sensesById, ToLongFunction<String> offsetFunction)
+	protected SynsetProcessor(Model model, IntToLongFunction offsetFunction)
 	{
-		this.doc = doc;
-		this.sensesBySynsetId = sensesBySynsetId;
-		this.synsetsById = synsetsById;
-		this.sensesById = sensesById;
+		this.model = model;
 		this.offsetFunction = offsetFunction;
-		this.incompats = new HashMap<>();
+		this.incompats = new ConcurrentHashMap<>();
+		this.members = new AtomicReferenceArray<>(model.synsets.length);
+		this.memberNums = new int[model.senses.length];
 	}
 
 	/**
@@ -117,11 +86,11 @@ public abstract class SynsetProcessor
 	{
 		public final boolean isSenseRelation;
 
-		public final String relType;
+		public final RelationType relType;
 
-		public final String target;
+		public final int target;
 
-		XMLRelation(boolean isSenseRelation, String relType, String target)
+		XMLRelation(boolean isSenseRelation, RelationType relType, int target)
 		{
 			this.isSenseRelation = isSenseRelation;
 			this.relType = relType;
@@ -142,13 +111,13 @@ public abstract class SynsetProcessor
 				return false;
 			}
 			XMLRelation that = (XMLRelation) other;
-			return isSenseRelation == that.isSenseRelation && Objects.equals(relType, that.relType) && Objects.equals(target, that.target);
+			return isSenseRelation == that.isSenseRelation && target == that.target && relType == that.relType;
 		}
 
 		@Override
 		public int hashCode()
 		{
-			return Objects.hash(isSenseRelation, relType, target);
+			return 31 * (31 * Boolean.hashCode(isSenseRelation) + relType.hashCode()) + target;
 		}
 
 		// order
@@ -161,12 +130,12 @@ public abstract class SynsetProcessor
 			{
 				return c;
 			}
-			c = this.relType.compareTo(other.relType);
+			c = this.relType.toString().compareTo(other.relType.toString());
 			if (c != 0)
 			{
 				return c;
 			}
-			return this.relType.compareTo(other.relType);
+			return this.relType.toString().compareTo(other.relType.toString());
 		}
 
 		// string
@@ -178,39 +147,19 @@ public abstract class SynsetProcessor
 		}
 	}
 
-	private Members buildMembers(List<Element> senseElements)
-	{
-		Members members = new Members();
-		assert !senseElements.isEmpty();
-		for (Element senseElement : senseElements)
-		{
-			Member member = buildMember(senseElement);
-			members.add(member);
-		}
-		assert senseElements.size() == members.size();
-		return members;
-	}
-
-	private Member buildMember(Element senseElement)
+	private static Member buildMember(Sense sense)
 	{
 		// order
-		int order = XmlExtractor.getOrder(senseElement, synsetsById);
+		int order = XmlExtractor.getOrder(sense);
 
 		// lexid
-		int lexid = XmlExtractor.getLexid(senseElement);
+		int lexid = XmlExtractor.getLexid(sense);
 
 		// adj position
-		String adjPosition = XmlExtractor.getAdjPosition(senseElement);
+		String adjPosition = XmlExtractor.getAdjPosition(sense);
 
-		// lexical entry element
-		Node lexEntryNode = senseElement.getParentNode();
-		assert lexEntryNode.getNodeType() == Node.ELEMENT_NODE;
-		Element lexEntryElement = (Element) lexEntryNode;
-
-		// lemma element
-		Element lemmaElement = XmlUtils.getUniqueChildElement(lexEntryElement, XmlNames.LEMMA_TAG);
-		assert lemmaElement != null;
-		String lemma = lemmaElement.getAttribute(XmlNames.WRITTENFORM_ATTR);
+		// lemma
+		String lemma = sense.entry.lemma;
 
 		String escaped = Formatter.escape(lemma);
 		return adjPosition.isEmpty() ? new Member(escaped, lexid, order) : new AdjMember(escaped, lexid, order, adjPosition);
@@ -219,62 +168,68 @@ public abstract class SynsetProcessor
 	/**
 	 * Get data and yield line
 	 *
-	 * @param synsetElement synset element
-	 * @param offset        allocated offset for the synset
+	 * @param synset synset
+	 * @param offset allocated offset for the synset
 	 * @return line
 	 */
-	protected String getData(Element synsetElement, long offset)
+	protected String getData(Synset synset, long offset)
+	{
+		FieldEncoder out = new FieldEncoder();
+		encodeData(synset, offset, out, null);
+		return out.toString();
+	}
+
+	/**
+	 * Encode data line, recording where offset fields are in it
+	 *
+	 * @param synset  synset
+	 * @param offset  allocated offset for the synset
+	 * @param out     encoder the line is appended to
+	 * @param patches if not null, receives the positions in encoder of the line's offset fields (own offset first, then relation targets), along with the
+	 *                ordinal of the synset whose offset goes there
+	 */
+	protected void encodeData(Synset synset, long offset, FieldEncoder out, Patches patches)
 	{
 		// init
 		List<Relation> relations = new ArrayList<>();
+		int[] relationTargets = patches == null ? null : new int[countRelations(synset)];
 		Frames frames = new Frames();
 
 		// attribute data
-		String synsetId = synsetElement.getAttribute(XmlNames.ID_ATTR);
-		char pos = synsetElement.getAttribute(XmlNames.POS_ATTR).charAt(0);
+		char pos = synset.pos;
 
 		// senses
-		List<Element> senseElements = sensesBySynsetId.get(synsetId);
-		assert !senseElements.isEmpty();
+		int[] senses = synset.senses;
+		assert senses.length > 0;
 
-		// build members ordered set
-		Members members = buildMembers(senseElements);
+		// members ordered set
+		Members members = getMembers(synset);
 
 		// definition and examples
-		// Element definitionElement = XmlUtils.getUniqueChildElement(synsetElement, XmlNames.DEFINITION_TAG);
-		// allow multiple definitions
-		// Element definitionElement = XmlUtils.getFirstChildElement(synsetElement, XmlNames.DEFINITION_TAG);
-		// and join them
-		List<Element> definitionElements = XmlUtils.getChildElements(synsetElement, XmlNames.DEFINITION_TAG);
-		List<Element> exampleElements = XmlUtils.getChildElements(synsetElement, XmlNames.EXAMPLE_TAG);
+		// allow multiple definitions and join them
+		String[] definitions = synset.definitions;
+		String[] examples = synset.examples;
 
 		// lexfile num
-		int lexfilenum = buildLexfileNum(synsetElement);
+		int lexfilenum = buildLexfileNum(synset);
 
 		// synset relations
-		NodeList semRelationNodes = synsetElement.getElementsByTagName(XmlNames.SYNSETRELATION_TAG);
-		int nSem = semRelationNodes.getLength();
 		Set<XMLRelation> xmlSemRelationSet = new LinkedHashSet<>();
-		for (int r = 0; r < nSem; r++)
+		for (SynsetRelation semRelation : synset.relations)
 		{
-			Node semRelationNode = semRelationNodes.item(r);
-			assert semRelationNode.getNodeType() == Node.ELEMENT_NODE;
-			Element semRelationElement = (Element) semRelationNode;
-			String type = semRelationElement.getAttribute(XmlNames.RELTYPE_ATTR);
-			String targetSynsetId = semRelationElement.getAttribute(XmlNames.TARGET_ATTR);
-			XMLRelation xmlRelation = new XMLRelation(false, type, targetSynsetId);
+			XMLRelation xmlRelation = new XMLRelation(false, semRelation.relType, semRelation.target);
 			boolean wasThere = !xmlSemRelationSet.add(xmlRelation);
 			if (wasThere && log())
 			{
-				System.err.printf("[W] Synset %s duplicate %s%n", synsetElement.getAttribute(XmlNames.ID_ATTR), xmlRelation);
+				System.err.printf("[W] Synset %s duplicate %s%n", synset.id, xmlRelation);
 			}
 		}
 		for (XMLRelation xmlRelation : xmlSemRelationSet)
 		{
-			Element targetSynsetElement = synsetsById.get(xmlRelation.target);
+			Synset targetSynset = model.synsets[xmlRelation.target];
 
 			long targetOffset = this.offsetFunction.applyAsLong(xmlRelation.target);
-			char targetPos = targetSynsetElement.getAttribute(XmlNames.POS_ATTR).charAt(0);
+			char targetPos = targetSynset.pos;
 			Relation relation;
 			try
 			{
@@ -283,8 +238,7 @@ public abstract class SynsetProcessor
 			catch (CompatException e)
 			{
 				String cause = e.getCause().getMessage();
-				int count = this.incompats.computeIfAbsent(cause, c -> 0) + 1;
-				this.incompats.put(cause, count);
+				this.incompats.merge(cause, 1, Integer::sum);
 				continue;
 			}
 			catch (IllegalArgumentException e)
@@ -292,22 +246,27 @@ public abstract class SynsetProcessor
 				if (log())
 				{
 					String cause = e.getClass().getName() + ' ' + e.getMessage();
-					System.err.printf("Illegal relation %s id=%s offset=%d%n", cause, synsetElement.getAttribute("id"), offset);
+					System.err.printf("Illegal relation %s id=%s offset=%d%n", cause, synset.id, offset);
 				}
 				throw e;
 			}
+			if (relationTargets != null)
+			{
+				relationTargets[relations.size()] = xmlRelation.target;
+			}
 			relations.add(relation);
 		}
 
-		// iterate sense elements that have this synset element as target in "synset" attribute
-		for (Element senseElement : senseElements)
+		// iterate senses that have this synset as target in "synset" attribute
+		for (int i = 0; i < senses.length; i++)
 		{
+			Sense sense = model.senses[senses[i]];
+
 			// member
-			Member member = buildMember(senseElement);
-			int memberIndex = members.indexOf(member) + 1;
+			int memberIndex = members.memberNum(i);
 
 			// verb frames attribute
-			String vframes = XmlExtractor.getVerbFrames(senseElement);
+			String vframes = XmlExtractor.getVerbFrames(sense);
 			if (!vframes.isEmpty())
 			{
 				String[] vframeIds = vframes.split("\\s+");
@@ -321,155 +280,197 @@ public abstract class SynsetProcessor
 					catch (CompatException e)
 					{
 						String cause = e.getCause().getMessage();
-						int count = this.incompats.computeIfAbsent(cause, c -> 0) + 1;
-						this.incompats.put(cause, count);
+						this.incompats.merge(cause, 1, Integer::sum);
 					}
 				}
 			}
 
 			// sense relations
-			NodeList lexRelationNodes = senseElement.getElementsByTagName(XmlNames.SENSERELATION_TAG);
-			int nLex = lexRelationNodes.getLength();
 			Set<XMLRelation> xmlLexRelationSet = new LinkedHashSet<>();
-			for (int r = 0; r < nLex; r++)
+			for (SenseRelation lexRelation : sense.relations)
 			{
-				Node lexRelationNode = lexRelationNodes.item(r);
-				assert lexRelationNode.getNodeType() == Node.ELEMENT_NODE;
-				Element lexRelationElement = (Element) lexRelationNode;
-				String type = lexRelationElement.getAttribute(XmlNames.RELTYPE_ATTR);
-				String targetSenseId = lexRelationElement.getAttribute(XmlNames.TARGET_ATTR);
-				XMLRelation xmlRelation = new XMLRelation(true, type, targetSenseId);
+				XMLRelation xmlRelation = new XMLRelation(true, lexRelation.relType, lexRelation.target);
 				boolean wasThere = !xmlLexRelationSet.add(xmlRelation);
 				if (wasThere && log())
 				{
-					System.err.printf("[W] Sense %s duplicate %s%n", senseElement.getAttribute(XmlNames.ID_ATTR), xmlRelation);
+					System.err.printf("[W] Sense %s duplicate %s%n", sense.id, xmlRelation);
 				}
 			}
 			for (XMLRelation xmlRelation : xmlLexRelationSet)
 			{
-				Element targetSenseElement = sensesById.get(xmlRelation.target);
-				String targetSynsetId = targetSenseElement.getAttribute(XmlNames.SYNSET_ATTR);
-				Element targetSynsetElement = synsetsById.get(targetSynsetId);
+				Sense targetSense = model.senses[xmlRelation.target];
+				Synset targetSynset = model.synsets[targetSense.synset];
 
 				Relation relation;
 				try
 				{
-					relation = buildLexRelation(xmlRelation.relType, pos, memberIndex, targetSenseElement, targetSynsetElement, targetSynsetId);
+					relation = buildLexRelation(xmlRelation.relType, pos, memberIndex, targetSense, targetSynset);
 				}
 				catch (CompatException e)
 				{
 					String cause = e.getCause().getMessage();
-					int count = this.incompats.computeIfAbsent(cause, c -> 0) + 1;
-					this.incompats.put(cause, count);
+					this.incompats.merge(cause, 1, Integer::sum);
 					continue;
 				}
 				catch (IllegalArgumentException e)
 				{
 					String cause = e.getClass().getName() + ' ' + e.getMessage();
-					System.err.printf("Illegal relation %s id=%s offset=%d%n", cause, synsetElement.getAttribute("id"), offset);
+					System.err.printf("Illegal relation %s id=%s offset=%d%n", cause, synset.id, offset);
 					// throw e;
 					continue;
 				}
+				if (relationTargets != null)
+				{
+					relationTargets[relations.size()] = targetSynset.ordinal;
+				}
 				relations.add(relation);
 			}
 		}
 
 		// assemble
-		String membersData = members.toWndbString();
-		String relatedData = Formatter.joinNum(relations, "%03d", Relation::toWndbString);
-		String verbframesData = frames.toWndbString(pos, members.size());
-		if (!verbframesData.isEmpty())
+		// own offset
+		if (patches != null)
 		{
-			verbframesData = ' ' + verbframesData;
+			patches.add(out.size(), synset.ordinal);
 		}
-		assert definitionElements != null;
-		String definitionsData = Formatter.join(definitionElements, "; ", false, Element::getTextContent);
-		String examplesData = exampleElements == null || exampleElements.isEmpty() ? "" : "; " + Formatter.joinAndQuote(exampleElements, ' ', false, Element::getTextContent);
-		return String.format(SYNSET_FORMAT, offset, lexfilenum, pos, membersData, relatedData, verbframesData, definitionsData, examplesData);
+		out.decimal(offset, 8).chr(' ').decimal(lexfilenum, 2).chr(' ').chr(pos).chr(' ');
+		members.encode(out);
+		out.chr(' ').decimal(relations.size(), 3);
+		for (int i = 0; i < relations.size(); i++)
+		{
+			Relation relation = relations.get(i);
+			out.chr(' ');
+			// target offset follows ptr_symbol and a space
+			if (patches != null)
+			{
+				patches.add(out.size() + relation.ptrSymbol.length() + 1, relationTargets[i]);
+			}
+			relation.encode(out);
+		}
+		frames.encode(out, pos, members.size());
+		out.ascii(" | ");
+		assert definitions.length > 0;
+		for (int i = 0; i < definitions.length; i++)
+		{
+			if (i > 0)
+			{
+				out.ascii("; ");
+			}
+			out.text(definitions[i]);
+		}
+		for (int i = 0; i < examples.length; i++)
+		{
+			out.ascii(i == 0 ? "; " : " ");
+			out.quoted(examples[i]);
+		}
+		out.ascii("  \n");
+	}
+
+	/**
+	 * Count relations in synset and its senses, before duplicates and incompatible ones are dropped
+	 *
+	 * @param synset synset
+	 * @return upper bound of relation count in line
+	 */
+	private int countRelations(Synset synset)
+	{
+		int count = synset.relations.length;
+		for (int sense : synset.senses)
+		{
+			count += model.senses[sense].relations.length;
+		}
+		return count;
 	}
 
 	/**
 	 * Collect lemmas that are member of this synset
 	 *
-	 * @param synsetElement    synset element
-	 * @param sensesBySynsetId senses by synsetId
-	 * @param synsetsById      synsets by synsetId
+	 * @param synset synset
+	 * @param model  model
 	 * @return ordered set of lemma members
 	 */
-	public static Members buildMembers(Element synsetElement, Map<String, List<Element>> sensesBySynsetId, Map<String, Element> synsetsById)
+	public static Members buildMembers(Synset synset, Model model)
 	{
-		Members members = new Members();
-		String synsetId = synsetElement.getAttribute(XmlNames.ID_ATTR);
-		List<Element> senseElements = sensesBySynsetId.get(synsetId);
-		assert !senseElements.isEmpty();
-		for (Element senseElement : senseElements)
+		int[] senses = synset.senses;
+		assert senses.length > 0;
+		Member[] senseMembers = new Member[senses.length];
+		for (int i = 0; i < senses.length; i++)
 		{
-			Node lexEntryNode = senseElement.getParentNode();
-			assert lexEntryNode.getNodeType() == Node.ELEMENT_NODE;
-			Element lexEntryElement = (Element) lexEntryNode;
-			Element lemmaElement = XmlUtils.getUniqueChildElement(lexEntryElement, XmlNames.LEMMA_TAG);
-			assert lemmaElement != null;
-
-			int lexid = XmlExtractor.getLexid(senseElement);
-			int order = XmlExtractor.getOrder(senseElement, synsetsById);
-			String lemma = lemmaElement.getAttribute(XmlNames.WRITTENFORM_ATTR);
-			Member member = new Member(lemma, lexid, order);
-			members.add(member);
+			senseMembers[i] = buildMember(model.senses[senses[i]]);
 		}
-		return members;
+		return new Members(senseMembers);
+	}
+
+	/**
+	 * Get members of this synset, building them on first use
+	 *
+	 * @param synset synset
+	 * @return ordered set of lemma members
+	 */
+	protected Members getMembers(Synset synset)
+	{
+		Members synsetMembers = members.get(synset.ordinal);
+		if (synsetMembers == null)
+		{
+			synsetMembers = buildMembers(synset, model);
+			int[] senses = synset.senses;
+			for (int i = 0; i < senses.length; i++)
+			{
+				memberNums[senses[i]] = synsetMembers.memberNum(i);
+			}
+			members.set(synset.ordinal, synsetMembers);
+		}
+		return synsetMembers;
+	}
+
+	/**
+	 * Get member number of this sense in its synset
+	 *
+	 * @param sense sense
+	 * @return 1-based member number
+	 */
+	protected int getMemberNum(Sense sense)
+	{
+		getMembers(model.synsets[sense.synset]);
+		return memberNums[sense.ordinal];
 	}
 
 	/**
 	 * Build relation
 	 *
-	 * @param type                relation type
-	 * @param pos                 part of speech
-	 * @param lemmaIndex          lemmaIndex
-	 * @param targetSenseElement  target sense element
-	 * @param targetSynsetElement target synset element
-	 * @param targetSynsetId      target synsetid
+	 * @param type         relation type
+	 * @param pos          part of speech
+	 * @param lemmaIndex   lemmaIndex
+	 * @param targetSense  target sense
+	 * @param targetSynset target synset
 	 * @return relation
 	 * @throws CompatException when relation is not legacy compatible
 	 */
-	protected Relation buildLexRelation(String type, char pos, int lemmaIndex, Element targetSenseElement, Element targetSynsetElement, String targetSynsetId) throws CompatException
+	protected Relation buildLexRelation(RelationType type, char pos, int lemmaIndex, Sense targetSense, Synset targetSynset) throws CompatException
 	{
-		// target synset members
-		Members targetMembers = buildMembers(targetSynsetElement, sensesBySynsetId, synsetsById);
-
 		// target synset member
-		Node targetLexEntryNode = targetSenseElement.getParentNode();
-		assert targetLexEntryNode.getNodeType() == Node.ELEMENT_NODE;
-		Element targetLexEntryElement = (Element) targetLexEntryNode;
-		Element targetLemmaElement = XmlUtils.getUniqueChildElement(targetLexEntryElement, XmlNames.LEMMA_TAG);
-		assert targetLemmaElement != null;
-		int targetLexid = XmlExtractor.getLexid(targetSenseElement);
-		int targetOrder = XmlExtractor.getOrder(targetSenseElement, synsetsById);
-		String targetLemma = targetLemmaElement.getAttribute(XmlNames.WRITTENFORM_ATTR);
-		Member targetMember = new Member(targetLemma, targetLexid, targetOrder);
-
-		// which
-		int targetMemberNum = targetMembers.indexOf(targetMember);
-		char targetPos = targetSynsetElement.getAttribute(XmlNames.POS_ATTR).charAt(0);
-		long targetOffset = this.offsetFunction.applyAsLong(targetSynsetId);
-		return new Relation(type, pos, targetPos, targetOffset, lemmaIndex, targetMemberNum + 1);
+		int targetMemberNum = getMemberNum(targetSense);
+		char targetPos = targetSynset.pos;
+		long targetOffset = this.offsetFunction.applyAsLong(targetSynset.ordinal);
+		return new Relation(type, pos, targetPos, targetOffset, lemmaIndex, targetMemberNum);
 	}
 
 	/**
 	 * Build lexfile num (result does not matter in terms of output format length)
 	 *
-	 * @param synsetElement synset element
+	 * @param synset synset
 	 * @return lexfile num
 	 */
-	protected int buildLexfileNum(Element synsetElement)
+	protected int buildLexfileNum(Synset synset)
 	{
-		String lexfile = synsetElement.getAttributeNS(XmlNames.NS_DC, XmlNames.LEXFILE_ATTR);
+		String lexfile = synset.lexfile;
 		try
 		{
 			return Coder.codeLexFile(lexfile);
 		}
 		catch (Exception e)
 		{
-			throw new IllegalArgumentException("Lexfile " + lexfile + " in " + synsetElement.getAttribute(XmlNames.ID_ATTR));
+			throw new IllegalArgumentException("Lexfile " + lexfile + " in " + synset.id);
 		}
 	}
 
@@ -480,7 +481,7 @@ public abstract class SynsetProcessor
 	{
 		if (this.incompats.size() > 0)
 		{
-			for (Map.Entry<String, Integer> entry : incompats.entrySet())
+			for (Map.Entry<String, Integer> entry : new TreeMap<>(incompats).entrySet())
 			{
 				System.err.printf("Incompatibilities '%s': %d%n", entry.getKey(), entry.getValue());
 			}
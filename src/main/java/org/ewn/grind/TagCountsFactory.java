@@ -1,61 +1,56 @@
 package org.ewn.grind;
 
 import java.io.*;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
- * Map <sensekey, tag count> factory
+ * Table <sensekey, tag count> factory
  * 
  * @author Bernard Bou
  */
 public class TagCountsFactory
 {
-	public static void parseTagCounts(String dir, Map<String, Integer> map) throws IOException
+	public static final String FILENAME = "tag.cnt";
+
+	public static SensekeyTable parseTagCounts(String dir) throws IOException
 	{
-		// iterate on lines
-		final File file = new File(dir, "tag.cnt");
-		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Flags.charSet)))
+		// iterate on lines of mapped file
+		final File file = new File(dir, FILENAME);
+		SensekeyTable table = SensekeyTable.map(file);
+		SensekeyTable.Fields fields = table.fields(false);
+		int[] value = new int[1];
+		long valueCount = 0;
+		while (fields.next())
 		{
-			long valueCount = 0;
-			int lineCount = 0;
-			String line;
-			while ((line = reader.readLine()) != null)
+			if (fields.isSkipped())
 			{
-				lineCount++;
-				if (line.isEmpty() || line.charAt(0) == ' ')
-				{
-					continue;
-				}
+				continue;
+			}
 
-				try
-				{
-					String[] fields = line.split("\\s+");
-					String sensekey = fields[0];
-					// int sensenum = Integer.parseInt(fields[1]);
-					int tagCnt = Integer.parseInt(fields[2]);
-					map.put(sensekey, tagCnt);
-					valueCount++;
-				}
-				catch (final RuntimeException e)
-				{
-					System.err.println("[E] at line " + lineCount + " " + e);
-				}
+			try
+			{
+				// sensekey sensenum tagcnt
+				fields.split();
+				value[0] = fields.parseInt(2);
+				table.put(fields, value, 1);
+				valueCount++;
+			}
+			catch (final RuntimeException e)
+			{
+				System.err.println("[E] at line " + fields.line() + " " + e);
 			}
-			System.err.println("Map TagCount[sensekey] " + valueCount);
 		}
+		System.err.println("Map TagCount[sensekey] " + valueCount);
+		return table;
 	}
 
-	public static Map<String, Integer> makeTagCountsMap(String dir) throws IOException
+	public static SenseTable makeTagCounts(String dir, Model model) throws IOException
 	{
-		Map<String, Integer> map = new HashMap<>();
-		parseTagCounts(dir, map);
-		return map;
+		return parseTagCounts(dir).bind(model);
 	}
 
 	public static void main(String[] args) throws IOException
 	{
-		Map<String, Integer> map = makeTagCountsMap(".");
-		System.out.println("map keys        " + map.size());
+		SensekeyTable table = parseTagCounts(args.length > 0 ? args[0] : ".");
+		System.out.println("map keys        " + table.size());
 	}
 }
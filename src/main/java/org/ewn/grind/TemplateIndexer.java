@@ -1,19 +1,12 @@
 package org.ewn.grind;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPathExpressionException;
+import org.ewn.grind.Model.LexicalEntry;
+import org.ewn.grind.Model.Sense;
+
 import java.io.IOException;
-import java.io.PrintStream;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.io.UncheckedIOException;
+
+import javax.xml.stream.XMLStreamException;
 
 /**
  * This class produces the sentidx.vrb file
@@ -25,85 +18,99 @@ public class TemplateIndexer
 	// sense_key num_template[,num_template]*
 
 	/**
-	 * XPath for verb lexical entry elements
+	 * Model
 	 */
-	protected static final String VERB_LEXENTRY_XPATH = String.format("/%s/%s/%s[%s/@%s='v']", //
-			XmlNames.LEXICALRESOURCE_TAG, XmlNames.LEXICON_TAG, XmlNames.LEXICALENTRY_TAG, XmlNames.LEMMA_TAG, XmlNames.POS_ATTR);
+	private final Model model;
 
 	/**
-	 * W3C document
+	 * Verb templates indexed by sense ordinal
 	 */
-	private final Document doc;
+	private final SenseTable verbTemplates;
 
 	/**
-	 * Verb templates map indexed by sensekey
+	 * Collected lines
 	 */
-	private final Map<String, int[]> verbTemplates;
+	private SortedWriter lines = new SortedWriter("templates");
 
 	/**
 	 * Constructor
 	 *
-	 * @param doc W3C document
-	 * @param verbTemplates verb templates map indexed by sensekey
+	 * @param model model
+	 * @param verbTemplates verb templates indexed by sense ordinal
 	 */
-	public TemplateIndexer(Document doc, Map<String, int[]> verbTemplates)
+	public TemplateIndexer(Model model, SenseTable verbTemplates)
 	{
 		super();
-		this.doc = doc;
+		this.model = model;
 		this.verbTemplates = verbTemplates;
 	}
 
 	/**
-	 * Make 'index.sense'
+	 * Make 'sentidx.vrb'
 	 *
-	 * @param ps print stream
-	 * @throws XPathExpressionException xpath
+	 * @param sink output sink
+	 * @throws IOException io
 	 */
-	public void makeIndex(PrintStream ps) throws XPathExpressionException
+	public void makeIndex(OutputSink sink) throws IOException
 	{
-		ArrayList<String> lines = new ArrayList<>();
-
-		NodeList lexEntryNodes = XmlUtils.getXPathNodeList(VERB_LEXENTRY_XPATH, doc);
-		int m = 0;
-		int n = lexEntryNodes.getLength();
-		assert n >= 1;
-		for (int i = 0; i < n; i++)
+		for (LexicalEntry lexEntry : model.getLexicalEntries('v'))
 		{
-			Node lexEntryNode = lexEntryNodes.item(i);
-			assert lexEntryNode.getNodeType() == Node.ELEMENT_NODE;
-			Element lexEntryElement = (Element) lexEntryNode;
+			collect(lexEntry);
+		}
+		write(sink);
+	}
 
-			List<Element> senseElements = XmlUtils.getChildElements(lexEntryElement, XmlNames.SENSE_TAG);
-			assert senseElements != null;
-			for (Element senseElement : senseElements)
+	/**
+	 * Collect templates of the senses of verb lexical entry
+	 *
+	 * @param lexEntry lexical entry
+	 * @throws UncheckedIOException io, when spilling sorted lines
+	 */
+	public void collect(LexicalEntry lexEntry)
+	{
+		assert lexEntry.senses.length > 0;
+		for (Sense sense : lexEntry.senses)
+		{
+			int[] templateIds = XmlExtractor.getVerbTemplates(sense, verbTemplates);
+			if (templateIds.length == 0)
+				continue;
+			String sensekey = XmlExtractor.getSensekey(sense);
+			String line = sensekey + ' ' + Formatter.join(templateIds, ',');
+			try
 			{
-				String sensekey = XmlExtractor.getSensekey(senseElement);
-				String vtemplates = XmlExtractor.getVerbTemplates(senseElement, verbTemplates);
-				if (vtemplates.isEmpty())
-					continue;
-				String line = String.format("%s %s", sensekey, vtemplates.replaceAll("\\s+", ","));
-				lines.add(line);
-				m++;
+				lines.addLine(line);
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
 			}
 		}
-		Collections.sort(lines);
-		for (String line : lines)
-		{
-			ps.println(line);
-		}
-		System.err.println("Sentence templates: " + m + " for " + VERB_LEXENTRY_XPATH);
+	}
+
+	/**
+	 * Write collected templates
+	 *
+	 * @param sink output sink
+	 * @throws IOException io
+	 */
+	public void write(OutputSink sink) throws IOException
+	{
+		lines.forEach(line -> line.writePayload(sink, 0));
+		System.err.println("Sentence templates: " + lines.size() + " for v");
+
+		// release
+		lines.close();
+		lines = new SortedWriter("templates");
 	}
 
 	/**
 	 * Main independent entry point
 	 *
 	 * @param args arguments
-	 * @throws SAXException sax
-	 * @throws ParserConfigurationException parser configuration
 	 * @throws IOException io
-	 * @throws XPathExpressionException xpath
+	 * @throws XMLStreamException xml stream
 	 */
-	public static void main(String[] args) throws SAXException, ParserConfigurationException, IOException, XPathExpressionException
+	public static void main(String[] args) throws IOException, XMLStreamException
 	{
 		// Timing
 		final long startTime = System.currentTimeMillis();
@@ -111,15 +118,18 @@ public class TemplateIndexer
 		// Input
 		String filename = args[0];
 
-		// XML document
-		Document doc = XmlUtils.getDocument(filename, false);
+		// Model
+		Model model = ModelFactory.makeModel(filename);
 
 		// verb templates
-		Map<String, int[]> verbTemplates = VerbTemplatesFactory.makeVerbTemplatesMap(".");
+		SenseTable verbTemplates = VerbTemplatesFactory.makeVerbTemplates(".", model);
 
 		// Process
-		TemplateIndexer indexer = new TemplateIndexer(doc, verbTemplates);
-		indexer.makeIndex(System.out);
+		TemplateIndexer indexer = new TemplateIndexer(model, verbTemplates);
+		try (OutputSink sink = ChannelSink.open(System.out))
+		{
+			indexer.makeIndex(sink);
+		}
 
 		// Timing
 		final long endTime = System.currentTimeMillis();
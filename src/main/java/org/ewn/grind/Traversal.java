@@ -0,0 +1,80 @@
+package org.ewn.grind;
+
+import org.ewn.grind.Model.LexicalEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Single ordered traversal of the model's lexical entries. Each entry is dispatched to the consumers that are registered for its part of speech, in
+ * document order, so that the word index, morph and template grinders collect what they need in one pass instead of one pass each per part of speech.
+ *
+ * @author Bernard Bou
+ */
+class Traversal
+{
+	/**
+	 * Model
+	 */
+	private final Model model;
+
+	/**
+	 * Consumers indexed by part of speech (as in Parallel.POSES)
+	 */
+	private final List<List<Consumer<LexicalEntry>>> consumers = new ArrayList<>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param model model
+	 */
+	Traversal(Model model)
+	{
+		this.model = model;
+		for (int p = 0; p < Parallel.POSES.length(); p++)
+		{
+			consumers.add(new ArrayList<>());
+		}
+	}
+
+	/**
+	 * Register consumer
+	 *
+	 * @param poses    parts of speech the consumer is fed entries of (n|v|a|r), 'a' going with 's'
+	 * @param consumer lexical entry consumer
+	 * @return this traversal
+	 */
+	Traversal register(String poses, Consumer<LexicalEntry> consumer)
+	{
+		for (char pos : poses.toCharArray())
+		{
+			int p = Model.posIndex(pos);
+			if (p == -1)
+			{
+				throw new IllegalArgumentException("pos=" + pos);
+			}
+			consumers.get(p).add(consumer);
+		}
+		return this;
+	}
+
+	/**
+	 * Traverse lexical entries, dispatching them to consumers
+	 */
+	void run()
+	{
+		for (LexicalEntry lexEntry : model.lexicalEntries)
+		{
+			int p = Model.posIndex(lexEntry.pos);
+			if (p == -1)
+			{
+				continue;
+			}
+			for (Consumer<LexicalEntry> consumer : consumers.get(p))
+			{
+				consumer.accept(lexEntry);
+			}
+		}
+	}
+}
@@ -1,69 +1,69 @@
 package org.ewn.grind;
 
 import java.io.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
- * Map <sensekey, array of template indices> factory
+ * Table <sensekey, array of template indices> factory
  * 
  * @author Bernard Bou
  */
 public class VerbTemplatesFactory
 {
-	public static void parseVerbTemplates(String dir, Map<String, int[]> map) throws IOException
+	public static final String FILENAME = "sentidx.vrb";
+
+	public static SensekeyTable parseVerbTemplates(String dir) throws IOException
 	{
-		// iterate on lines
-		final File file = new File(dir, "sentidx.vrb");
-		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Flags.charSet)))
+		// iterate on lines of mapped file
+		final File file = new File(dir, FILENAME);
+		SensekeyTable table = SensekeyTable.map(file);
+		SensekeyTable.Fields fields = table.fields(true);
+		int[] templateIds = new int[16];
+		long valueCount = 0;
+		while (fields.next())
 		{
-			long valueCount = 0;
-			int lineCount = 0;
-			String line;
-			while ((line = reader.readLine()) != null)
+			if (fields.isSkipped())
 			{
-				lineCount++;
-				if (line.isEmpty() || line.charAt(0) == ' ')
-				{
-					continue;
-				}
+				continue;
+			}
 
-				try
+			try
+			{
+				// sensekey template[,template]*
+				int n = fields.split() - 1;
+				if (n > templateIds.length)
 				{
-					String[] fields = line.split("[\\s,]+");
-					String sensekey = fields[0];
-					int[] templateIds = new int[fields.length - 1];
-					for (int i = 1; i < fields.length; i++)
-					{
-						templateIds[i - 1] = Integer.parseInt(fields[i]);
-					}
-					map.put(sensekey, templateIds);
-					valueCount++;
+					templateIds = Arrays.copyOf(templateIds, n);
 				}
-				catch (final RuntimeException e)
+				for (int i = 1; i <= n; i++)
 				{
-					System.err.println("[E] verb templates at line " + lineCount + " " + e);
+					templateIds[i - 1] = fields.parseInt(i);
 				}
+				table.put(fields, templateIds, n);
+				valueCount++;
+			}
+			catch (final RuntimeException e)
+			{
+				System.err.println("[E] verb templates at line " + fields.line() + " " + e);
 			}
-			System.err.println("Map VerbTemplate[sensekey] " + valueCount);
 		}
+		System.err.println("Map VerbTemplate[sensekey] " + valueCount);
+		return table;
 	}
 
-	public static Map<String, int[]> makeVerbTemplatesMap(String dir) throws IOException
+	public static SenseTable makeVerbTemplates(String dir, Model model) throws IOException
 	{
-		Map<String, int[]> map = new HashMap<>();
-		parseVerbTemplates(dir, map);
-		return map;
+		return parseVerbTemplates(dir).bind(model);
 	}
 
 	public static void main(String[] args) throws IOException
 	{
-		Map<String, int[]> map = makeVerbTemplatesMap(".");
-		System.out.println("map keys        " + map.size());
+		SensekeyTable table = parseVerbTemplates(args.length > 0 ? args[0] : ".");
+		System.out.println("map keys        " + table.size());
 		for (String sk : new String[] { "abide%2:31:00::", "abominate%2:37:00::", "abash%2:37:00::", "amble%2:38:00::" })
 		{
-			int[] templateIds = map.get(sk);
-			System.out.println("key " + sk + /* Arrays.toString(templateIds) ++ */ " " + Formatter.join(templateIds, ',', "%d"));
+			int[] templateIds = table.get(sk);
+			System.out.println("key " + sk + /* Arrays.toString(templateIds) ++ */ " " + (templateIds == null ? "-" : Formatter.join(templateIds, ',')));
 		}
 	}
 }
@@ -1,15 +1,19 @@
 package org.ewn.grind;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-
-import java.io.PrintStream;
+import org.ewn.grind.Model.LexicalEntry;
+import org.ewn.grind.Model.Sense;
+import org.ewn.grind.Model.SenseRelation;
+import org.ewn.grind.Model.Synset;
+import org.ewn.grind.Model.SynsetRelation;
+
+import org.ewn.grind.SortedWriter.Record;
+import org.ewn.grind.SortedWriter.RecordEncoder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
-import javax.xml.xpath.XPathExpressionException;
-
 /**
  * This class produces the index.{noun|verb|adj|adv} files
  *
@@ -17,10 +21,9 @@ import javax.xml.xpath.XPathExpressionException;
  */
 public class WordIndexer
 {
-	/**
-	 * Format in data file
+	/*
+	 * Format in data file: "%s %s %d %s %d %d %s  "
 	 */
-	private static final String WORD_FORMAT = "%s %s %d %s %d %d %s  ";
 	// lemma
 	// pos
 	// synset_cnt
@@ -30,237 +33,386 @@ public class WordIndexer
 	// synset_offset  [synset_offset...]
 
 	/**
-	 * XPath for noun lexical entry elements
+	 * Model
 	 */
-	public static final String NOUN_LEXENTRIES_XPATH = String.format("/%s/%s/%s[%s/@%s='n']", //
-			XmlNames.LEXICALRESOURCE_TAG, XmlNames.LEXICON_TAG, XmlNames.LEXICALENTRY_TAG, XmlNames.LEMMA_TAG, XmlNames.POS_ATTR);
+	private final Model model;
 
 	/**
-	 * XPath for verb lexical entry elements
+	 * Synset offsets indexed by synset ordinal
 	 */
-	public static final String VERB_LEXENTRIES_XPATH = String.format("/%s/%s/%s[%s/@%s='v']", //
-			XmlNames.LEXICALRESOURCE_TAG, XmlNames.LEXICON_TAG, XmlNames.LEXICALENTRY_TAG, XmlNames.LEMMA_TAG, XmlNames.POS_ATTR);
+	private final long[] offsets;
 
 	/**
-	 * XPath for adj lexical entry elements
+	 * Collected index entries, keyed by index key, indexed by part of speech (as in Parallel.POSES). The payload of an entry is its part of speech,
+	 * its pointer mask, its synset ordinals and its key text.
 	 */
-	public static final String ADJ_LEXENTRIES_XPATH = String.format("/%s/%s/%s[%s/@%s='a' or %s/@%s='s']", //
-			XmlNames.LEXICALRESOURCE_TAG, XmlNames.LEXICON_TAG, XmlNames.LEXICALENTRY_TAG, XmlNames.LEMMA_TAG, XmlNames.POS_ATTR, XmlNames.LEMMA_TAG, XmlNames.POS_ATTR);
+	private final List<SortedWriter> indexEntries = new ArrayList<>();
 
 	/**
-	 * XPath for adv lexical entry elements
+	 * Encoders of index entries, indexed by part of speech (as in Parallel.POSES)
 	 */
-	public static final String ADV_LEXENTRIES_XPATH = String.format("/%s/%s/%s[%s/@%s='r']", //
-			XmlNames.LEXICALRESOURCE_TAG, XmlNames.LEXICON_TAG, XmlNames.LEXICALENTRY_TAG, XmlNames.LEMMA_TAG, XmlNames.POS_ATTR);
+	private final RecordEncoder[] keyEncoders = new RecordEncoder[Parallel.POSES.length()];
+
+	private final RecordEncoder[] payloadEncoders = new RecordEncoder[Parallel.POSES.length()];
 
 	/**
-	 * W3C document
+	 * Incompatibility counts (indexed by cause), indexed by part of speech (as in Parallel.POSES)
 	 */
-	private final Document doc;
+	private final List<Map<String, Integer>> incompats = new ArrayList<>();
 
 	/**
-	 * Map of synset elements indexed by their synset id key
+	 * Marks a computed synset pointer mask, as the mask may be empty
 	 */
-	private final Map<String, Element> synsetsById;
+	private static final int COMPUTED = 1 << 31;
 
 	/**
-	 * Synset offsets indexed by synset id key
+	 * Pointer masks of synset relations, indexed by synset ordinal, 0 if not computed yet
 	 */
-	private final Map<String, Long> offsets;
+	private final int[] synsetMasks;
+
+	/**
+	 * Incompatibility causes of synset relations, indexed by synset ordinal, null if none
+	 */
+	private final String[][] synsetIncompats;
+
+	/**
+	 * Collected lexical entry counts, indexed by part of speech (as in Parallel.POSES)
+	 */
+	private final int[] lexEntryCounts = new int[Parallel.POSES.length()];
 
 	/**
 	 * Constructor
 	 *
-	 * @param doc         W3C document
-	 * @param synsetsById map of synset elements indexed by their synset id key
-	 * @param offsets     offsets indexed by synset id key
+	 * @param model   model
+	 * @param offsets offsets indexed by synset ordinal
 	 */
-	public WordIndexer(Document doc, Map<String, Element> synsetsById, Map<String, Long> offsets)
+	public WordIndexer(Model model, long[] offsets)
 	{
-		this.doc = doc;
-		this.synsetsById = synsetsById;
+		this.model = model;
 		this.offsets = offsets;
+		this.synsetMasks = new int[model.synsets.length];
+		this.synsetIncompats = new String[model.synsets.length][];
+		for (int p = 0; p < Parallel.POSES.length(); p++)
+		{
+			// entries with the same key, that arise from lower casing of lemma, are merged when written
+			indexEntries.add(new SortedWriter("index"));
+			incompats.add(new HashMap<>());
+			keyEncoders[p] = new RecordEncoder();
+			payloadEncoders[p] = new RecordEncoder();
+		}
 	}
 
 	private static class IndexData
 	{
-		private String pos;
+		private char pos;
+
+		/**
+		 * Synset ordinals, without duplicates, in insertion order
+		 */
+		int[] synsets = new int[4];
 
-		final Set<String> synsetIds = new LinkedHashSet<>();
+		int synsetCount;
 
-		final Set<String> relationPointers = new TreeSet<>();
+		/**
+		 * Pointer mask, bits indexing Coder.POINTERS
+		 */
+		int pointers;
 
-		public String getPos()
+		void clear()
 		{
-			if ("s".equals(pos))
+			synsetCount = 0;
+			pointers = 0;
+		}
+
+		public char getPos()
+		{
+			if (pos == 's')
 			{
-				return "a";
+				return 'a';
 			}
 			return pos;
 		}
+
+		void addSynset(int synset)
+		{
+			for (int i = 0; i < synsetCount; i++)
+			{
+				if (synsets[i] == synset)
+				{
+					return;
+				}
+			}
+			if (synsetCount == synsets.length)
+			{
+				synsets = Arrays.copyOf(synsets, synsetCount * 2);
+			}
+			synsets[synsetCount++] = synset;
+		}
 	}
 
 	/**
 	 * Make index
 	 *
-	 * @param ps    print stream
-	 * @param xpath xpath for lexical entry nodes
-	 * @throws XPathExpressionException xpath
+	 * @param sink output sink
+	 * @param pos selection of lexical entries (n|v|a|r)
+	 * @throws IOException io
+	 */
+	public void makeIndex(OutputSink sink, char pos) throws IOException
+	{
+		for (LexicalEntry lexEntry : model.getLexicalEntries(pos))
+		{
+			collect(lexEntry);
+		}
+		write(sink, pos);
+	}
+
+	/**
+	 * Collect lexical entry into the index of its part of speech
+	 *
+	 * @param lexEntry lexical entry
+	 * @throws UncheckedIOException io, when spilling index entries
 	 */
-	public void makeIndex(PrintStream ps, String xpath) throws XPathExpressionException
+	public void collect(LexicalEntry lexEntry)
 	{
-		Map<String, Integer> incompats = new HashMap<>();
+		int p = Model.posIndex(lexEntry.pos);
+		Map<String, Integer> incompats = this.incompats.get(p);
+		lexEntryCounts[p]++;
 
-		ps.print(Formatter.OEWN_HEADER);
+		// lemma, pos
+		String form = lexEntry.lemma;
+		String key = Formatter.escape(form.toLowerCase());
+		char lexPos = lexEntry.pos;
 
-		// collect lines in a set to avoid duplicate lines that arise from lower casing of lemma
-		Map<String, IndexData> indexEntries = new TreeMap<>();
+		// init
+		IndexData data = new IndexData();
 
-		NodeList lexEntryNodes = XmlUtils.getXPathNodeList(xpath, doc);
-		int n = lexEntryNodes.getLength();
-		for (int i = 0; i < n; i++)
+		// pos
+		data.pos = lexPos;
+
+		// senses
+		if (lexEntry.senses.length == 0)
 		{
-			Node lexEntryNode = lexEntryNodes.item(i);
-			assert lexEntryNode.getNodeType() == Node.ELEMENT_NODE;
-			Element lexEntryElement = (Element) lexEntryNode;
-
-			// lemma, pos
-			Element lemmaElement = XmlUtils.getUniqueChildElement(lexEntryElement, XmlNames.LEMMA_TAG);
-			assert lemmaElement != null;
-			String form = lemmaElement.getAttribute(XmlNames.WRITTENFORM_ATTR);
-			String key = Formatter.escape(form.toLowerCase());
-			String pos = lemmaElement.getAttribute(XmlNames.POS_ATTR);
-
-			// init
-			IndexData data = indexEntries.computeIfAbsent(key, k -> new IndexData());
-
-			// pos
-			data.pos = pos;
-
-			// senses
-			List<Element> senseElements = XmlUtils.getChildElementsSortedBy(lexEntryElement, XmlNames.SENSE_TAG, (element1, element2) -> {
-				String nAttr1 = element1.getAttribute(XmlNames.N_ATTR);
-				String nAttr2 = element2.getAttribute(XmlNames.N_ATTR);
-				if (nAttr1.isEmpty())
-				{
-					throw new IllegalArgumentException(element1.getAttribute(XmlNames.ID_ATTR) + " has no 'n' attr");
-				}
-				if (nAttr2.isEmpty())
+			throw new IllegalArgumentException("LexicalEntry " + lexEntry.id + " has no Sense");
+		}
+		else
+		{
+			Sense[] senses = lexEntry.senses;
+			for (Sense sense : senses)
+			{
+				if (sense.n < 0)
 				{
-					throw new IllegalArgumentException(element2.getAttribute(XmlNames.ID_ATTR) + " has no 'n' attr");
+					// current wn.xml has no 'n'
+					throw new IllegalArgumentException("LexEntry " + lexEntry.id + " with no 'n' attribute");
 				}
-				int n1 = Integer.parseInt(nAttr1);
-				int n2 = Integer.parseInt(nAttr2);
-				return Integer.compare(n1, n2);
-			});
-
-			if (senseElements == null)
+			}
+			if (!isRanked(senses))
 			{
-				throw new IllegalArgumentException("LexicalEntry " + lexEntryElement.getAttribute(XmlNames.ID_ATTR) + " has no Sense");
+				senses = senses.clone();
+				Arrays.sort(senses, Comparator.comparingInt(sense -> sense.n));
 			}
-			else
+
+			int previousRank = -1;
+			for (Sense sense : senses)
 			{
-				int previousRank = -1;
-				for (Element senseElement : senseElements)
+				// check ordering
+				int rank = sense.n;
+				if (previousRank >= rank)
 				{
-					// check ordering
-					String nAttr = senseElement.getAttribute(XmlNames.N_ATTR);
-					if (nAttr.isEmpty())
-					{
-						// current wn.xml has no 'n'
-						throw new IllegalArgumentException("LexEntry " + lexEntryElement.getAttribute(XmlNames.ID_ATTR) + " with no 'n' attribute");
-					}
-					int rank = Integer.parseInt(nAttr);
-					if (previousRank >= rank)
-					{
-						throw new IllegalArgumentException("LexEntry " + lexEntryElement.getAttribute(XmlNames.ID_ATTR) + " " + " previous=" + previousRank + " current=" + rank);
-					}
-					previousRank = rank;
-
-					// synsetid
-					String synsetId = senseElement.getAttribute(XmlNames.SYNSET_ATTR);
-					data.synsetIds.add(synsetId);
+					throw new IllegalArgumentException("LexEntry " + lexEntry.id + " " + " previous=" + previousRank + " current=" + rank);
+				}
+				previousRank = rank;
 
-					// target synset element
-					Element synsetElement = synsetsById.get(synsetId);
+				// synset
+				data.addSynset(sense.synset);
 
-					// synset relations
-					NodeList synsetRelationNodes = synsetElement.getElementsByTagName(XmlNames.SYNSETRELATION_TAG);
-					int nSynsetRelations = synsetRelationNodes.getLength();
-					for (int k = 0; k < nSynsetRelations; k++)
-					{
-						Node synsetRelationNode = synsetRelationNodes.item(k);
-						assert synsetRelationNode.getNodeType() == Node.ELEMENT_NODE;
-						Element synsetRelationElement = (Element) synsetRelationNode;
-
-						String type = synsetRelationElement.getAttribute(XmlNames.RELTYPE_ATTR);
-						String pointer;
-						try
-						{
-							pointer = Coder.codeRelation(type, pos.charAt(0));
-						}
-						catch (CompatException e)
-						{
-							String cause = e.getCause().getMessage();
-							int count = incompats.computeIfAbsent(cause, (c) -> 0) + 1;
-							incompats.put(cause, count);
-							continue;
-						}
-						catch (IllegalArgumentException e)
-						{
-							String cause = e.getClass().getName() + ' ' + e.getMessage();
-							System.err.printf("Illegal relation %s id=%s%n", cause, synsetElement.getAttribute("id"));
-							throw e;
-						}
-						data.relationPointers.add(pointer);
-					}
-				}
+				// target synset relations
+				data.pointers |= synsetPointers(model.synsets[sense.synset], lexPos, incompats);
 			}
+		}
+
+		// sense relations
+		for (Sense sense : lexEntry.senses)
+		{
+			data.pointers |= sensePointers(sense, lexPos, incompats);
+		}
+
+		// add
+		RecordEncoder keyEncoder = keyEncoders[p];
+		RecordEncoder payloadEncoder = payloadEncoders[p];
+		keyEncoder.reset();
+		keyEncoder.sortable(key);
+		payloadEncoder.reset();
+		payloadEncoder.int8(data.pos).int32(data.pointers).int32(data.synsetCount);
+		for (int i = 0; i < data.synsetCount; i++)
+		{
+			payloadEncoder.int32(data.synsets[i]);
+		}
+		payloadEncoder.text(key);
+		try
+		{
+			indexEntries.get(p).add(keyEncoder, payloadEncoder);
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
 
-			// sense relations
-			NodeList senseRelationNodes = lexEntryElement.getElementsByTagName(XmlNames.SENSERELATION_TAG);
-			int nSenseRelations = senseRelationNodes.getLength();
-			for (int k = 0; k < nSenseRelations; k++)
+	/**
+	 * Whether senses are in rank order
+	 *
+	 * @param senses senses
+	 * @return whether senses are in rank order
+	 */
+	private static boolean isRanked(Sense[] senses)
+	{
+		for (int i = 1; i < senses.length; i++)
+		{
+			if (senses[i - 1].n > senses[i].n)
 			{
-				Node senseRelationNode = senseRelationNodes.item(k);
-				assert senseRelationNode.getNodeType() == Node.ELEMENT_NODE;
-				Element senseRelationElement = (Element) senseRelationNode;
+				return false;
+			}
+		}
+		return true;
+	}
 
-				String type = senseRelationElement.getAttribute(XmlNames.RELTYPE_ATTR);
-				String pointer;
+	/**
+	 * Pointer mask of synset relations, computed once per synset for lexical entries of the synset's part of speech
+	 *
+	 * @param synset    synset
+	 * @param lexPos    part of speech of the lexical entry
+	 * @param incompats incompatibility counts, incremented on each call
+	 * @return pointer mask
+	 */
+	private int synsetPointers(Synset synset, char lexPos, Map<String, Integer> incompats)
+	{
+		// cache entries are only ever written by the part of speech that owns the synset
+		boolean isCached = Model.posIndex(synset.pos) == Model.posIndex(lexPos);
+		int mask = isCached ? synsetMasks[synset.ordinal] : 0;
+		String[] causes;
+		if (mask != 0)
+		{
+			causes = synsetIncompats[synset.ordinal];
+		}
+		else
+		{
+			mask = COMPUTED;
+			List<String> causeList = null;
+			for (SynsetRelation synsetRelation : synset.relations)
+			{
+				RelationType type = synsetRelation.relType;
 				try
 				{
-					pointer = Coder.codeRelation(type, pos.charAt(0));
+					mask |= Coder.codeRelationBit(type, lexPos);
 				}
 				catch (CompatException e)
 				{
-					String cause = e.getCause().getMessage();
-					int count = incompats.computeIfAbsent(cause, (c) -> 0) + 1;
-					incompats.put(cause, count);
-					continue;
+					if (causeList == null)
+					{
+						causeList = new ArrayList<>();
+					}
+					causeList.add(e.getCause().getMessage());
 				}
 				catch (IllegalArgumentException e)
 				{
 					String cause = e.getClass().getName() + ' ' + e.getMessage();
-					System.err.printf("Illegal relation %s id=%s%n", cause, type);
-					continue;
+					System.err.printf("Illegal relation %s id=%s%n", cause, synset.id);
+					throw e;
 				}
-				data.relationPointers.add(pointer);
+			}
+			causes = causeList == null ? null : causeList.toArray(new String[0]);
+			if (isCached)
+			{
+				synsetMasks[synset.ordinal] = mask;
+				synsetIncompats[synset.ordinal] = causes;
+			}
+		}
+		if (causes != null)
+		{
+			for (String cause : causes)
+			{
+				incompats.merge(cause, 1, Integer::sum);
 			}
 		}
+		return mask & ~COMPUTED;
+	}
 
-		int count = 0;
-		for (Map.Entry<String, IndexData> indexEntry : indexEntries.entrySet())
+	/**
+	 * Pointer mask of sense relations
+	 *
+	 * @param sense     sense
+	 * @param lexPos    part of speech of the lexical entry
+	 * @param incompats incompatibility counts
+	 * @return pointer mask
+	 */
+	private static int sensePointers(Sense sense, char lexPos, Map<String, Integer> incompats)
+	{
+		int mask = 0;
+		for (SenseRelation senseRelation : sense.relations)
 		{
-			String key = indexEntry.getKey();
-			IndexData data = indexEntry.getValue();
-			int nSenses = data.synsetIds.size();
-
-			String ptrs = Formatter.joinNum(data.relationPointers, "%d", String::toString);
-			String ofs = Formatter.join(data.synsetIds, ' ', false, s -> String.format("%08d", offsets.get(s)));
-			String line = String.format(WORD_FORMAT, key, data.getPos(), nSenses, ptrs, nSenses, 0, ofs);
-			ps.println(line);
-			count++;
+			RelationType type = senseRelation.relType;
+			try
+			{
+				mask |= Coder.codeRelationBit(type, lexPos);
+			}
+			catch (CompatException e)
+			{
+				String cause = e.getCause().getMessage();
+				incompats.merge(cause, 1, Integer::sum);
+			}
+			catch (IllegalArgumentException e)
+			{
+				String cause = e.getClass().getName() + ' ' + e.getMessage();
+				System.err.printf("Illegal relation %s id=%s%n", cause, type);
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Write collected index of part of speech
+	 *
+	 * @param sink output sink
+	 * @param pos selection of lexical entries (n|v|a|r)
+	 * @throws IOException io
+	 */
+	public void write(OutputSink sink, char pos) throws IOException
+	{
+		int p = Model.posIndex(pos);
+		Map<String, Integer> incompats = this.incompats.get(p);
+		int n = lexEntryCounts[p];
+
+		sink.print(Formatter.OEWN_HEADER);
+
+		int[] count = {0};
+		FieldEncoder out = new FieldEncoder();
+		IndexData data = new IndexData();
+		try (SortedWriter indexEntries = this.indexEntries.get(p))
+		{
+			indexEntries.forEachGroup(group -> {
+				// merge entries with the same key, the last one's part of speech prevailing
+				data.clear();
+				int keyOffset = -1;
+				for (Record record : group)
+				{
+					ByteBuffer payload = record.payload();
+					data.pos = (char) payload.get();
+					data.pointers |= payload.getInt();
+					int synsetCount = payload.getInt();
+					for (int i = 0; i < synsetCount; i++)
+					{
+						data.addSynset(payload.getInt());
+					}
+					if (keyOffset == -1)
+					{
+						keyOffset = payload.position();
+					}
+				}
+				group.get(0).writePayload(sink, keyOffset);
+				write(data, out);
+				out.writeTo(sink);
+				count[0]++;
+			});
 		}
 
 		// report incompats
@@ -271,6 +423,40 @@ public class WordIndexer
 				System.err.printf("Incompatibilities '%s': %d%n", entry.getKey(), entry.getValue());
 			}
 		}
-		System.err.println("Words: " + count + '/' + n + " lexentries for " + xpath);
+		System.err.println("Words: " + count[0] + '/' + n + " lexentries for " + pos);
+
+		// release
+		this.indexEntries.set(p, new SortedWriter("index"));
+		this.incompats.set(p, new HashMap<>());
+		lexEntryCounts[p] = 0;
+	}
+
+	/**
+	 * Encode index line that follows the key
+	 *
+	 * @param data index data
+	 * @param out  encoder
+	 */
+	private void write(IndexData data, FieldEncoder out)
+	{
+		int nSenses = data.synsetCount;
+
+		out.reset();
+		out.chr(' ').chr(data.getPos()).chr(' ').decimal(nSenses).chr(' ');
+		out.decimal(Integer.bitCount(data.pointers));
+		for (int bits = data.pointers; bits != 0; bits &= bits - 1)
+		{
+			out.chr(' ').ascii(Coder.POINTERS[Integer.numberOfTrailingZeros(bits)]);
+		}
+		out.chr(' ').decimal(nSenses).chr(' ').decimal(0).chr(' ');
+		for (int i = 0; i < nSenses; i++)
+		{
+			if (i > 0)
+			{
+				out.chr(' ');
+			}
+			out.decimal(offsets[data.synsets[i]], 8);
+		}
+		out.ascii("  ").lineSeparator();
 	}
 }
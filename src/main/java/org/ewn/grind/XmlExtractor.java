@@ -1,11 +1,9 @@
 package org.ewn.grind;
 
-import org.w3c.dom.Element;
-
-import java.util.Map;
+import org.ewn.grind.Model.Sense;
 
 /**
- * Extract information from attributes in XML files or retrieve it
+ * Extract information from attributes in XML files, as kept in the model, or retrieve it
  *
  * @author Bernard Bou
  */
@@ -15,111 +13,70 @@ public class XmlExtractor
 	{
 	}
 
-	static String getSensekey(Element senseElement)
+	static String getSensekey(Sense sense)
 	{
-		String id = senseElement.getAttribute(XmlNames.ID_ATTR);
-		return toSensekey(id);
+		return getKey(sense).sensekey;
 
 		// return senseElement.getAttribute(XmlNames.SENSEKEY_ATTR);
 	}
 
-	static int getLexid(Element senseElement)
+	static int getLexid(Sense sense)
 	{
-		String id = senseElement.getAttribute(XmlNames.ID_ATTR);
-		String sk = id.substring("oewn-".length());
-		int b = sk.indexOf("__");
-		b += 2 + 5;
-		String lexid = sk.substring(b, b + 2);
-		return Integer.parseInt(lexid);
+		return getKey(sense).getLexid();
 
 		// return Integer.parseInt(senseElement.getAttribute(XmlNames.LEXID_ATTR));
 	}
 
-	static String getAdjPosition(Element senseElement)
+	/**
+	 * Get sensekey decoded from sense id, decoding it once per sense (racing threads decode equal keys)
+	 *
+	 * @param sense sense
+	 * @return decoded sensekey, lemma and lexid
+	 */
+	static Sensekey getKey(Sense sense)
 	{
-		return senseElement.getAttribute(XmlNames.ADJPOSITION_ATTR);
+		Sensekey key = sense.key;
+		if (key == null)
+		{
+			key = Sensekey.decode(sense.id);
+			sense.key = key;
+		}
+		return key;
 	}
 
-	static String getVerbFrames(Element senseElement)
+	static String getAdjPosition(Sense sense)
 	{
-		return senseElement.getAttribute(XmlNames.VERBFRAMES_ATTR);
+		return sense.adjPosition;
 	}
 
-	static int getOrder(Element senseElement, Map<String, Element> synsetsById)
+	static String getVerbFrames(Sense sense)
 	{
-		Element lexElement = XmlUtils.getParentElement(senseElement);
-		String lexId = lexElement.getAttribute(XmlNames.ID_ATTR);
-		String synsetId = senseElement.getAttribute(XmlNames.SYNSET_ATTR);
-		Element synsetElement = synsetsById.get(synsetId);
-		String membersAttr = synsetElement.getAttribute(XmlNames.MEMBERS_ATTR);
-		String[] members = membersAttr.split("\\s+");
-		int i = 0;
-		for (String member : members)
-		{
-			if (lexId.equals(member))
-			{
-				return i;
-			}
-			i++;
-		}
-		throw new RuntimeException("[E] member attr not found " + lexId);
+		return sense.verbFrames;
 	}
 
-	static int getTagCount(Element senseElement, Map<String, Integer> map)
+	static int getOrder(Sense sense)
 	{
-		String sensekey = XmlExtractor.getSensekey(senseElement);
-		Integer tagCount = map.get(sensekey);
-		if (tagCount == null)
+		int order = sense.order;
+		if (order == -1)
 		{
-			return 0;
+			throw new RuntimeException("[E] member attr not found " + sense.entry.id);
 		}
-		return tagCount;
+		return order;
 	}
 
-	static String getVerbTemplates(Element senseElement, Map<String, int[]> map)
+	static int getTagCount(Sense sense, SenseTable tagCounts)
 	{
-		String sensekey = XmlExtractor.getSensekey(senseElement);
-		int[] templateIds = map.get(sensekey);
-		if (templateIds == null)
-		{
-			return "";
-		}
-		return Formatter.join(templateIds, ' ', "%d");
+		return tagCounts.get(sense, 0);
 	}
 
-	static private String PREFIX = "oewn-";
-
-	static private int PREFIX_LENGTH = PREFIX.length();
+	static int[] getVerbTemplates(Sense sense, SenseTable verbTemplates)
+	{
+		return verbTemplates.getAll(sense);
+	}
 
 	static String toSensekey(String id)
 	{
-		String sk = id.startsWith(PREFIX) ? id.substring(PREFIX_LENGTH) : id;
-		int b = sk.indexOf("__");
-
-		String lemma = sk.substring(0, b) //
-				.replace("-ap-", "'") //
-				.replace("-lb-", "(") //
-				.replace("-rb-", ")") //
-				.replace("-sl-", "/") //
-				.replace("-cm-", ",") //
-				.replace("-ex-", "!") //
-				.replace("-cl-", ":") //
-				.replace("-pl-", "+") //
-				.replace("-sp-", "_");
-
-		String tail = sk.substring(b + 2) //
-				.replace(".", ":") //
-				.replace("-ap-", "'") //
-				.replace("-lb-", "(") //
-				.replace("-rb-", ")") //
-				.replace("-sl-", "/") //
-				.replace("-cm-", ",") //
-				.replace("-ex-", "!") //
-				.replace("-cl-", ":") //
-				.replace("-pl-", "+") //
-				.replace("-sp-", "_");
-
-		return lemma + '%' + tail;
+		return Sensekey.decode(id).sensekey;
 	}
 
 	static public void main(String[] args)
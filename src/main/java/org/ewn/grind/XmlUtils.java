@@ -1,24 +1,11 @@
 package org.ewn.grind;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import java.io.InputStream;
 
-import java.io.File;
-import java.io.IOException;
-import java.util.*;
-
-import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 /**
  * XML utilities
@@ -32,209 +19,82 @@ class XmlUtils
 	}
 
 	/**
-	 * Build W3C Document from file
+	 * Make StAX reader from stream
 	 *
-	 * @param filePath   file path
-	 * @param withSchema whether to validate document when building it (long)
-	 * @return W3C Document
-	 * @throws SAXException                 sax
-	 * @throws ParserConfigurationException parser configuration
-	 * @throws IOException                  io
+	 * @param is input stream
+	 * @return StAX stream reader (namespace-aware, coalescing, no DTD loading)
+	 * @throws XMLStreamException xml stream
 	 */
-	static Document getDocument(String filePath, @SuppressWarnings("SameParameterValue") boolean withSchema) throws SAXException, ParserConfigurationException, IOException
+	static XMLStreamReader getReader(InputStream is) throws XMLStreamException
 	{
-		DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
-		builderFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-		builderFactory.setNamespaceAware(true);
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
 
 		// for DTD-based
-		builderFactory.setFeature("http://apache.org/xml/features/nonvalidating/load-dtd-grammar", false);
-		builderFactory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
-
-		builderFactory.setValidating(withSchema);
-		if (withSchema)
-		{
-			SchemaFactory sf = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-			Schema schema = sf.newSchema(new File("schema.xsd"));
-			builderFactory.setSchema(schema);
-		}
-
-		DocumentBuilder builder = builderFactory.newDocumentBuilder();
-		Document doc = builder.parse(new File(filePath));
-		doc.getDocumentElement().normalize();
-		System.err.println("Document " + filePath);
-		return doc;
-	}
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
 
-	/**
-	 * Make a map of elements tagged 'tag' indexed by 'key' attribute key
-	 *
-	 * @param doc W3C Document
-	 * @param tag element tag
-	 * @param key element attribute
-	 * @return map of elements tagged 'tag' indexed by 'key' attribute key
-	 */
-	static Map<String, Element> makeElementMap(Document doc, String tag, @SuppressWarnings("SameParameterValue") String key)
-	{
-		System.err.print("Map " + tag + "[@" + key + "] ");
-		Map<String, Element> map = new HashMap<>();
-		NodeList nodes = doc.getElementsByTagName(tag);
-		int n = nodes.getLength();
-		for (int i = 0; i < n; i++)
-		{
-			Node node = nodes.item(i);
-			assert node.getNodeType() == Node.ELEMENT_NODE;
-			Element element = (Element) node;
-			String attr = element.getAttribute(key);
-			map.put(attr, element);
-		}
-		System.err.println(map.size());
-		return map;
-	}
-
-	/**
-	 * Make a multi-valued map of elements tagged 'tag' indexed by 'key' attribute key
-	 *
-	 * @param doc W3C Document
-	 * @param tag element tag
-	 * @param key element attribute
-	 * @return multi-valued map of elements tagged 'tag' indexed by 'key' attribute key
-	 */
-	static Map<String, List<Element>> makeElementMultiMap(Document doc, @SuppressWarnings("SameParameterValue") String tag, @SuppressWarnings("SameParameterValue") String key)
-	{
-		System.err.print("MultiMap " + tag + "[@" + key + "] ");
-		Map<String, List<Element>> map = new HashMap<>();
-		NodeList nodes = doc.getElementsByTagName(tag);
-		int n = nodes.getLength();
-		for (int i = 0; i < n; i++)
-		{
-			Node node = nodes.item(i);
-			assert node.getNodeType() == Node.ELEMENT_NODE;
-			Element element = (Element) node;
-			String attr = element.getAttribute(key);
-			List<Element> elements = map.computeIfAbsent(attr, k -> new ArrayList<>());
-			elements.add(element);
-		}
-		System.err.println(map.size());
-		return map;
-	}
-
-	/**
-	 * Get first child element
-	 *
-	 * @param element parent element
-	 * @param tag     child tag
-	 * @return first child element having 'tag' tag
-	 */
-	// @Nullable
-	static Element getUniqueChildElement(Element element, @SuppressWarnings("SameParameterValue") String tag)
-	{
-		NodeList nodeList = element.getElementsByTagName(tag);
-		if (nodeList.getLength() == 1)
-		{
-			Node node = nodeList.item(0);
-			assert node.getNodeType() == Node.ELEMENT_NODE;
-			return (Element) node;
-		}
-		throw new IllegalArgumentException("Element " + element.getAttribute("id") + " has not a unique child with tag " + tag + " count=" + nodeList.getLength());
+		return factory.createXMLStreamReader(is, Flags.charSet.name());
 	}
 
 	/**
-	 * Get first child element
+	 * Get attribute value
 	 *
-	 * @param element parent element
-	 * @param tag     child tag
-	 * @return first child element having 'tag' tag
+	 * @param reader StAX reader positioned on start element
+	 * @param name   attribute local name (no namespace)
+	 * @return attribute value or empty string if absent, as W3C Element.getAttribute() does
 	 */
-	// @Nullable
-	static Element getFirstChildElement(Element element, @SuppressWarnings("SameParameterValue") String tag)
+	static String getAttribute(XMLStreamReader reader, String name)
 	{
-		NodeList nodeList = element.getElementsByTagName(tag);
-		if (nodeList.getLength() >= 1)
-		{
-			Node node = nodeList.item(0);
-			assert node.getNodeType() == Node.ELEMENT_NODE;
-			return (Element) node;
-		}
-		throw new IllegalArgumentException("Element " + element.getAttribute("id") + " has no child with tag " + tag);
+		String value = reader.getAttributeValue(null, name);
+		return value == null ? "" : value;
 	}
 
 	/**
-	 * Get child elements
+	 * Get namespaced attribute value
 	 *
-	 * @param element parent element
-	 * @param tag     child tag
-	 * @return list of child elements having 'tag' tag
+	 * @param reader StAX reader positioned on start element
+	 * @param ns     attribute namespace
+	 * @param name   attribute local name
+	 * @return attribute value or empty string if absent, as W3C Element.getAttributeNS() does
 	 */
-	// @Nullable
-	static List<Element> getChildElements(Element element, String tag)
+	static String getAttributeNS(XMLStreamReader reader, @SuppressWarnings("SameParameterValue") String ns, @SuppressWarnings("SameParameterValue") String name)
 	{
-		NodeList nodeList = element.getElementsByTagName(tag);
-		if (nodeList.getLength() > 0)
-		{
-			List<Element> elements = new ArrayList<>();
-			for (int i = 0; i < nodeList.getLength(); i++)
-			{
-				Node node = nodeList.item(i);
-				assert node.getNodeType() == Node.ELEMENT_NODE;
-				elements.add((Element) node);
-			}
-			return elements;
-		}
-		return null;
+		String value = reader.getAttributeValue(ns, name);
+		return value == null ? "" : value;
 	}
 
 	/**
-	 * Get sorted child elements
+	 * Get text content of current element, including that of descendants, as W3C Node.getTextContent() does. Reader is left on the element's end.
 	 *
-	 * @param element    parent element
-	 * @param tag        child tag
-	 * @param comparator sort comparator
-	 * @return list of child elements having 'tag' tag and sorted by comparator
+	 * @param reader StAX reader positioned on start element
+	 * @return text content
+	 * @throws XMLStreamException xml stream
 	 */
-	// @Nullable
-	static List<Element> getChildElementsSortedBy(Element element, String tag, Comparator<Element> comparator)
+	static String getTextContent(XMLStreamReader reader) throws XMLStreamException
 	{
-		NodeList nodeList = element.getElementsByTagName(tag);
-		if (nodeList.getLength() > 0)
+		StringBuilder sb = new StringBuilder();
+		int depth = 1;
+		while (depth > 0)
 		{
-			List<Element> elements = new ArrayList<>();
-			for (int i = 0; i < nodeList.getLength(); i++)
+			switch (reader.next())
 			{
-				Node node = nodeList.item(i);
-				assert node.getNodeType() == Node.ELEMENT_NODE;
-				elements.add((Element) node);
+			case XMLStreamConstants.START_ELEMENT:
+				depth++;
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				depth--;
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				sb.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+				break;
+			default:
+				break;
 			}
-			elements.sort(comparator);
-			return elements;
 		}
-		return null;
-	}
-
-	/**
-	 * Get parent element
-	 *
-	 * @param element child element
-	 * @return parent element
-	 */
-	// @Nullable
-	static Element getParentElement(Element element)
-	{
-		Node lexEntryNode = element.getParentNode();
-		assert lexEntryNode.getNodeType() == Node.ELEMENT_NODE;
-		return (Element) lexEntryNode;
-	}
-
-	/**
-	 * Get node list satisfying XPath expression
-	 *
-	 * @param expr XPath expression
-	 * @param doc  W3C Document
-	 * @return node list satisfying XPath expression
-	 * @throws XPathExpressionException xpath
-	 */
-	static NodeList getXPathNodeList(String expr, Document doc) throws XPathExpressionException
-	{
-		return (NodeList) XPathFactory.newInstance().newXPath().compile(expr).evaluate(doc, XPathConstants.NODESET);
+		return sb.toString();
 	}
 }
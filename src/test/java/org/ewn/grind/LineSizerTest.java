@@ -0,0 +1,90 @@
+package org.ewn.grind;
+
+import org.ewn.grind.Model.Synset;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import javax.xml.stream.XMLStreamException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Line lengths computed by LineSizer, checked against the size of the lines SynsetProcessor renders, in default and compat modes
+ *
+ * @author Bernard Bou
+ */
+public class LineSizerTest
+{
+	private static Model model;
+
+	@BeforeClass
+	public static void load() throws IOException, XMLStreamException, URISyntaxException
+	{
+		model = ModelFactory.makeModel(new File(LineSizerTest.class.getResource("linesizer.xml").toURI()).getPath());
+	}
+
+	@After
+	public void reset()
+	{
+		Flags.LEXID_COMPAT = false;
+		Flags.POINTER_COMPAT = false;
+		Flags.VERBFRAME_COMPAT = false;
+	}
+
+	/**
+	 * Check that each synset's computed length is the byte size of its rendered line
+	 */
+	private static void check()
+	{
+		long[] offsets = new OffsetFactory(model).compute();
+		DataGrinder grinder = new DataGrinder(model, offsets);
+		LineSizer lineSizer = new LineSizer(model);
+		for (Synset synset : model.synsets)
+		{
+			FieldEncoder out = new FieldEncoder();
+			grinder.encodeData(synset, offsets[synset.ordinal], out, null);
+			assertEquals(synset.id + ' ' + out, out.count, lineSizer.getDataLength(synset));
+		}
+	}
+
+	@Test
+	public void plain()
+	{
+		check();
+	}
+
+	@Test
+	public void lexidCompat()
+	{
+		Flags.LEXID_COMPAT = true;
+		check();
+	}
+
+	@Test
+	public void pointerCompat()
+	{
+		Flags.POINTER_COMPAT = true;
+		check();
+	}
+
+	@Test
+	public void verbFrameCompat()
+	{
+		Flags.VERBFRAME_COMPAT = true;
+		check();
+	}
+
+	@Test
+	public void allCompat()
+	{
+		Flags.LEXID_COMPAT = true;
+		Flags.POINTER_COMPAT = true;
+		Flags.VERBFRAME_COMPAT = true;
+		check();
+	}
+}
@@ -0,0 +1,215 @@
+package org.ewn.grind;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Sensekey decoder, checked against the chained String.replace decoder it replaces
+ *
+ * @author Bernard Bou
+ */
+public class SensekeyTest
+{
+	/**
+	 * Former decoder: escape sequences replaced one kind after the other
+	 */
+	private static String chained(String id)
+	{
+		String sk = id.startsWith("oewn-") ? id.substring("oewn-".length()) : id;
+		int b = sk.indexOf("__");
+
+		String lemma = sk.substring(0, b) //
+				.replace("-ap-", "'") //
+				.replace("-lb-", "(") //
+				.replace("-rb-", ")") //
+				.replace("-sl-", "/") //
+				.replace("-cm-", ",") //
+				.replace("-ex-", "!") //
+				.replace("-cl-", ":") //
+				.replace("-pl-", "+") //
+				.replace("-sp-", "_");
+
+		String tail = sk.substring(b + 2) //
+				.replace(".", ":") //
+				.replace("-ap-", "'") //
+				.replace("-lb-", "(") //
+				.replace("-rb-", ")") //
+				.replace("-sl-", "/") //
+				.replace("-cm-", ",") //
+				.replace("-ex-", "!") //
+				.replace("-cl-", ":") //
+				.replace("-pl-", "+") //
+				.replace("-sp-", "_");
+
+		return lemma + '%' + tail;
+	}
+
+	/**
+	 * Former lexid parser
+	 */
+	private static int chainedLexid(String id)
+	{
+		String sk = id.substring("oewn-".length());
+		int b = sk.indexOf("__");
+		b += 2 + 5;
+		return Integer.parseInt(sk.substring(b, b + 2));
+	}
+
+	private static void check(String id)
+	{
+		Sensekey sensekey = Sensekey.decode(id);
+		String expected = chained(id);
+		assertEquals(id, expected, sensekey.sensekey);
+		assertEquals(id, expected.substring(0, expected.indexOf('%')), sensekey.lemma);
+	}
+
+	@Test
+	public void plain()
+	{
+		check("oewn-rulo__1.05.00..");
+		assertEquals("rulo%1:05:00::", Sensekey.decode("oewn-rulo__1.05.00..").sensekey);
+		assertEquals(0, Sensekey.decode("oewn-rulo__1.05.00..").getLexid());
+		assertEquals(chainedLexid("oewn-rulo__1.18.03.."), Sensekey.decode("oewn-rulo__1.18.03..").getLexid());
+	}
+
+	@Test
+	public void withoutPrefix()
+	{
+		check("rulo__1.05.00..");
+		assertEquals("rulo%1:05:00::", Sensekey.decode("rulo__1.05.00..").sensekey);
+	}
+
+	@Test
+	public void escapes()
+	{
+		check("oewn-ka-pl-stu__1.50.03..");
+		check("oewn-o-ap-clock__4.02.00..");
+		check("oewn-a-sp-b-cm-c-sl-d-ex-e-cl-f__1.10.00..");
+		assertEquals("o'clock%4:02:00::", Sensekey.decode("oewn-o-ap-clock__4.02.00..").sensekey);
+	}
+
+	@Test
+	public void overlappingEscapes()
+	{
+		// escapes that share a dash: the result depends on the replacement order
+		check("oewn-a-lb-ap-b__1.05.00..");
+		check("oewn-a-ap-ap-b__1.05.00..");
+		check("oewn--ap-ap-__1.05.00..");
+		check("oewn-x-rb-lb-y__1.05.00..");
+		check("oewn-x-sp-pl-cl-y__1.05.00..");
+		assertEquals("a-lb'b%1:05:00::", Sensekey.decode("oewn-a-lb-ap-b__1.05.00..").sensekey);
+		assertEquals("a'ap-b%1:05:00::", Sensekey.decode("oewn-a-ap-ap-b__1.05.00..").sensekey);
+	}
+
+	@Test
+	public void backToBackEscapes()
+	{
+		check("oewn-a-ap--lb-b__1.05.00..");
+		check("oewn-a-lb--rb--ap-b__1.05.00..");
+		assertEquals("a'(b%1:05:00::", Sensekey.decode("oewn-a-ap--lb-b__1.05.00..").sensekey);
+	}
+
+	@Test
+	public void escapesAtEnds()
+	{
+		check("oewn--lb-a-rb-__1.05.00..");
+		check("oewn-émi-ex-__1.03.03..");
+		check("oewn--ap-__1.05.00..");
+		assertEquals("(a)%1:05:00::", Sensekey.decode("oewn--lb-a-rb-__1.05.00..").sensekey);
+		assertEquals("émi!%1:03:03::", Sensekey.decode("oewn-émi-ex-__1.03.03..").sensekey);
+	}
+
+	@Test
+	public void escapesInHead()
+	{
+		check("oewn-big__5.00.00.little-ap-s.01");
+		check("oewn-big__5.00.00.-lb-a-rb-.01");
+		check("oewn-big__5.00.00.a-lb-ap-b.01");
+		assertEquals("big%5:00:00:little's:01", Sensekey.decode("oewn-big__5.00.00.little-ap-s.01").sensekey);
+	}
+
+	@Test
+	public void noHead()
+	{
+		check("oewn-big__3.00.01..");
+		check("oewn-big__3.00.01");
+		assertEquals(1, Sensekey.decode("oewn-big__3.00.01").getLexid());
+	}
+
+	@Test
+	public void noLexid()
+	{
+		check("oewn-big__3");
+		check("oewn-big__3.00");
+		check("oewn-big__3.00.x1..");
+		check("oewn-big__");
+		assertEquals("big%3", Sensekey.decode("oewn-big__3").sensekey);
+		for (String id : new String[]{"oewn-big__3", "oewn-big__3.00", "oewn-big__3.00.x1.."})
+		{
+			try
+			{
+				Sensekey.decode(id).getLexid();
+				fail("lexid of " + id);
+			}
+			catch (IllegalArgumentException e)
+			{
+				// no lexid
+			}
+		}
+	}
+
+	@Test
+	public void noLemmaSeparator()
+	{
+		boolean thrown = false;
+		try
+		{
+			chained("oewn-big.3.00.01..");
+		}
+		catch (StringIndexOutOfBoundsException e)
+		{
+			thrown = true;
+		}
+		assertTrue(thrown);
+		try
+		{
+			Sensekey.decode("oewn-big.3.00.01..");
+			fail("no lemma separator");
+		}
+		catch (StringIndexOutOfBoundsException e)
+		{
+			assertFalse(e.getMessage().isEmpty());
+		}
+	}
+
+	@Test
+	public void generated()
+	{
+		// ids made of fragments that form, split and chain escape sequences
+		String[] fragments = {"-", "--", "ap", "lb", "rb", "sl", "cm", "ex", "cl", "pl", "sp", "-ap-", "-lb-", "a", "é", ".", "_"};
+		Random random = new Random(13);
+		StringBuilder sb = new StringBuilder();
+		for (int n = 0; n < 100_000; n++)
+		{
+			sb.setLength(0);
+			sb.append(random.nextBoolean() ? "oewn-" : "");
+			for (int k = random.nextInt(8); k >= 0; k--)
+			{
+				sb.append(fragments[random.nextInt(fragments.length)]);
+			}
+			sb.append("__1.05.0").append(random.nextInt(10)).append('.');
+			for (int k = random.nextInt(4); k > 0; k--)
+			{
+				sb.append(fragments[random.nextInt(fragments.length)]);
+			}
+			sb.append('.');
+			check(sb.toString());
+		}
+	}
+}
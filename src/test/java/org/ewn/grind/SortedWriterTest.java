@@ -0,0 +1,238 @@
+package org.ewn.grind;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sorted output engine: sort in memory, spill, multi-pass merge and cleanup, checked against a stable sort of strings
+ *
+ * @author Bernard Bou
+ */
+public class SortedWriterTest
+{
+	/**
+	 * Added entry: key and sequence number
+	 */
+	private static class Entry
+	{
+		final String key;
+
+		final int seq;
+
+		Entry(String key, int seq)
+		{
+			this.key = key;
+			this.seq = seq;
+		}
+	}
+
+	/**
+	 * Keys with many duplicates, non-ASCII chars included, so that UTF-8 and UTF-16 orders would differ if keys were not encoded as sortable
+	 */
+	private static List<Entry> entries(int n, long seed)
+	{
+		String[] fragments = {"a", "b", "ab", "A", " ", "é", "ÿ", "中", "�", "😀"};
+		Random random = new Random(seed);
+		List<Entry> entries = new ArrayList<>();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < n; i++)
+		{
+			sb.setLength(0);
+			for (int k = random.nextInt(3); k >= 0; k--)
+			{
+				sb.append(fragments[random.nextInt(fragments.length)]);
+			}
+			entries.add(new Entry(sb.toString(), i));
+		}
+		return entries;
+	}
+
+	private static void add(SortedWriter writer, List<Entry> entries) throws IOException
+	{
+		SortedWriter.RecordEncoder key = new SortedWriter.RecordEncoder();
+		SortedWriter.RecordEncoder payload = new SortedWriter.RecordEncoder();
+		for (Entry entry : entries)
+		{
+			key.reset();
+			key.sortable(entry.key);
+			payload.reset();
+			payload.int32(entry.seq);
+			writer.add(key, payload);
+		}
+	}
+
+	/**
+	 * Check that records come back in key order, equal keys in the order they were added
+	 */
+	private static void check(SortedWriter writer, List<Entry> entries) throws IOException
+	{
+		List<Entry> expected = new ArrayList<>(entries);
+		expected.sort(Comparator.comparing(e -> e.key)); // stable
+		List<Integer> actual = new ArrayList<>();
+		writer.forEach(record -> actual.add(record.payload().getInt()));
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < actual.size(); i++)
+		{
+			assertEquals("at " + i, expected.get(i).seq, (int) actual.get(i));
+		}
+	}
+
+	/**
+	 * Run files of the writer with this name, in the temporary directory
+	 */
+	private static int runFiles(String name)
+	{
+		String prefix = "grind-" + name + '-';
+		File[] files = new File(System.getProperty("java.io.tmpdir")).listFiles((dir, n) -> n.startsWith(prefix) && n.endsWith(".run"));
+		return files == null ? 0 : files.length;
+	}
+
+	@Test
+	public void sortInMemory() throws IOException
+	{
+		List<Entry> entries = entries(10_000, 1);
+		try (SortedWriter writer = new SortedWriter("sortedwritertest-memory", 1L << 30))
+		{
+			add(writer, entries);
+			assertEquals(0, writer.getRunCount());
+			assertEquals(entries.size(), writer.size());
+			check(writer, entries);
+		}
+	}
+
+	@Test
+	public void spillAndMerge() throws IOException
+	{
+		String name = "sortedwritertest-spill";
+		List<Entry> entries = entries(10_000, 2);
+		try (SortedWriter writer = new SortedWriter(name, 32 << 10))
+		{
+			add(writer, entries);
+			int runs = writer.getRunCount();
+			assertTrue(runs > 1 && runs <= SortedWriter.MAX_FAN_IN);
+			assertEquals(runs, runFiles(name));
+			check(writer, entries);
+			check(writer, entries); // read again
+			assertEquals(runs, writer.getRunCount());
+		}
+		assertEquals(0, runFiles(name));
+	}
+
+	@Test
+	public void multiPassMerge() throws IOException
+	{
+		String name = "sortedwritertest-multipass";
+		List<Entry> entries = entries(5_000, 3);
+		try (SortedWriter writer = new SortedWriter(name, 0)) // one run per record but the last
+		{
+			add(writer, entries);
+			assertEquals(entries.size() - 1, writer.getRunCount());
+			assertTrue(writer.getRunCount() > SortedWriter.MAX_FAN_IN * SortedWriter.MAX_FAN_IN);
+			check(writer, entries);
+			assertTrue(writer.getRunCount() <= SortedWriter.MAX_FAN_IN);
+			assertEquals(writer.getRunCount(), runFiles(name)); // merged runs are deleted
+			check(writer, entries); // read again, from merged runs
+		}
+		assertEquals(0, runFiles(name));
+	}
+
+	@Test
+	public void addAfterRead() throws IOException
+	{
+		List<Entry> entries = entries(3_000, 4);
+		try (SortedWriter writer = new SortedWriter("sortedwritertest-addafterread", 0))
+		{
+			add(writer, entries.subList(0, 2_000));
+			check(writer, entries.subList(0, 2_000));
+			add(writer, entries.subList(2_000, entries.size()));
+			check(writer, entries);
+		}
+	}
+
+	@Test
+	public void groupsAndDistinct() throws IOException
+	{
+		List<Entry> entries = entries(5_000, 5);
+		List<String> keys = new ArrayList<>();
+		for (Entry entry : entries)
+		{
+			keys.add(entry.key);
+		}
+		keys.sort(null);
+		try (SortedWriter writer = new SortedWriter("sortedwritertest-groups", 1 << 10))
+		{
+			add(writer, entries);
+			assertTrue(writer.getRunCount() > SortedWriter.MAX_FAN_IN);
+
+			// groups: keys sorted, members in the order they were added
+			List<Integer> sizes = new ArrayList<>();
+			writer.forEachGroup(group -> {
+				int previous = -1;
+				for (SortedWriter.Record record : group)
+				{
+					int seq = record.payload().getInt();
+					assertTrue(seq > previous);
+					assertEquals(entries.get(seq).key, entries.get(group.get(0).payload().getInt()).key);
+					previous = seq;
+				}
+				sizes.add(group.size());
+			});
+			int i = 0;
+			for (int size : sizes)
+			{
+				assertEquals(keys.get(i), keys.get(i + size - 1));
+				assertTrue(i + size == keys.size() || !keys.get(i).equals(keys.get(i + size)));
+				i += size;
+			}
+			assertEquals(keys.size(), i);
+
+			// distinct: first added of each group
+			List<Integer> firsts = new ArrayList<>();
+			writer.forEachDistinct(record -> firsts.add(record.payload().getInt()));
+			assertEquals(sizes.size(), firsts.size());
+			for (int seq : firsts)
+			{
+				for (int j = 0; j < seq; j++)
+				{
+					assertFalse(entries.get(j).key.equals(entries.get(seq).key));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void lines() throws IOException
+	{
+		List<Entry> entries = entries(2_000, 6);
+		List<String> expected = new ArrayList<>();
+		try (SortedWriter writer = new SortedWriter("sortedwritertest-lines", 2 << 10))
+		{
+			for (Entry entry : entries)
+			{
+				writer.addLine(entry.key);
+				expected.add(entry.key + System.lineSeparator());
+			}
+			expected.sort(null);
+			List<String> actual = new ArrayList<>();
+			writer.forEach(record -> {
+				ByteBuffer payload = record.payload();
+				byte[] bytes = new byte[payload.remaining()];
+				payload.get(bytes);
+				actual.add(new String(bytes, StandardCharsets.UTF_8));
+			});
+			assertEquals(expected, actual);
+		}
+	}
+}